@@ -0,0 +1,146 @@
+package com.gp.poc.noncepoc.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.fppt.jedismock.RedisServer;
+import com.gp.poc.noncepoc.NoncePocApplication;
+import com.gp.poc.noncepoc.utils.CanonicalPayload;
+import com.gp.poc.noncepoc.utils.HmacUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.Banner;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// Signed, idempotent payments per second through the whole application
+// (Tomcat + the 3 filters + controller), every Redis reply delayed by
+// latencyMs (LatencyProxy in front of an in-process jedis-mock):
+//   blocking  the blocking chain
+//   async     security.redis.async: NonceSecurityFilter parks the request
+//             while its prefetch and claim are in flight
+//   virtual   spring.threads.virtual: the blocking chain, one virtual
+//             thread per request (Redis calls capped by RedisBulkhead)
+//   batched   the blocking chain with security.redis.batch: commands of
+//             concurrent requests share pipelines (RedisCommandBatcher)
+// 64 clients share 4 request threads (all but virtual), so under latency
+// the blocking chain runs out of threads long before Redis runs out of
+// capacity. Virtual threads are not pooled: only the bulkhead limits them.
+// IdempotencyFilter's lease acquire and result store block in all modes.
+// Absolute numbers are jedis-mock's (Lua interpreted in the JVM, same CPU):
+// compare rows, not against a real Redis.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(64)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class AsyncRedisLoadBenchmark {
+
+    private static final int REQUEST_THREADS = 4;
+    private static final String DEVICE_ID = "device-load";
+    private static final String PATH = "/api/payments/execute";
+
+    @Param({"blocking", "async", "virtual", "batched"})
+    public String mode;
+
+    @Param({"0", "20"})
+    public int latencyMs;
+
+    private RedisServer redis;
+    private LatencyProxy proxy;
+    private ConfigurableApplicationContext app;
+    private HttpClient http;
+    private URI payment;
+    private String jwt;
+    private String sessionKey;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        redis = RedisServer.newRedisServer().start();
+        proxy = new LatencyProxy(redis.getHost(), redis.getBindPort(), latencyMs);
+
+        app = new SpringApplicationBuilder(NoncePocApplication.class)
+                .bannerMode(Banner.Mode.OFF)
+                .run(
+                        "--server.port=0",
+                        "--server.tomcat.threads.max=" + REQUEST_THREADS,
+                        "--spring.data.redis.host=localhost",
+                        "--spring.data.redis.port=" + proxy.port(),
+                        "--security.redis.async.enabled=" + mode.equals("async"),
+                        "--spring.threads.virtual.enabled=" + mode.equals("virtual"),
+                        "--security.redis.batch.enabled=" + mode.equals("batched"),
+                        // jedis-mock puts commons-pool2 on this classpath, which
+                        // would turn on Boot's Lettuce pool (not in the app's)
+                        "--spring.data.redis.lettuce.pool.enabled=false",
+                        "--logging.level.root=WARN"
+                );
+
+        int port = ((WebServerApplicationContext) app).getWebServer().getPort();
+        http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        payment = URI.create("http://localhost:" + port + PATH);
+
+        HttpResponse<String> login = http.send(
+                HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/auth/login"))
+                        .header("X-Device-Id", DEVICE_ID)
+                        .POST(HttpRequest.BodyPublishers.noBody())
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+        Map<?, ?> session = new ObjectMapper().readValue(login.body(), Map.class);
+        jwt = (String) session.get("accessToken");
+        sessionKey = (String) session.get("sessionKey");
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws Exception {
+        app.close();
+        proxy.close();
+        redis.stop();
+    }
+
+    @Benchmark
+    public int payment() throws Exception {
+        String nonce = UUID.randomUUID().toString();
+        long timestamp = Instant.now().getEpochSecond();
+        String signature = HmacUtil.generateHmacSha256(
+                sessionKey, CanonicalPayload.build("POST", PATH, timestamp, nonce));
+
+        HttpResponse<Void> response = http.send(
+                HttpRequest.newBuilder(payment)
+                        .header("Authorization", "Bearer " + jwt)
+                        .header("X-Device-Id", DEVICE_ID)
+                        .header("X-Nonce", nonce)
+                        .header("X-Timestamp", Long.toString(timestamp))
+                        .header("X-Signature", signature)
+                        .header("Idempotency-Key", nonce)
+                        .POST(HttpRequest.BodyPublishers.noBody())
+                        .build(),
+                HttpResponse.BodyHandlers.discarding());
+
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Payment failed: " + response.statusCode());
+        }
+        return response.statusCode();
+    }
+}
@@ -0,0 +1,275 @@
+package com.gp.poc.noncepoc.bench;
+
+import com.gp.poc.noncepoc.exception.SecurityViolationException;
+import com.gp.poc.noncepoc.security.IdempotencyFilter;
+import com.gp.poc.noncepoc.security.NonceSecurityFilter;
+import com.gp.poc.noncepoc.security.SecurityMetrics;
+import com.gp.poc.noncepoc.service.DerivedSessionKeys;
+import com.gp.poc.noncepoc.service.IdempotencyLease;
+import com.gp.poc.noncepoc.service.IdempotencyService;
+import com.gp.poc.noncepoc.service.IdempotencyWaiters;
+import com.gp.poc.noncepoc.service.InMemoryNonceStore;
+import com.gp.poc.noncepoc.service.NonceSlot;
+import com.gp.poc.noncepoc.service.NonceStore;
+import com.gp.poc.noncepoc.service.RedisKey;
+import com.gp.poc.noncepoc.service.RedisKeyCodec;
+import com.gp.poc.noncepoc.service.RedisNonceService;
+import com.gp.poc.noncepoc.service.SecurityLookup;
+import com.gp.poc.noncepoc.service.SecurityLookupService;
+import com.gp.poc.noncepoc.service.SessionKeyNearCache;
+import com.gp.poc.noncepoc.service.StoredResponse;
+import com.gp.poc.noncepoc.utils.CanonicalPayload;
+import com.gp.poc.noncepoc.utils.HmacUtil;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.HandlerExceptionResolver;
+import org.springframework.web.servlet.ModelAndView;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// NonceSecurityFilter + IdempotencyFilter + a trivial controller, with the
+// Redis services replaced by in-memory stand-ins, so the numbers are the
+// filters' own CPU and allocation cost (run with -prof gc):
+//   payment            new nonce + new Idempotency-Key: full check, nonce
+//                      claim, lease, response capture and store
+//   idempotentRetry    new nonce, known Idempotency-Key: stored replay
+//   replayedNonce      rejected as REPLAY_ATTACK before any Redis work
+// Each op signs its request (see SignaturePrimitivesBenchmark.sign) and
+// allocates a MockHttpServletRequest/Response: subtract those baselines.
+// The app's INFO logging (one line per replay) is off.
+// metrics=none denies every meter (Micrometer no-ops), prometheus records
+// them as the app does (see SecurityMetricsBenchmark): the difference is
+// the instrumentation's overhead.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterChainBenchmark {
+
+    private static final String USER_ID = "user-123";
+    private static final String DEVICE_ID = "device-abc";
+    private static final String SESSION_KEY = "3f2b9c0d4e5a46b7a8c9d0e1f2a3b4c5";
+    private static final String PATH = "/api/payments/execute";
+    private static final String HASH_SECRET = "bench-hash-secret";
+    private static final byte[] PAYMENT_RESULT =
+            "{\"status\":\"PAYMENT_SUCCESS\"}".getBytes(StandardCharsets.UTF_8);
+
+    @Param({"none", "prometheus"})
+    public String metrics;
+
+    private final RedisTemplate<byte[], byte[]> unusedRedis = new RedisTemplate<>();
+    private final RedisKeyCodec keyCodec = new RedisKeyCodec(RedisKeyCodec.Mode.COMPACT, HASH_SECRET);
+
+    private MemoryIdempotencyService idempotencyService;
+    private FilterChain filters;
+    private long timestamp;
+    private long sequence;
+    private String replayedNonce;
+    private String retriedIdempotencyKey;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger("com.gp.poc.noncepoc"))
+                .setLevel(ch.qos.logback.classic.Level.WARN);
+
+        MeterRegistry registry;
+        if (metrics.equals("prometheus")) {
+            registry = SecurityMetricsBenchmark.appRegistry();
+        } else {
+            registry = new SimpleMeterRegistry();
+            registry.config().meterFilter(MeterFilter.deny());
+        }
+        SecurityMetrics securityMetrics = new SecurityMetrics(registry);
+        // What GlobalExceptionHandler does with a rejection, minus the JSON
+        HandlerExceptionResolver resolver = (request, response, handler, ex) -> {
+            SecurityViolationException violation = (SecurityViolationException) ex;
+            securityMetrics.rejected(violation.getCode());
+            response.setStatus(violation.getHttpStatus());
+            return new ModelAndView();
+        };
+
+        NonceStore nonceStore = new InMemoryNonceStore(
+                HASH_SECRET, RedisNonceService.Storage.KEYS, 300, 300, 1 << 22, 64);
+        idempotencyService = new MemoryIdempotencyService(
+                unusedRedis, new IdempotencyWaiters(keyCodec), keyCodec, registry);
+
+        NonceSecurityFilter nonceFilter = new NonceSecurityFilter(
+                nonceStore,
+                new MemorySecurityLookupService(
+                        unusedRedis,
+                        new SessionKeyNearCache(unusedRedis, keyCodec, registry, 16, 16, 5_000),
+                        nonceStore,
+                        idempotencyService),
+                keyCodec,
+                new DerivedSessionKeys(unusedRedis, keyCodec,
+                        DerivedSessionKeys.Mode.STORED, "", List.of(), 0),
+                securityMetrics,
+                resolver
+        );
+        ReflectionTestUtils.setField(nonceFilter, "asyncTimeoutMs", 2_000L);
+
+        IdempotencyFilter idempotencyFilter = new IdempotencyFilter(
+                idempotencyService,
+                new IdempotencyWaiters(keyCodec),
+                keyCodec,
+                securityMetrics,
+                resolver
+        );
+        ReflectionTestUtils.setField(idempotencyFilter, "replayHeaders", List.of("Content-Type"));
+
+        filters = (request, response) -> nonceFilter.doFilter(request, response,
+                (req, res) -> idempotencyFilter.doFilter(req, res, (r, payment) -> {
+                    payment.setContentType("application/json");
+                    payment.getOutputStream().write(PAYMENT_RESULT);
+                }));
+
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(USER_ID, null, List.of()));
+        timestamp = Instant.now().getEpochSecond();
+
+        replayedNonce = "replayed-" + timestamp;
+        retriedIdempotencyKey = "retried-" + timestamp;
+        if (send(replayedNonce, retriedIdempotencyKey) != 200) {
+            throw new IllegalStateException("Filter chain rejected a valid payment");
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        idempotencyService.shutdown();
+        SecurityContextHolder.clearContext();
+    }
+
+    @Benchmark
+    public int payment() throws Exception {
+        String id = Long.toString(++sequence);
+        return send(id, id);
+    }
+
+    @Benchmark
+    public int idempotentRetry() throws Exception {
+        return send(Long.toString(++sequence), retriedIdempotencyKey);
+    }
+
+    @Benchmark
+    public int replayedNonce() throws Exception {
+        return send(replayedNonce, Long.toString(++sequence));
+    }
+
+    private int send(String nonce, String idempotencyKey) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", PATH);
+        request.addHeader("X-Device-Id", DEVICE_ID);
+        request.addHeader("X-Nonce", nonce);
+        request.addHeader("X-Timestamp", Long.toString(timestamp));
+        request.addHeader("X-Signature", HmacUtil.generateHmacSha256(
+                SESSION_KEY, CanonicalPayload.build("POST", PATH, timestamp, nonce)));
+        request.addHeader("Idempotency-Key", idempotencyKey);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filters.doFilter(request, response);
+        return response.getStatus();
+    }
+
+    // Session key, nonce and idempotency reads without Redis
+    static final class MemorySecurityLookupService extends SecurityLookupService {
+
+        private final NonceStore nonceStore;
+        private final MemoryIdempotencyService idempotency;
+
+        MemorySecurityLookupService(
+                RedisTemplate<byte[], byte[]> unused,
+                SessionKeyNearCache sessionKeyCache,
+                NonceStore nonceStore,
+                MemoryIdempotencyService idempotency
+        ) {
+            super(unused, sessionKeyCache, nonceStore);
+            this.nonceStore = nonceStore;
+            this.idempotency = idempotency;
+        }
+
+        @Override
+        public SecurityLookup prefetch(
+                RedisKey sessionKeyKey,
+                NonceSlot nonceSlot,
+                RedisKey idempotencyKey
+        ) {
+            return new SecurityLookup(
+                    sessionKeyKey != null ? SESSION_KEY : null,
+                    nonceStore.seen(nonceSlot),
+                    idempotencyKey,
+                    idempotencyKey != null ? idempotency.values.get(idempotencyKey) : null
+            );
+        }
+    }
+
+    // Lease + stored result in a map, same value format as in Redis
+    static final class MemoryIdempotencyService extends IdempotencyService {
+
+        private static final byte[] IN_PROGRESS =
+                "LEASE:bench:1".getBytes(StandardCharsets.US_ASCII);
+
+        private final Map<RedisKey, byte[]> values = new ConcurrentHashMap<>();
+
+        MemoryIdempotencyService(
+                RedisTemplate<byte[], byte[]> unused,
+                IdempotencyWaiters waiters,
+                RedisKeyCodec keyCodec,
+                MeterRegistry metrics
+        ) {
+            super(unused, waiters, keyCodec, metrics, 512, 10_000);
+        }
+
+        @Override
+        public IdempotencyLease tryAcquire(RedisKey key) {
+            return values.putIfAbsent(key, IN_PROGRESS) == null
+                    ? new IdempotencyLease(key, "bench", 1)
+                    : null;
+        }
+
+        @Override
+        public boolean storeResult(IdempotencyLease lease, StoredResponse response) {
+            values.put(lease.key(), response.encode(512));
+            return true;
+        }
+
+        @Override
+        public void release(IdempotencyLease lease) {
+            values.remove(lease.key());
+        }
+
+        @Override
+        public Optional<StoredResponse> getResult(RedisKey key) {
+            return toResult(values.get(key));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.gp.poc.noncepoc.bench;
+
+import com.gp.poc.noncepoc.utils.CanonicalPayload;
+import com.gp.poc.noncepoc.utils.HmacUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+// legacyVerify = pre-change NonceSecurityFilter signature check
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HmacVerifyBenchmark {
+
+    private final String sessionKey = "3f2b9c0d4e5a46b7a8c9d0e1f2a3b4c5";
+    private final String method = "POST";
+    private final String path = "/api/payments/execute";
+    private final long timestamp = 1703801200L;
+    private final String nonce = "550e8400-e29b-41d4-a716-446655440000";
+
+    private String signature;
+
+    @Setup
+    public void setUp() {
+        signature = HmacUtil.generateHmacSha256(
+                sessionKey,
+                CanonicalPayload.build(method, path, timestamp, nonce)
+        );
+    }
+
+    @Benchmark
+    public boolean legacyVerify() throws Exception {
+        String payload =
+                method + "\n" + path + "\n" + timestamp + "\n" + nonce;
+
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(
+                sessionKey.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        String expectedSignature = Base64.getEncoder().encodeToString(
+                mac.doFinal(payload.getBytes(StandardCharsets.UTF_8)));
+
+        byte[] expected = Base64.getDecoder().decode(expectedSignature.trim());
+        byte[] actual = Base64.getDecoder().decode(signature.trim());
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return HmacUtil.verifyHmacSha256(
+                sessionKey, signature, method, path, timestamp, nonce);
+    }
+}
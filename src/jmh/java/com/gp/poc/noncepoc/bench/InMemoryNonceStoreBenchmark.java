@@ -0,0 +1,124 @@
+package com.gp.poc.noncepoc.bench;
+
+import com.gp.poc.noncepoc.service.InMemoryNonceStore;
+import com.gp.poc.noncepoc.service.NonceSlot;
+import com.gp.poc.noncepoc.service.RedisNonceService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Claims per second of InMemoryNonceStore, shared by all benchmark threads
+// (add -t <threads> to measure contention across shards).
+//   claimFresh     = slot (keyed hash) + claim of a never-seen nonce
+//   claimReplay    = slot + claim of a nonce already stored (rejected)
+//   slotOnly       = the keyed hash alone, to split hashing from storing
+//   stringMapClaim = baseline: legacy key String into a ConcurrentHashMap
+//   claimPrehashed = the store alone: PREHASHED fresh slots into an empty
+//                    store per invocation (per-thread state)
+// ttl is 1s (no drift) so the live set (and the preallocated tables) stay small at
+// millions of claims per second.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class InMemoryNonceStoreBenchmark {
+
+    private static final int MAX_ENTRIES = 1 << 23;
+    private static final int PREHASHED = 1 << 20;
+
+    private String userId = "user-123";
+    private String deviceId = "device-abc";
+    private String method = "POST";
+    private String uri = "/api/payments/execute";
+    private String replayed = "550e8400-e29b-41d4-a716-446655440000";
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private InMemoryNonceStore store;
+    private ConcurrentHashMap<String, Long> stringMap;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        store = newStore(MAX_ENTRIES);
+        store.claimNonce(store.slot(userId, deviceId, method, uri, replayed));
+        stringMap = new ConcurrentHashMap<>();
+    }
+
+    @State(Scope.Thread)
+    public static class Prehashed {
+
+        private NonceSlot[] slots;
+        private InMemoryNonceStore store;
+
+        @Setup(Level.Trial)
+        public void hash() {
+            InMemoryNonceStore hasher = newStore(1);
+            slots = new NonceSlot[PREHASHED];
+            for (int i = 0; i < PREHASHED; i++) {
+                slots[i] = hasher.slot("user-" + (i % 1_000), "device-abc",
+                        "POST", "/api/payments/execute", "nonce-" + i);
+            }
+        }
+
+        @Setup(Level.Invocation)
+        public void emptyStore() {
+            store = newStore(PREHASHED);
+        }
+    }
+
+    @Benchmark
+    public boolean claimFresh() {
+        String nonce = Long.toString(sequence.incrementAndGet());
+        return store.claimNonce(store.slot(userId, deviceId, method, uri, nonce));
+    }
+
+    @Benchmark
+    public boolean claimReplay() {
+        return store.claimNonce(store.slot(userId, deviceId, method, uri, replayed));
+    }
+
+    @Benchmark
+    public NonceSlot slotOnly() {
+        String nonce = Long.toString(sequence.incrementAndGet());
+        return store.slot(userId, deviceId, method, uri, nonce);
+    }
+
+    @Benchmark
+    public boolean stringMapClaim() {
+        String nonce = Long.toString(sequence.incrementAndGet());
+        String key = "nonce:" + userId + ":" + method + ":" + uri + ":" + nonce;
+        return stringMap.putIfAbsent(key, System.nanoTime()) == null;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PREHASHED)
+    public int claimPrehashed(Prehashed prehashed) {
+        int claimed = 0;
+        for (NonceSlot slot : prehashed.slots) {
+            if (prehashed.store.claimNonce(slot)) {
+                claimed++;
+            }
+        }
+        return claimed;
+    }
+
+    private static InMemoryNonceStore newStore(int maxEntries) {
+        return new InMemoryNonceStore(
+                "bench-hash-secret", RedisNonceService.Storage.KEYS, 1, 0, maxEntries, 64);
+    }
+}
@@ -0,0 +1,78 @@
+package com.gp.poc.noncepoc.bench;
+
+import com.gp.poc.noncepoc.utils.JwtUtil;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// legacyValidate = pre-change JwtUtil.validate (key + parser per call)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtUtilBenchmark {
+
+    static final String SECRET = "VERY_STRONG_JWT_SECRET_256_BITS_MIN";
+
+    private JwtUtil jwtUtil;
+    private JwtUtil jwtUtilNoClaimsCache;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        jwtUtil = newJwtUtil(10_000);
+        jwtUtilNoClaimsCache = newJwtUtil(0);
+        token = jwtUtil.generateToken("user-123", "device-abc");
+    }
+
+    @Benchmark
+    public Claims legacyValidate() {
+        return Jwts.parserBuilder()
+                .setSigningKey(Keys.hmacShaKeyFor(
+                        SECRET.getBytes(StandardCharsets.UTF_8)))
+                .build()
+                .parseClaimsJws(token)
+                .getBody();
+    }
+
+    @Benchmark
+    public Claims validateCachedParser() {
+        return jwtUtilNoClaimsCache.validate(token);
+    }
+
+    @Benchmark
+    public Claims validateCachedClaims() {
+        return jwtUtil.validate(token);
+    }
+
+    @Benchmark
+    public String generateToken() {
+        return jwtUtil.generateToken("user-123", "device-abc");
+    }
+
+    static JwtUtil newJwtUtil(long claimsCacheMaxSize) {
+        JwtUtil jwtUtil = new JwtUtil();
+        ReflectionTestUtils.setField(jwtUtil, "secret", SECRET);
+        ReflectionTestUtils.setField(jwtUtil, "issuer", "gp-nonce-poc");
+        ReflectionTestUtils.setField(jwtUtil, "accessTokenTtl", 900L);
+        ReflectionTestUtils.setField(jwtUtil, "claimsCacheMaxSize", claimsCacheMaxSize);
+        jwtUtil.init();
+        return jwtUtil;
+    }
+}
@@ -0,0 +1,124 @@
+package com.gp.poc.noncepoc.bench;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// TCP proxy in front of Redis that holds every reply for delayMillis, like
+// a slow network or a struggling Redis. A delay line, not a sleep per
+// read: replies keep their order but do not queue up behind each other's
+// delay, so a pipelined connection still sees one delay per round trip.
+final class LatencyProxy implements Closeable {
+
+    private static final byte[] END_OF_STREAM = new byte[0];
+
+    private record Chunk(long due, byte[] bytes) {
+    }
+
+    private final ServerSocket server;
+    private final String targetHost;
+    private final int targetPort;
+    private final long delayNanos;
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+    private final ExecutorService threads = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "latency-proxy");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    LatencyProxy(String targetHost, int targetPort, long delayMillis) throws IOException {
+        this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.targetHost = targetHost;
+        this.targetPort = targetPort;
+        this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        threads.execute(this::accept);
+    }
+
+    int port() {
+        return server.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        threads.shutdownNow();
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Socket client = server.accept();
+                Socket redis = new Socket(targetHost, targetPort);
+                client.setTcpNoDelay(true);
+                redis.setTcpNoDelay(true);
+                sockets.add(client);
+                sockets.add(redis);
+
+                BlockingQueue<Chunk> line = new LinkedBlockingQueue<>();
+                threads.execute(() -> forward(client, redis));
+                threads.execute(() -> stamp(redis, line));
+                threads.execute(() -> release(line, client));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    // Commands go straight through
+    private static void forward(Socket from, Socket to) {
+        try (InputStream in = from.getInputStream(); OutputStream out = to.getOutputStream()) {
+            in.transferTo(out);
+        } catch (IOException ignored) {
+            // connection closed
+        }
+    }
+
+    // Replies enter the line with the time they may leave it
+    private void stamp(Socket redis, BlockingQueue<Chunk> line) {
+        byte[] buffer = new byte[16 * 1024];
+        try (InputStream in = redis.getInputStream()) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                line.add(new Chunk(System.nanoTime() + delayNanos, Arrays.copyOf(buffer, n)));
+            }
+        } catch (IOException ignored) {
+            // connection closed
+        }
+        line.add(new Chunk(System.nanoTime(), END_OF_STREAM));
+    }
+
+    private static void release(BlockingQueue<Chunk> line, Socket client) {
+        try (OutputStream out = client.getOutputStream()) {
+            while (true) {
+                Chunk chunk = line.take();
+                if (chunk.bytes() == END_OF_STREAM) {
+                    return;
+                }
+                long wait;
+                while ((wait = chunk.due() - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                out.write(chunk.bytes());
+                out.flush();
+            }
+        } catch (IOException | InterruptedException ignored) {
+            // connection closed or proxy stopped
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.gp.poc.noncepoc.bench;
+
+import com.gp.poc.noncepoc.service.RedisKeyCodec;
+import com.gp.poc.noncepoc.service.RedisNonceService;
+import io.lettuce.core.LettuceFutures;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.SetArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.api.sync.RedisCommands;
+import io.lettuce.core.codec.ByteArrayCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// Redis memory and CPU per live nonce, against a REAL Redis (jedis-mock
+// accounts neither):
+//   -Dbench.redis=redis://localhost:6379/15  -p nonces=10000000
+// Writes `nonces` nonces per invocation as Redis would store them for the
+// given key mode and storage, prints used_memory and used_cpu deltas per
+// nonce, then deletes what it wrote.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class NonceFootprintBenchmark {
+
+    private static final byte[] USED = "USED".getBytes(StandardCharsets.US_ASCII);
+    private static final long TTL_SECONDS = 300;
+    private static final int BATCH = 10_000;
+
+    @Param({"LEGACY", "COMPACT"})
+    public RedisKeyCodec.Mode keyMode;
+
+    @Param({"KEYS", "BUCKETS"})
+    public RedisNonceService.Storage storage;
+
+    @Param({"100000"})
+    public int nonces;
+
+    @Param({"10000"})
+    public int users;
+
+    private RedisClient client;
+    private StatefulRedisConnection<byte[], byte[]> connection;
+    private RedisKeyCodec keyCodec;
+    private List<byte[]> written;
+    private Map<String, Double> before;
+
+    @Setup(Level.Trial)
+    public void connect() {
+        client = RedisClient.create(
+                System.getProperty("bench.redis", "redis://localhost:6379/15"));
+        connection = client.connect(ByteArrayCodec.INSTANCE);
+        keyCodec = new RedisKeyCodec(keyMode, "bench-hash-secret");
+    }
+
+    @Setup(Level.Invocation)
+    public void snapshot() {
+        written = new ArrayList<>();
+        before = stats(connection.sync());
+    }
+
+    @Benchmark
+    public void storeNonces() {
+        RedisAsyncCommands<byte[], byte[]> async = connection.async();
+        SetArgs setArgs = SetArgs.Builder.nx().ex(TTL_SECONDS);
+
+        long bucket = Instant.now().getEpochSecond() / TTL_SECONDS;
+        long expireAt = (bucket + 2) * TTL_SECONDS;
+
+        List<RedisFuture<?>> pending = new ArrayList<>(BATCH * 2);
+        for (int i = 0; i < nonces; i++) {
+            String userId = "user-" + (i % users);
+            byte[] key = keyCodec.nonce(
+                    userId,
+                    "POST",
+                    "/api/payments/execute",
+                    UUID.randomUUID().toString()
+            ).raw();
+
+            if (storage == RedisNonceService.Storage.KEYS) {
+                written.add(key);
+                pending.add(async.set(key, USED, setArgs));
+            } else {
+                byte[] set = keyCodec.nonceBucket(userId, bucket).raw();
+                if (i < users) {
+                    written.add(set);
+                }
+                pending.add(async.sadd(set, key));
+                pending.add(async.expireat(set, expireAt));
+            }
+
+            if (pending.size() >= BATCH) {
+                await(pending);
+            }
+        }
+        await(pending);
+    }
+
+    @TearDown(Level.Invocation)
+    public void report() {
+        RedisCommands<byte[], byte[]> sync = connection.sync();
+        Map<String, Double> after = stats(sync);
+
+        System.out.printf(
+                "%n%s/%s: %d nonces, %d keys, used_memory %.1f B/nonce, used_cpu %.2f us/nonce%n",
+                keyMode,
+                storage,
+                nonces,
+                written.size(),
+                (after.get("used_memory") - before.get("used_memory")) / nonces,
+                (cpu(after) - cpu(before)) * 1_000_000 / nonces
+        );
+
+        for (int i = 0; i < written.size(); i += BATCH) {
+            List<byte[]> batch = written.subList(i, Math.min(i + BATCH, written.size()));
+            sync.unlink(batch.toArray(new byte[0][]));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void disconnect() {
+        connection.close();
+        client.shutdown();
+    }
+
+    private static void await(List<RedisFuture<?>> pending) {
+        LettuceFutures.awaitAll(Duration.ofMinutes(1), pending.toArray(new RedisFuture[0]));
+        pending.clear();
+    }
+
+    private static double cpu(Map<String, Double> stats) {
+        return stats.get("used_cpu_user") + stats.get("used_cpu_sys");
+    }
+
+    private static Map<String, Double> stats(RedisCommands<byte[], byte[]> sync) {
+        Map<String, Double> stats = new TreeMap<>();
+        for (String section : List.of("memory", "cpu")) {
+            for (String line : sync.info(section).split("\r?\n")) {
+                int colon = line.indexOf(':');
+                if (colon > 0 && (line.startsWith("used_memory:")
+                        || line.startsWith("used_cpu_user:")
+                        || line.startsWith("used_cpu_sys:"))) {
+                    stats.put(line.substring(0, colon),
+                            Double.parseDouble(line.substring(colon + 1).trim()));
+                }
+            }
+        }
+        return stats;
+    }
+}
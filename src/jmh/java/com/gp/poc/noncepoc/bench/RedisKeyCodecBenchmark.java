@@ -0,0 +1,52 @@
+package com.gp.poc.noncepoc.bench;
+
+import com.gp.poc.noncepoc.service.RedisKey;
+import com.gp.poc.noncepoc.service.RedisKeyCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// legacyNonceKey = pre-change RedisNonceService.buildKey + StringRedisSerializer
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RedisKeyCodecBenchmark {
+
+    private String userId = "user-123";
+    private String method = "POST";
+    private String uri = "/api/payments/execute";
+    private String nonce = "550e8400-e29b-41d4-a716-446655440000";
+
+    private final RedisKeyCodec legacy =
+            new RedisKeyCodec(RedisKeyCodec.Mode.LEGACY, "bench-hash-secret");
+    private final RedisKeyCodec compact =
+            new RedisKeyCodec(RedisKeyCodec.Mode.COMPACT, "bench-hash-secret");
+
+    @Benchmark
+    public byte[] legacyNonceKey() {
+        String key = "nonce:" + userId + ":" + method + ":" + uri + ":" + nonce;
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public RedisKey legacyLayoutCodec() {
+        return legacy.nonce(userId, method, uri, nonce);
+    }
+
+    @Benchmark
+    public RedisKey compactNonceKey() {
+        return compact.nonce(userId, method, uri, nonce);
+    }
+}
@@ -0,0 +1,237 @@
+package com.gp.poc.noncepoc.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gp.poc.noncepoc.dto.ErrorResponse;
+import com.gp.poc.noncepoc.exception.SecurityErrorWriter;
+import com.gp.poc.noncepoc.exception.SecurityViolationException;
+import com.gp.poc.noncepoc.exception.SecurityViolations;
+import com.gp.poc.noncepoc.security.NonceSecurityFilter;
+import com.gp.poc.noncepoc.security.SecurityMetrics;
+import com.gp.poc.noncepoc.service.DerivedSessionKeys;
+import com.gp.poc.noncepoc.service.IdempotencyWaiters;
+import com.gp.poc.noncepoc.service.InMemoryNonceStore;
+import com.gp.poc.noncepoc.service.NonceStore;
+import com.gp.poc.noncepoc.service.RedisKeyCodec;
+import com.gp.poc.noncepoc.service.RedisNonceService;
+import com.gp.poc.noncepoc.service.SessionKeyNearCache;
+import com.gp.poc.noncepoc.utils.CanonicalPayload;
+import com.gp.poc.noncepoc.utils.HmacUtil;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.HandlerExceptionResolver;
+import org.springframework.web.servlet.ModelAndView;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// What a rejection costs, the common case during a replay or bad-signature
+// flood (run with -prof gc). Each pair is before / after:
+//   newViolation / preallocatedViolation
+//       throwing a SecurityViolationException through DEPTH frames (about a
+//       servlet filter chain) and catching it: a new one fills in its stack
+//       trace on the way, a preallocated stackless one doesn't
+//   jacksonError / templateError
+//       writing the error JSON: ErrorResponse + Instant.toString() + Jackson
+//       (GlobalExceptionHandler before) vs SecurityErrorWriter's templates
+//   jacksonReplayedNonce / templateReplayedNonce
+//       NonceSecurityFilter rejecting a replayed nonce end to end (in-memory
+//       stores), answered by either writer. The filter throws the
+//       preallocated violations in both: add the first pair's difference
+//       for the full before/after.
+// Request and response objects are included, as in FilterChainBenchmark;
+// the replays sign once, at setup.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RejectionBenchmark {
+
+    private static final int DEPTH = 40;
+
+    private static final String USER_ID = "user-123";
+    private static final String DEVICE_ID = "device-abc";
+    private static final String SESSION_KEY = "3f2b9c0d4e5a46b7a8c9d0e1f2a3b4c5";
+    private static final String PATH = "/api/payments/execute";
+    private static final String HASH_SECRET = "bench-hash-secret";
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private final MeterRegistry registry = SecurityMetricsBenchmark.appRegistry();
+    private final SecurityMetrics securityMetrics = new SecurityMetrics(registry);
+    private final SecurityErrorWriter errorWriter = new SecurityErrorWriter(objectMapper, securityMetrics);
+
+    // GlobalExceptionHandler's rejection before SecurityErrorWriter
+    private final HandlerExceptionResolver jackson = (request, response, handler, ex) -> {
+        SecurityViolationException violation = (SecurityViolationException) ex;
+        securityMetrics.rejected(violation.getCode());
+        response.setStatus(violation.getHttpStatus());
+        response.setContentType("application/json");
+        try {
+            objectMapper.writeValue(response.getOutputStream(), ErrorResponse.builder()
+                    .code(violation.getCode())
+                    .message(violation.getMessage())
+                    .timestamp(Instant.now().toString())
+                    .path(request.getRequestURI())
+                    .build());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new ModelAndView();
+    };
+
+    private final MockHttpServletRequest errorRequest = new MockHttpServletRequest("POST", PATH);
+
+    private FilterChainBenchmark.MemoryIdempotencyService idempotencyService;
+    private NonceSecurityFilter jacksonFilter;
+    private NonceSecurityFilter templateFilter;
+    private long timestamp;
+    private String nonce;
+    private String signature;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger("com.gp.poc.noncepoc"))
+                .setLevel(ch.qos.logback.classic.Level.WARN);
+
+        RedisTemplate<byte[], byte[]> unusedRedis = new RedisTemplate<>();
+        RedisKeyCodec keyCodec = new RedisKeyCodec(RedisKeyCodec.Mode.COMPACT, HASH_SECRET);
+        NonceStore nonceStore = new InMemoryNonceStore(
+                HASH_SECRET, RedisNonceService.Storage.KEYS, 300, 300, 1 << 16, 64);
+        idempotencyService = new FilterChainBenchmark.MemoryIdempotencyService(
+                unusedRedis, new IdempotencyWaiters(keyCodec), keyCodec, registry);
+
+        SessionKeyNearCache sessionKeyCache =
+                new SessionKeyNearCache(unusedRedis, keyCodec, registry, 16, 16, 5_000);
+        jacksonFilter = nonceFilter(unusedRedis, keyCodec, nonceStore, sessionKeyCache, jackson);
+        templateFilter = nonceFilter(unusedRedis, keyCodec, nonceStore, sessionKeyCache, errorWriter);
+
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(USER_ID, null, List.of()));
+
+        timestamp = Instant.now().getEpochSecond();
+        nonce = "replayed-" + timestamp;
+        signature = HmacUtil.generateHmacSha256(
+                SESSION_KEY, CanonicalPayload.build("POST", PATH, timestamp, nonce));
+
+        // First use claims the nonce, every later one is a replay
+        if (send(jacksonFilter) != 200
+                || send(jacksonFilter) != 401
+                || send(templateFilter) != 401) {
+            throw new IllegalStateException("Replay was not rejected");
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        idempotencyService.shutdown();
+        SecurityContextHolder.clearContext();
+    }
+
+    @Benchmark
+    public Object newViolation() {
+        try {
+            return throwAt(DEPTH, false);
+        } catch (SecurityViolationException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Object preallocatedViolation() {
+        try {
+            return throwAt(DEPTH, true);
+        } catch (SecurityViolationException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public int jacksonError() {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        jackson.resolveException(errorRequest, response, null, SecurityViolations.REPLAY_ATTACK);
+        return response.getContentAsByteArray().length;
+    }
+
+    @Benchmark
+    public int templateError() {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        errorWriter.resolveException(errorRequest, response, null, SecurityViolations.REPLAY_ATTACK);
+        return response.getContentAsByteArray().length;
+    }
+
+    @Benchmark
+    public int jacksonReplayedNonce() throws Exception {
+        return send(jacksonFilter);
+    }
+
+    @Benchmark
+    public int templateReplayedNonce() throws Exception {
+        return send(templateFilter);
+    }
+
+    private int send(NonceSecurityFilter filter) throws Exception {
+        // A new request each time: the filter runs once per request object
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", PATH);
+        request.addHeader("X-Device-Id", DEVICE_ID);
+        request.addHeader("X-Nonce", nonce);
+        request.addHeader("X-Timestamp", Long.toString(timestamp));
+        request.addHeader("X-Signature", signature);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, (req, res) -> ((MockHttpServletResponse) res).setStatus(200));
+        return response.getStatus();
+    }
+
+    private NonceSecurityFilter nonceFilter(
+            RedisTemplate<byte[], byte[]> unusedRedis,
+            RedisKeyCodec keyCodec,
+            NonceStore nonceStore,
+            SessionKeyNearCache sessionKeyCache,
+            HandlerExceptionResolver resolver
+    ) {
+        NonceSecurityFilter filter = new NonceSecurityFilter(
+                nonceStore,
+                new FilterChainBenchmark.MemorySecurityLookupService(
+                        unusedRedis, sessionKeyCache, nonceStore, idempotencyService),
+                keyCodec,
+                new DerivedSessionKeys(unusedRedis, keyCodec,
+                        DerivedSessionKeys.Mode.STORED, "", List.of(), 0),
+                securityMetrics,
+                resolver
+        );
+        ReflectionTestUtils.setField(filter, "asyncTimeoutMs", 2_000L);
+        return filter;
+    }
+
+    // The stack a violation is thrown from, like filters calling on
+    private static Object throwAt(int depth, boolean preallocated) {
+        if (depth == 0) {
+            throw preallocated
+                    ? SecurityViolations.REPLAY_ATTACK
+                    : new SecurityViolationException(401, "REPLAY_ATTACK", "Replay attack detected");
+        }
+        return throwAt(depth - 1, preallocated);
+    }
+}
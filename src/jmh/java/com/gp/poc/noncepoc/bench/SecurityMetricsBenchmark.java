@@ -0,0 +1,84 @@
+package com.gp.poc.noncepoc.bench;
+
+import com.gp.poc.noncepoc.security.SecurityMetrics;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// One SecurityMetrics recording on a Prometheus registry with the app's
+// percentile histograms (application.yml); run with -prof gc, all but
+// taggedLookup should allocate nothing:
+//   stage            a filter stage timer (nanoTime delta)
+//   redisOperation   a redis.operation timer
+//   rejection        security.rejections{code} of a known code
+//   taggedLookup     for comparison: the same stage timer looked up by
+//                    name and tags per request
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SecurityMetricsBenchmark {
+
+    private final MeterRegistry registry = appRegistry();
+    private final SecurityMetrics metrics = new SecurityMetrics(registry);
+    private final long start = System.nanoTime();
+
+    @Benchmark
+    public void stage() {
+        metrics.record(SecurityMetrics.Stage.NONCE_SIGNATURE, start);
+    }
+
+    @Benchmark
+    public void redisOperation() {
+        metrics.record(SecurityMetrics.RedisOperation.SECURITY_LOOKUP, start);
+    }
+
+    @Benchmark
+    public void rejection() {
+        metrics.rejected("REPLAY_ATTACK");
+    }
+
+    @Benchmark
+    public void taggedLookup() {
+        registry.timer("security.filter.stage", "filter", "nonce", "stage", "signature")
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    // Prometheus, with the percentile histograms application.yml turns on
+    static MeterRegistry appRegistry() {
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        registry.config().meterFilter(new MeterFilter() {
+            @Override
+            public DistributionStatisticConfig configure(
+                    Meter.Id id,
+                    DistributionStatisticConfig config
+            ) {
+                if (id.getName().equals("security.filter.stage")
+                        || id.getName().equals("redis.operation")) {
+                    return DistributionStatisticConfig.builder()
+                            .percentilesHistogram(true)
+                            .build()
+                            .merge(config);
+                }
+                return config;
+            }
+        });
+        return registry;
+    }
+}
@@ -0,0 +1,71 @@
+package com.gp.poc.noncepoc.bench;
+
+import com.gp.poc.noncepoc.utils.CanonicalPayload;
+import com.gp.poc.noncepoc.utils.HmacUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+// The pieces of a signature check, one by one (verify as a whole:
+// HmacVerifyBenchmark). base64DecodeAndCompare is the X-Signature decode +
+// constant-time compare as done before HmacUtil decoded in place.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignaturePrimitivesBenchmark {
+
+    private final String sessionKey = "3f2b9c0d4e5a46b7a8c9d0e1f2a3b4c5";
+    private final String method = "POST";
+    private final String path = "/api/payments/execute";
+    private final long timestamp = 1703801200L;
+    private final String nonce = "550e8400-e29b-41d4-a716-446655440000";
+
+    private byte[] bodySha256;
+    private String payload;
+    private String signature;
+    private byte[] expected;
+
+    @Setup
+    public void setUp() throws Exception {
+        bodySha256 = MessageDigest.getInstance("SHA-256")
+                .digest("{\"amount\":100}".getBytes(StandardCharsets.UTF_8));
+        payload = CanonicalPayload.build(method, path, timestamp, nonce);
+        signature = HmacUtil.generateHmacSha256(sessionKey, payload);
+        expected = Base64.getDecoder().decode(signature);
+    }
+
+    @Benchmark
+    public String canonicalPayloadV1() {
+        return CanonicalPayload.build(method, path, timestamp, nonce);
+    }
+
+    @Benchmark
+    public String canonicalPayloadV2() {
+        return CanonicalPayload.build(method, path, timestamp, nonce, bodySha256);
+    }
+
+    @Benchmark
+    public String sign() {
+        return HmacUtil.generateHmacSha256(sessionKey, payload);
+    }
+
+    @Benchmark
+    public boolean base64DecodeAndCompare() {
+        return MessageDigest.isEqual(expected, Base64.getDecoder().decode(signature.trim()));
+    }
+}
@@ -0,0 +1,109 @@
+package com.gp.poc.noncepoc.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Latency (HdrHistogram, microseconds) and outcome per kind of request.
+// Recording is wait-free, so workers share one report.
+final class LoadReport {
+
+    enum Kind {
+        // new nonce, new Idempotency-Key: the payment runs
+        FRESH(200),
+        // new nonce, an earlier Idempotency-Key: the stored response is replayed
+        IDEMPOTENT_RETRY(200),
+        // an earlier request resent as is: REPLAY_ATTACK
+        REPLAY(401);
+
+        private final int expectedStatus;
+
+        Kind(int expectedStatus) {
+            this.expectedStatus = expectedStatus;
+        }
+    }
+
+    private final Map<Kind, Recorder> latencies = new EnumMap<>(Kind.class);
+    private final Map<Kind, LongAdder> unexpected = new EnumMap<>(Kind.class);
+    private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+    LoadReport() {
+        for (Kind kind : Kind.values()) {
+            latencies.put(kind, new Recorder(3));
+            unexpected.put(kind, new LongAdder());
+        }
+    }
+
+    // status -1: the request failed without a response
+    void record(Kind kind, int status, long latencyNanos) {
+        latencies.get(kind).recordValue(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+        statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+        if (status != kind.expectedStatus) {
+            unexpected.get(kind).increment();
+        }
+    }
+
+    // Once, at the end of the run; histogramDir may be null
+    void print(PrintStream out, double seconds, int concurrency, Path histogramDir)
+            throws IOException {
+        Map<Kind, Histogram> histograms = new EnumMap<>(Kind.class);
+        Histogram all = new Histogram(3);
+        for (Kind kind : Kind.values()) {
+            Histogram histogram = latencies.get(kind).getIntervalHistogram();
+            histograms.put(kind, histogram);
+            all.add(histogram);
+        }
+
+        out.printf("%n%,d requests in %.1f s, %d clients: %,.1f req/s%n",
+                all.getTotalCount(), seconds, concurrency, all.getTotalCount() / seconds);
+        out.printf("Status codes: %s%n%n", new TreeMap<>(statuses));
+        out.printf("%-17s %10s %10s %9s %9s %9s %9s %9s%n",
+                "latency (ms)", "count", "unexpected", "p50", "p90", "p99", "p99.9", "max");
+        for (Kind kind : Kind.values()) {
+            row(out, kind.name(), histograms.get(kind), unexpected.get(kind).sum());
+        }
+        row(out, "ALL", all, unexpected.values().stream().mapToLong(LongAdder::sum).sum());
+
+        if (histogramDir != null) {
+            Files.createDirectories(histogramDir);
+            for (Kind kind : Kind.values()) {
+                write(histogramDir.resolve(kind.name().toLowerCase() + ".hgrm"),
+                        histograms.get(kind));
+            }
+            write(histogramDir.resolve("all.hgrm"), all);
+            out.printf("%nPercentile distributions (.hgrm) in %s%n", histogramDir.toAbsolutePath());
+        }
+    }
+
+    private static void row(PrintStream out, String name, Histogram histogram, long unexpected) {
+        out.printf("%-17s %,10d %,10d %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                name,
+                histogram.getTotalCount(),
+                unexpected,
+                millis(histogram.getValueAtPercentile(50)),
+                millis(histogram.getValueAtPercentile(90)),
+                millis(histogram.getValueAtPercentile(99)),
+                millis(histogram.getValueAtPercentile(99.9)),
+                millis(histogram.getMaxValue()));
+    }
+
+    private static void write(Path file, Histogram histogram) throws IOException {
+        try (PrintStream out = new PrintStream(Files.newOutputStream(file))) {
+            histogram.outputPercentileDistribution(out, 1000.0); // in ms
+        }
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+}
@@ -0,0 +1,236 @@
+package com.gp.poc.noncepoc.loadtest;
+
+import com.github.fppt.jedismock.RedisServer;
+import com.gp.poc.noncepoc.NoncePocApplication;
+import com.gp.poc.noncepoc.loadtest.LoadReport.Kind;
+import com.gp.poc.noncepoc.loadtest.SignedClient.SignedRequest;
+import org.springframework.boot.Banner;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Closed-loop load on POST /api/payments/execute with correctly signed
+// requests: each client logs in through /auth/login as its own device and
+// sends its next request as soon as the previous one is answered.
+// Without target=, the app runs in this JVM on an in-process Redis
+// stand-in (jedis-mock): no Redis or network needed, but the numbers are
+// jedis-mock's and the app shares the CPU with the clients. Arguments
+// starting with -- go to that app (e.g. --security.redis.batch.enabled=true).
+//
+//   concurrency=32               clients
+//   duration=30s  warmup=5s      measured time, unmeasured time before it
+//   replay-ratio=0.05            share resending an earlier request as is
+//   idempotency-reuse-ratio=0.1  share reusing an earlier Idempotency-Key
+//   signature-version=1          1, or 2 (signed JSON body)
+//   target=http://host:8080      an app that is already running
+//   histograms=target/loadtest   where to write .hgrm distributions
+public final class LoadTest {
+
+    private record Options(
+            int concurrency,
+            Duration duration,
+            Duration warmup,
+            double replayRatio,
+            double idempotencyReuseRatio,
+            int signatureVersion,
+            URI target,
+            Path histograms,
+            List<String> appArgs
+    ) {
+
+        static Options parse(String[] args) {
+            Map<String, String> values = new HashMap<>();
+            List<String> appArgs = new ArrayList<>();
+            for (String arg : args) {
+                if (arg.startsWith("--")) {
+                    appArgs.add(arg);
+                    continue;
+                }
+                int equals = arg.indexOf('=');
+                if (equals < 0) {
+                    throw new IllegalArgumentException("Expected key=value: " + arg);
+                }
+                values.put(arg.substring(0, equals), arg.substring(equals + 1));
+            }
+
+            Options options = new Options(
+                    Integer.parseInt(values.getOrDefault("concurrency", "32")),
+                    duration(values.getOrDefault("duration", "30s")),
+                    duration(values.getOrDefault("warmup", "5s")),
+                    Double.parseDouble(values.getOrDefault("replay-ratio", "0.05")),
+                    Double.parseDouble(values.getOrDefault("idempotency-reuse-ratio", "0.1")),
+                    Integer.parseInt(values.getOrDefault("signature-version", "1")),
+                    values.containsKey("target") ? URI.create(values.get("target")) : null,
+                    Path.of(values.getOrDefault("histograms", "target/loadtest")),
+                    appArgs
+            );
+            if (options.replayRatio() + options.idempotencyReuseRatio() > 1) {
+                throw new IllegalArgumentException(
+                        "replay-ratio + idempotency-reuse-ratio must not exceed 1");
+            }
+            return options;
+        }
+
+        // 30s, 2m, 500ms
+        private static Duration duration(String value) {
+            if (value.endsWith("ms")) {
+                return Duration.ofMillis(Long.parseLong(value.substring(0, value.length() - 2)));
+            }
+            long amount = Long.parseLong(value.substring(0, value.length() - 1));
+            return switch (value.charAt(value.length() - 1)) {
+                case 's' -> Duration.ofSeconds(amount);
+                case 'm' -> Duration.ofMinutes(amount);
+                default -> throw new IllegalArgumentException("Unknown duration: " + value);
+            };
+        }
+    }
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+
+        RedisServer redis = null;
+        ConfigurableApplicationContext app = null;
+        URI target = options.target();
+        try {
+            if (target == null) {
+                redis = RedisServer.newRedisServer().start();
+                app = startApp(redis, options.appArgs());
+                int port = ((WebServerApplicationContext) app).getWebServer().getPort();
+                target = URI.create("http://localhost:" + port);
+            }
+
+            run(options, target);
+        } finally {
+            if (app != null) {
+                app.close();
+            }
+            if (redis != null) {
+                redis.stop();
+            }
+        }
+        System.exit(0);
+    }
+
+    private static ConfigurableApplicationContext startApp(RedisServer redis, List<String> appArgs)
+            throws IOException {
+        List<String> args = new ArrayList<>(List.of(
+                "--server.port=0",
+                "--spring.data.redis.host=" + redis.getHost(),
+                "--spring.data.redis.port=" + redis.getBindPort(),
+                // jedis-mock puts commons-pool2 on this classpath, which
+                // would turn on Boot's Lettuce pool (not in the app's)
+                "--spring.data.redis.lettuce.pool.enabled=false",
+                "--logging.level.root=WARN",
+                // it logs every connection the app drops on shutdown
+                "--logging.level.com.github.fppt.jedismock=OFF",
+                // every client would hit its device limit; measure the
+                // limiter itself with --security.rate-limit.enabled=true
+                "--security.rate-limit.enabled=false"
+        ));
+        args.addAll(appArgs); // later arguments win
+
+        return new SpringApplicationBuilder(NoncePocApplication.class)
+                .bannerMode(Banner.Mode.OFF)
+                .run(args.toArray(String[]::new));
+    }
+
+    private static void run(Options options, URI target) throws Exception {
+        HttpClient http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .build();
+
+        List<SignedClient> clients = new ArrayList<>(options.concurrency());
+        for (int i = 0; i < options.concurrency(); i++) {
+            clients.add(SignedClient.login(
+                    http, target, "load-device-" + i, options.signatureVersion()));
+        }
+
+        System.out.printf("%d clients on %s%s: warmup %s, measuring %s%n",
+                options.concurrency(), target,
+                options.appArgs().isEmpty() ? "" : " " + options.appArgs(),
+                options.warmup(), options.duration());
+
+        LoadReport report = new LoadReport();
+        long measureFrom = System.nanoTime() + options.warmup().toNanos();
+        long end = measureFrom + options.duration().toNanos();
+
+        List<Future<?>> running = new ArrayList<>();
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients.size(); i++) {
+                SignedClient client = clients.get(i);
+                SplittableRandom random = new SplittableRandom(i);
+                running.add(workers.submit(() -> {
+                    drive(client, random, options, report, measureFrom, end);
+                    return null;
+                }));
+            }
+        }
+        for (Future<?> worker : running) {
+            worker.get();
+        }
+
+        report.print(System.out, options.duration().toNanos() / 1e9,
+                options.concurrency(), options.histograms());
+    }
+
+    // One client's loop. A replay resends the client's last fresh request;
+    // a retry signs a new request with its last Idempotency-Key.
+    private static void drive(
+            SignedClient client,
+            SplittableRandom random,
+            Options options,
+            LoadReport report,
+            long measureFrom,
+            long end
+    ) throws InterruptedException {
+        SignedRequest lastFresh = null;
+
+        long start;
+        while ((start = System.nanoTime()) < end) {
+            double roll = random.nextDouble();
+            Kind kind;
+            SignedRequest request;
+            if (lastFresh != null && roll < options.replayRatio()) {
+                kind = Kind.REPLAY;
+                request = lastFresh;
+            } else if (lastFresh != null
+                    && roll < options.replayRatio() + options.idempotencyReuseRatio()) {
+                kind = Kind.IDEMPOTENT_RETRY;
+                request = client.sign(lastFresh.idempotencyKey());
+            } else {
+                kind = Kind.FRESH;
+                request = client.sign(UUID.randomUUID().toString());
+                lastFresh = request;
+            }
+
+            int status;
+            try {
+                status = client.send(request);
+            } catch (IOException e) {
+                status = -1;
+            }
+
+            if (start >= measureFrom) {
+                report.record(kind, status, System.nanoTime() - start);
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.gp.poc.noncepoc.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gp.poc.noncepoc.utils.CanonicalPayload;
+import com.gp.poc.noncepoc.utils.HmacUtil;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+
+// One logged-in device: signs payments the way SignatureService.generate
+// does (same CanonicalPayload + HmacUtil) and sends them
+final class SignedClient {
+
+    static final String PATH = "/api/payments/execute";
+
+    private static final String METHOD = "POST";
+    private static final String BODY = "{\"amount\":100,\"currency\":\"EUR\"}";
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    // Everything needed to send (or resend, for a replay) one request
+    record SignedRequest(
+            String nonce,
+            long timestamp,
+            String signature,
+            String idempotencyKey
+    ) {
+    }
+
+    private final HttpClient http;
+    private final URI payment;
+    private final String deviceId;
+    private final String jwt;
+    private final String sessionKey;
+    private final int signatureVersion;
+
+    private SignedClient(
+            HttpClient http,
+            URI payment,
+            String deviceId,
+            String jwt,
+            String sessionKey,
+            int signatureVersion
+    ) {
+        this.http = http;
+        this.payment = payment;
+        this.deviceId = deviceId;
+        this.jwt = jwt;
+        this.sessionKey = sessionKey;
+        this.signatureVersion = signatureVersion;
+    }
+
+    static SignedClient login(
+            HttpClient http,
+            URI baseUri,
+            String deviceId,
+            int signatureVersion
+    ) throws IOException, InterruptedException {
+        HttpResponse<String> login = http.send(
+                HttpRequest.newBuilder(baseUri.resolve("/auth/login"))
+                        .header("X-Device-Id", deviceId)
+                        .POST(HttpRequest.BodyPublishers.noBody())
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+        if (login.statusCode() != 200) {
+            throw new IllegalStateException("Login failed: " + login.statusCode());
+        }
+
+        Map<?, ?> session = JSON.readValue(login.body(), Map.class);
+        return new SignedClient(
+                http,
+                baseUri.resolve(PATH),
+                deviceId,
+                (String) session.get("accessToken"),
+                (String) session.get("sessionKey"),
+                signatureVersion
+        );
+    }
+
+    SignedRequest sign(String idempotencyKey) {
+        String nonce = UUID.randomUUID().toString();
+        long timestamp = Instant.now().getEpochSecond();
+
+        String payload = signatureVersion == CanonicalPayload.VERSION_2
+                ? CanonicalPayload.build(METHOD, PATH, timestamp, nonce, sha256(BODY))
+                : CanonicalPayload.build(METHOD, PATH, timestamp, nonce);
+
+        return new SignedRequest(
+                nonce,
+                timestamp,
+                HmacUtil.generateHmacSha256(sessionKey, payload),
+                idempotencyKey
+        );
+    }
+
+    // Status code of the response (its body is discarded)
+    int send(SignedRequest request) throws IOException, InterruptedException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(payment)
+                .header("Authorization", "Bearer " + jwt)
+                .header("X-Device-Id", deviceId)
+                .header("X-Nonce", request.nonce())
+                .header("X-Timestamp", Long.toString(request.timestamp()))
+                .header("X-Signature", request.signature())
+                .header("Idempotency-Key", request.idempotencyKey());
+
+        if (signatureVersion == CanonicalPayload.VERSION_2) {
+            builder.header("X-Signature-Version", "2")
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(BODY));
+        } else {
+            builder.POST(HttpRequest.BodyPublishers.noBody());
+        }
+
+        return http.send(builder.build(), HttpResponse.BodyHandlers.discarding())
+                .statusCode();
+    }
+
+    private static byte[] sha256(String body) {
+        try {
+            return MessageDigest.getInstance("SHA-256")
+                    .digest(body.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.gp.poc.noncepoc.api;
 
+import com.gp.poc.noncepoc.service.DerivedSessionKeys;
+import com.gp.poc.noncepoc.service.SessionGrant;
 import com.gp.poc.noncepoc.service.SessionKeyService;
 import com.gp.poc.noncepoc.utils.JwtUtil;
 import lombok.RequiredArgsConstructor;
@@ -17,6 +19,7 @@ public class AuthController {
 
     private final JwtUtil jwtUtil;
     private final SessionKeyService sessionKeyService;
+    private final DerivedSessionKeys derivedSessionKeys;
 
     @PostMapping("/login")
     public Map<String, Object> login(
@@ -25,8 +28,15 @@ public class AuthController {
         // ? POC: replace with real auth (DB / OTP / etc.)
         String userId = "user-123";
 
-        String jwt = jwtUtil.generateToken(userId, deviceId);
-        String sessionKey = sessionKeyService.issueSessionKey(userId, deviceId);
+        // DERIVED: the key is rebuilt from the JWT's grant, nothing stored
+        SessionGrant grant = derivedSessionKeys.issuing()
+                ? derivedSessionKeys.newGrant(userId)
+                : null;
+
+        String jwt = jwtUtil.generateToken(userId, deviceId, grant);
+        String sessionKey = grant != null
+                ? derivedSessionKeys.sessionKey(userId, deviceId, grant)
+                : sessionKeyService.issueSessionKey(userId, deviceId);
 
         return Map.of(
                 "accessToken", jwt,
@@ -1,51 +1,87 @@
 package com.gp.poc.noncepoc.api;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.gp.poc.noncepoc.service.IdempotencyService;
-import jakarta.servlet.http.HttpServletRequest;
+import com.gp.poc.noncepoc.dto.PaymentBatchRequest;
+import com.gp.poc.noncepoc.dto.PaymentBatchResponse;
+import com.gp.poc.noncepoc.exception.SecurityViolationException;
+import com.gp.poc.noncepoc.service.PaymentBatchService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+// Idempotency (Idempotency-Key, response capture + replay) is handled
+// by IdempotencyFilter for everything under /api/payments, except
+// /execute-batch: there every item carries its own key (PaymentBatchService)
 @RestController
 @RequestMapping("/api/payments")
 @RequiredArgsConstructor
 public class PaymentController {
 
-    private final IdempotencyService idempotencyService;
-    private final ObjectMapper objectMapper;
+    private final PaymentBatchService paymentBatchService;
 
-    @PostMapping("/execute")
-    public ResponseEntity<Map<String, String>> executePayment(
-            @RequestHeader("Idempotency-Key") String idemKey,
-            HttpServletRequest request
-    ) throws Exception {
-
-        String userId = SecurityContextHolder
-                .getContext()
-                .getAuthentication()
-                .getPrincipal()
-                .toString();
+    @Value("${security.payments.batch.max-items:1000}")
+    private int maxBatchItems;
 
-        String redisKey =
-                "idem:" + userId + ":" +
-                        request.getRequestURI() + ":" +
-                        idemKey;
+    @PostMapping("/execute")
+    public ResponseEntity<Map<String, String>> executePayment() {
 
         Map<String, String> response =
                 Map.of("status", "PAYMENT_SUCCESS");
 
-        // ✅ Serialize response to JSON
-        String json = objectMapper.writeValueAsString(response);
+        return ResponseEntity.ok(response);
+    }
 
-        idempotencyService.storeResult(redisKey, json);
+    // One signed request, many payments. The items are only covered by a
+    // signature that covers the body, so the batch must be signed with v2.
+    @PostMapping("/execute-batch")
+    public PaymentBatchResponse executeBatch(
+            @RequestHeader(value = "X-Signature-Version", required = false) String signatureVersion,
+            @RequestBody PaymentBatchRequest request
+    ) {
 
-        return ResponseEntity.ok(response);
+        if (!"2".equals(signatureVersion)) {
+            throw new SecurityViolationException(
+                    400,
+                    "INVALID_SIGNATURE_VERSION",
+                    "Batch requests must be signed with version 2"
+            );
+        }
+
+        List<PaymentBatchRequest.Item> items = request.getItems();
+        if (items == null || items.isEmpty() || items.size() > maxBatchItems) {
+            throw invalidBatch("Batch must contain 1 to " + maxBatchItems + " items");
+        }
+
+        Set<String> keys = new HashSet<>(items.size() * 2);
+        for (PaymentBatchRequest.Item item : items) {
+            String key = item == null ? null : item.getIdempotencyKey();
+            if (key == null || key.isBlank()) {
+                throw invalidBatch("Every item needs an idempotencyKey");
+            }
+            if (!keys.add(key)) {
+                throw invalidBatch("Duplicate idempotencyKey in batch: " + key);
+            }
+        }
+
+        String userId = (String) SecurityContextHolder
+                .getContext()
+                .getAuthentication()
+                .getPrincipal();
+
+        return paymentBatchService.execute(userId, items);
+    }
+
+    private static SecurityViolationException invalidBatch(String message) {
+        return new SecurityViolationException(400, "INVALID_REQUEST", message);
     }
-}
\ No newline at end of file
+}
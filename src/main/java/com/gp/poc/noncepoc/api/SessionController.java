@@ -0,0 +1,32 @@
+package com.gp.poc.noncepoc.api;
+
+import com.gp.poc.noncepoc.service.DerivedSessionKeys;
+import lombok.RequiredArgsConstructor;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/internal/session")
+@RequiredArgsConstructor
+public class SessionController {
+
+    private final DerivedSessionKeys derivedSessionKeys;
+
+    // Revokes every derived session key of the caller (all devices)
+    @PostMapping("/revoke")
+    public Map<String, Object> revoke() {
+        String userId = (String) SecurityContextHolder
+                .getContext()
+                .getAuthentication()
+                .getPrincipal();
+
+        return Map.of(
+                "userId", userId,
+                "generation", derivedSessionKeys.revoke(userId)
+        );
+    }
+}
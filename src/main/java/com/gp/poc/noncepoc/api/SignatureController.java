@@ -1,18 +1,35 @@
 package com.gp.poc.noncepoc.api;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.gp.poc.noncepoc.dto.SignatureRequest;
 import com.gp.poc.noncepoc.dto.SignatureResponse;
+import com.gp.poc.noncepoc.exception.SecurityViolationException;
+import com.gp.poc.noncepoc.service.SessionGrant;
 import com.gp.poc.noncepoc.service.SignatureService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+
 @RestController
 @RequestMapping("/internal/signature")
 @RequiredArgsConstructor
 public class SignatureController {
 
     private final SignatureService signatureService;
+    private final ObjectMapper objectMapper;
 
     @PostMapping("/generate")
     public SignatureResponse generate(
@@ -20,12 +37,104 @@ public class SignatureController {
             @RequestHeader("X-Device-Id") String deviceId
     ) {
 
-        // 🔐 Extract userId from JWT context
-        String userId = (String) SecurityContextHolder
+        // 🔐 Extract userId (and derived session grant) from JWT context
+        Authentication authentication = SecurityContextHolder
                 .getContext()
-                .getAuthentication()
-                .getPrincipal();
+                .getAuthentication();
+        String userId = (String) authentication.getPrincipal();
+        SessionGrant grant = authentication.getDetails() instanceof SessionGrant g ? g : null;
+
+        return signatureService.generate(request, userId, deviceId, grant);
+    }
+
+    // Body: a JSON array of SignatureRequest for the caller's device.
+    // Each item is read, signed and written before the next one is read,
+    // with one session-key read and one Mac for the whole batch. Response:
+    // a JSON array, or NDJSON (one SignatureResponse per line) with
+    // Accept: application/x-ndjson. A malformed item is a 400, unless
+    // responses were already sent: then the output just stops there (fewer
+    // items than requested, and no closing bracket).
+    @PostMapping("/generate-batch")
+    public void generateBatch(
+            @RequestHeader("X-Device-Id") String deviceId,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+
+        Authentication authentication = SecurityContextHolder
+                .getContext()
+                .getAuthentication();
+        String userId = (String) authentication.getPrincipal();
+        SessionGrant grant = authentication.getDetails() instanceof SessionGrant g ? g : null;
+
+        boolean ndjson = accept != null && accept.contains(MediaType.APPLICATION_NDJSON_VALUE);
+
+        try (JsonParser items = objectMapper.createParser(request.getInputStream())) {
+            if (firstToken(items) != JsonToken.START_ARRAY) {
+                throw invalidBatch();
+            }
+
+            try (SignatureService.Batch batch = signatureService.batch(userId, deviceId, grant)) {
+
+                response.setContentType(ndjson
+                        ? MediaType.APPLICATION_NDJSON_VALUE
+                        : MediaType.APPLICATION_JSON_VALUE);
+
+                // Flushed by the servlet buffer, not after every item
+                ObjectWriter itemWriter = objectMapper.writerFor(SignatureResponse.class)
+                        .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+                JsonGenerator out = objectMapper.createGenerator(response.getOutputStream())
+                        .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                        .disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+                out.setRootValueSeparator(null);
+
+                if (!ndjson) {
+                    out.writeStartArray();
+                }
+
+                JsonToken token;
+                try {
+                    while ((token = items.nextToken()) == JsonToken.START_OBJECT) {
+                        itemWriter.writeValue(out,
+                                batch.sign(items.readValueAs(SignatureRequest.class)));
+                        if (ndjson) {
+                            out.writeRaw('\n');
+                        }
+                    }
+                } catch (JsonProcessingException e) {
+                    token = null;
+                }
+                if (token != JsonToken.END_ARRAY) {
+                    if (response.isCommitted()) {
+                        return; // cut short, see above
+                    }
+                    // Nothing sent yet: a clean 400 instead of a partial body
+                    response.resetBuffer();
+                    throw invalidBatch();
+                }
+
+                if (!ndjson) {
+                    out.writeEndArray();
+                }
+                out.close();
+            }
+        }
+    }
+
+    private static JsonToken firstToken(JsonParser items) throws IOException {
+        try {
+            return items.nextToken();
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
 
-        return signatureService.generate(request, userId, deviceId);
+    private static SecurityViolationException invalidBatch() {
+        return new SecurityViolationException(
+                400,
+                "INVALID_REQUEST",
+                "Body must be a JSON array of signature requests"
+        );
     }
-}
\ No newline at end of file
+}
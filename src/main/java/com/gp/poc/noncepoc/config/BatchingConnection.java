@@ -0,0 +1,233 @@
+package com.gp.poc.noncepoc.config;
+
+import com.gp.poc.noncepoc.config.RedisCommandBatcher.Command;
+import io.lettuce.core.KeyValue;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands.SetOption;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.lettuce.LettuceConverters;
+import org.springframework.data.redis.core.types.Expiration;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+// RedisConnection for one RedisTemplate.execute whose small hot-path
+// commands (GET, MGET, SET, EXISTS, PTTL, DEL, SISMEMBER, EVAL/EVALSHA)
+// go through the RedisCommandBatcher; everything else goes to the real
+// connection. A pipeline (executePipelined) is recorded and handed to the
+// batcher whole on closePipeline; one command the batcher does not know
+// replays the recording onto a real pipeline instead.
+// Results are what LettuceConnection returns for the same call.
+final class BatchingConnection implements InvocationHandler {
+
+    private static final Set<String> VIEWS =
+            Set.of("stringCommands", "keyCommands", "setCommands", "scriptingCommands");
+
+    // Spring connection method -> batched command; NOT_BATCHED when unknown
+    private static final Map<String, Function<Object[], Command>> COMMANDS = new HashMap<>();
+    private static final Function<Object[], Command> NOT_BATCHED = args -> null;
+    private static final Map<Method, Function<Object[], Command>> BY_METHOD =
+            new ConcurrentHashMap<>();
+
+    static {
+        COMMANDS.put(signature("get", byte[].class),
+                args -> redis -> redis.get((byte[]) args[0]));
+        COMMANDS.put(signature("mGet", byte[][].class),
+                args -> redis -> redis.mget((byte[][]) args[0]).thenApply(values -> {
+                    List<byte[]> list = new ArrayList<>(values.size());
+                    for (KeyValue<byte[], byte[]> value : values) {
+                        list.add(value.getValueOrElse(null));
+                    }
+                    return list;
+                }));
+        COMMANDS.put(signature("set", byte[].class, byte[].class, Expiration.class, SetOption.class),
+                args -> redis -> redis.set(
+                        (byte[]) args[0],
+                        (byte[]) args[1],
+                        LettuceConverters.toSetArgs((Expiration) args[2], (SetOption) args[3])
+                ).thenApply("OK"::equals));
+        COMMANDS.put(signature("exists", byte[].class),
+                args -> redis -> redis.exists((byte[]) args[0]).thenApply(found -> found > 0));
+        COMMANDS.put(signature("exists", byte[][].class),
+                args -> redis -> redis.exists((byte[][]) args[0]));
+        COMMANDS.put(signature("pTtl", byte[].class),
+                args -> redis -> redis.pttl((byte[]) args[0]));
+        COMMANDS.put(signature("del", byte[][].class),
+                args -> redis -> redis.del((byte[][]) args[0]));
+        COMMANDS.put(signature("sIsMember", byte[].class, byte[].class),
+                args -> redis -> redis.sismember((byte[]) args[0], (byte[]) args[1]));
+        COMMANDS.put(signature("evalSha", String.class, ReturnType.class, int.class, byte[][].class),
+                args -> script(args, (redis, type, keys, values) ->
+                        redis.evalsha((String) args[0], type, keys, values)));
+        COMMANDS.put(signature("eval", byte[].class, ReturnType.class, int.class, byte[][].class),
+                args -> script(args, (redis, type, keys, values) ->
+                        redis.eval((byte[]) args[0], type, keys, values)));
+    }
+
+    private final RedisConnection delegate;
+    private final RedisCommandBatcher batcher;
+    private final Map<String, Object> views = new HashMap<>(4);
+
+    // Commands of an open pipeline, null when none is being recorded
+    private List<Recorded> pipeline;
+
+    private record Recorded(Command command, Method method, Object target, Object[] args) {
+    }
+
+    private BatchingConnection(RedisConnection delegate, RedisCommandBatcher batcher) {
+        this.delegate = delegate;
+        this.batcher = batcher;
+    }
+
+    static RedisConnection wrap(RedisConnection connection, RedisCommandBatcher batcher) {
+        return (RedisConnection) Proxy.newProxyInstance(
+                RedisConnection.class.getClassLoader(),
+                new Class<?>[]{RedisConnection.class},
+                new BatchingConnection(connection, batcher)
+        );
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            return invoke(method, delegate, args);
+        }
+
+        switch (method.getName()) {
+            case "openPipeline" -> {
+                if (pipeline == null && batching()) {
+                    pipeline = new ArrayList<>();
+                    return null;
+                }
+            }
+            case "isPipelined" -> {
+                return pipeline != null || delegate.isPipelined();
+            }
+            case "closePipeline" -> {
+                if (pipeline != null) {
+                    List<Command> commands = new ArrayList<>(pipeline.size());
+                    pipeline.forEach(recorded -> commands.add(recorded.command()));
+                    pipeline = null;
+                    return commands.isEmpty() ? List.of() : batcher.execute(commands);
+                }
+            }
+            case "isQueueing", "isClosed", "close" -> {
+                return invoke(method, delegate, args);
+            }
+            default -> {
+                if (VIEWS.contains(method.getName()) && method.getParameterCount() == 0) {
+                    return views.computeIfAbsent(method.getName(), name -> view(method));
+                }
+            }
+        }
+        return command(method, delegate, args);
+    }
+
+    // stringCommands() etc.: the same routing, falling back to the real view
+    private Object view(Method accessor) {
+        Object target;
+        try {
+            target = accessor.invoke(delegate);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+        return Proxy.newProxyInstance(
+                accessor.getReturnType().getClassLoader(),
+                new Class<?>[]{accessor.getReturnType()},
+                (proxy, method, args) -> method.getDeclaringClass() == Object.class
+                        ? invoke(method, target, args)
+                        : command(method, target, args)
+        );
+    }
+
+    private Object command(Method method, Object target, Object[] args) throws Throwable {
+        Command command = batching()
+                ? BY_METHOD.computeIfAbsent(method, BatchingConnection::lookup).apply(args)
+                : null;
+
+        if (command == null) {
+            if (pipeline != null) {
+                replayOnDelegate();
+            }
+            return invoke(method, target, args);
+        }
+
+        if (pipeline != null) {
+            pipeline.add(new Recorded(command, method, target, args));
+            return null;
+        }
+        return batcher.execute(List.of(command)).get(0);
+    }
+
+    // In a transaction or a real pipeline: leave it alone
+    private boolean batching() {
+        return !delegate.isPipelined() && !delegate.isQueueing();
+    }
+
+    private void replayOnDelegate() throws Throwable {
+        List<Recorded> recorded = pipeline;
+        pipeline = null;
+        delegate.openPipeline();
+        for (Recorded command : recorded) {
+            invoke(command.method(), command.target(), command.args());
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static Function<Object[], Command> lookup(Method method) {
+        return COMMANDS.getOrDefault(
+                signature(method.getName(), method.getParameterTypes()), NOT_BATCHED);
+    }
+
+    private static String signature(String name, Class<?>... parameterTypes) {
+        return name + Arrays.toString(parameterTypes);
+    }
+
+    @FunctionalInterface
+    private interface ScriptCall {
+        RedisFuture<Object> send(
+                RedisClusterAsyncCommands<byte[], byte[]> redis,
+                ScriptOutputType type,
+                byte[][] keys,
+                byte[][] values
+        );
+    }
+
+    // Scalar replies only: other return types keep LettuceConnection's
+    // result conversion
+    private static Command script(Object[] args, ScriptCall call) {
+        ReturnType returnType = (ReturnType) args[1];
+        if (returnType != ReturnType.INTEGER
+                && returnType != ReturnType.BOOLEAN
+                && returnType != ReturnType.VALUE) {
+            return null;
+        }
+
+        int numKeys = (Integer) args[2];
+        byte[][] keysAndArgs = (byte[][]) args[3];
+        byte[][] keys = Arrays.copyOfRange(keysAndArgs, 0, numKeys);
+        byte[][] values = Arrays.copyOfRange(keysAndArgs, numKeys, keysAndArgs.length);
+        ScriptOutputType type = LettuceConverters.toScriptOutputType(returnType);
+        return redis -> call.send(redis, type, keys, values);
+    }
+}
@@ -0,0 +1,38 @@
+package com.gp.poc.noncepoc.config;
+
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+
+// RedisTemplate shaping the load the app puts on Redis:
+//  - every operation (command, pipeline, script, publish) runs inside the
+//    RedisBulkhead: they all end up in this execute. Callbacks must not
+//    call back into the template (no nested permits).
+//  - with security.redis.batch, small commands and pipelines of concurrent
+//    requests are coalesced by the RedisCommandBatcher. Not on a bound
+//    connection (SessionCallback, transactions).
+public class LoadShapingRedisTemplate<K, V> extends RedisTemplate<K, V> {
+
+    private final RedisBulkhead bulkhead;
+    private final RedisCommandBatcher batcher;
+
+    public LoadShapingRedisTemplate(RedisBulkhead bulkhead, RedisCommandBatcher batcher) {
+        this.bulkhead = bulkhead;
+        this.batcher = batcher;
+    }
+
+    @Override
+    public <T> T execute(RedisCallback<T> action, boolean exposeConnection, boolean pipeline) {
+        return bulkhead.call(() -> super.execute(action, exposeConnection, pipeline));
+    }
+
+    @Override
+    protected RedisConnection preProcessConnection(
+            RedisConnection connection,
+            boolean existingConnection
+    ) {
+        return batcher.enabled() && !existingConnection
+                ? BatchingConnection.wrap(connection, batcher)
+                : connection;
+    }
+}
@@ -0,0 +1,84 @@
+package com.gp.poc.noncepoc.config;
+
+import com.gp.poc.noncepoc.exception.SecurityViolations;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Caps how many blocking Redis calls run at once (security.redis.bulkhead,
+// on by default with virtual threads). Platform threads were bounded by
+// Tomcat's pool; virtual threads are not, so a Redis slowdown would pile
+// up one waiting call (and one dedicated connection per pipeline) per
+// request. Calls over the cap queue, FIFO, for up to max-wait-ms and are
+// then refused with 503 REDIS_BUSY instead of adding to the pile.
+// Metrics: redis.bulkhead.queue (time waited for a permit), .active,
+// .queued and .rejected.
+@Component
+public class RedisBulkhead {
+
+    private final boolean enabled;
+    private final Semaphore permits;
+    private final long maxWaitNanos;
+    private final Timer queueTime;
+    private final Counter rejected;
+
+    public RedisBulkhead(
+            @Value("${security.redis.bulkhead.enabled:${spring.threads.virtual.enabled:false}}")
+            boolean enabled,
+            @Value("${security.redis.bulkhead.max-concurrent:64}") int maxConcurrent,
+            @Value("${security.redis.bulkhead.max-wait-ms:1000}") long maxWaitMs,
+            MeterRegistry meterRegistry
+    ) {
+        this.enabled = enabled;
+        this.permits = new Semaphore(maxConcurrent, true);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+
+        this.queueTime = Timer.builder("redis.bulkhead.queue")
+                .description("Time Redis calls waited for a bulkhead permit")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("redis.bulkhead.rejected")
+                .description("Redis calls refused after max-wait-ms without a permit")
+                .register(meterRegistry);
+        Gauge.builder("redis.bulkhead.active", permits,
+                        p -> maxConcurrent - p.availablePermits())
+                .description("Redis calls holding a permit")
+                .register(meterRegistry);
+        Gauge.builder("redis.bulkhead.queued", permits, Semaphore::getQueueLength)
+                .description("Redis calls waiting for a permit")
+                .register(meterRegistry);
+    }
+
+    public <T> T call(Supplier<T> action) {
+        if (!enabled) {
+            return action.get();
+        }
+
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        queueTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        if (!acquired) {
+            rejected.increment();
+            throw SecurityViolations.REDIS_BUSY;
+        }
+
+        try {
+            return action.get();
+        } finally {
+            permits.release();
+        }
+    }
+}
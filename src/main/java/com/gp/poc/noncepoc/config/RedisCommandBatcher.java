@@ -0,0 +1,267 @@
+package com.gp.poc.noncepoc.config;
+
+import io.lettuce.core.AbstractRedisClient;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.api.StatefulConnection;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.cluster.api.StatefulRedisClusterConnection;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceExceptionConverter;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Micro-batching of small Redis commands (security.redis.batch): commands
+// from concurrent requests are gathered for up to max-wait-us, or until
+// max-commands are waiting, and written as ONE pipeline (one flush, one
+// syscall) on a connection of its own. Each caller blocks on its own
+// future. A pipeline a request sends (executePipelined) joins a batch
+// whole, in order.
+// Callers do not use this directly: LoadShapingRedisTemplate routes the
+// commands BatchingConnection knows through it.
+// Metrics: redis.batch.commands (commands per flush), redis.batch.wait
+// (time a command waited for its flush), redis.batch.flushes{trigger=
+// size|time}.
+@Component
+public class RedisCommandBatcher {
+
+    // One command, sent on the batch connection (Lettuce async API)
+    @FunctionalInterface
+    public interface Command {
+        CompletionStage<?> send(RedisClusterAsyncCommands<byte[], byte[]> redis);
+    }
+
+    private record Pending(
+            List<Command> commands,
+            CompletableFuture<List<Object>> results,
+            long enqueuedNanos
+    ) {
+    }
+
+    private static final LettuceExceptionConverter EXCEPTIONS = new LettuceExceptionConverter();
+
+    private final RedisConnectionFactory connectionFactory;
+    private final boolean enabled;
+    private final int maxCommands;
+    private final long maxWaitNanos;
+    private final long timeoutMillis;
+
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread flusher;
+
+    private final DistributionSummary batchSize;
+    private final Timer waitTime;
+    private final Counter flushedFull;
+    private final Counter flushedOnTimer;
+
+    // Flusher thread only
+    private StatefulConnection<byte[], byte[]> connection;
+    private RedisClusterAsyncCommands<byte[], byte[]> redis;
+
+    public RedisCommandBatcher(
+            RedisConnectionFactory connectionFactory,
+            @Value("${security.redis.batch.enabled:false}") boolean enabled,
+            @Value("${security.redis.batch.max-commands:64}") int maxCommands,
+            @Value("${security.redis.batch.max-wait-us:200}") long maxWaitMicros,
+            MeterRegistry meterRegistry
+    ) {
+        if (enabled && !(connectionFactory instanceof LettuceConnectionFactory)) {
+            throw new IllegalStateException("security.redis.batch needs Lettuce");
+        }
+
+        this.connectionFactory = connectionFactory;
+        this.enabled = enabled;
+        this.maxCommands = maxCommands;
+        this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+        this.timeoutMillis = enabled
+                ? ((LettuceConnectionFactory) connectionFactory).getTimeout()
+                : 0;
+
+        this.batchSize = DistributionSummary.builder("redis.batch.commands")
+                .description("Commands per flushed Redis pipeline")
+                .register(meterRegistry);
+        this.waitTime = Timer.builder("redis.batch.wait")
+                .description("Time Redis commands waited for their batch to be flushed")
+                .register(meterRegistry);
+        this.flushedFull = Counter.builder("redis.batch.flushes")
+                .description("Batches flushed")
+                .tag("trigger", "size")
+                .register(meterRegistry);
+        this.flushedOnTimer = Counter.builder("redis.batch.flushes")
+                .description("Batches flushed")
+                .tag("trigger", "time")
+                .register(meterRegistry);
+
+        this.flusher = new Thread(this::run, "redis-batcher");
+        this.flusher.setDaemon(true);
+        if (enabled) {
+            this.flusher.start();
+        }
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    // Sends the commands with the next batch, in order, and waits for
+    // their replies (in the same order)
+    public List<Object> execute(List<Command> commands) {
+        Pending pending = new Pending(commands, new CompletableFuture<>(), System.nanoTime());
+        queue.add(pending);
+
+        try {
+            return pending.results().get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw translate(e.getCause());
+        } catch (TimeoutException e) {
+            throw new QueryTimeoutException(
+                    "Redis did not answer within " + timeoutMillis + " ms", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RedisSystemException("Interrupted while waiting for Redis", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        flusher.interrupt();
+        flusher.join(TimeUnit.SECONDS.toMillis(5));
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>();
+
+        while (true) {
+            try {
+                Pending first = queue.take();
+                batch.add(first);
+                int commands = first.commands().size();
+                long deadline = first.enqueuedNanos() + maxWaitNanos;
+
+                while (commands < maxCommands) {
+                    long left = deadline - System.nanoTime();
+                    Pending next = left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    commands += next.commands().size();
+                }
+
+                flush(batch, commands);
+                batch.clear();
+            } catch (InterruptedException e) {
+                queue.drainTo(batch);
+                batch.forEach(pending -> pending.results().completeExceptionally(
+                        new IllegalStateException("Redis batcher stopped")));
+                return;
+            }
+        }
+    }
+
+    private void flush(List<Pending> batch, int commands) {
+        long now = System.nanoTime();
+        (commands >= maxCommands ? flushedFull : flushedOnTimer).increment();
+        batchSize.record(commands);
+
+        RedisClusterAsyncCommands<byte[], byte[]> redis;
+        try {
+            redis = redis();
+        } catch (RuntimeException e) {
+            batch.forEach(pending -> pending.results().completeExceptionally(e));
+            return;
+        }
+
+        for (Pending pending : batch) {
+            waitTime.record(now - pending.enqueuedNanos(), TimeUnit.NANOSECONDS);
+            try {
+                send(redis, pending);
+            } catch (RuntimeException e) {
+                pending.results().completeExceptionally(e);
+            }
+        }
+        connection.flushCommands();
+    }
+
+    private static void send(RedisClusterAsyncCommands<byte[], byte[]> redis, Pending pending) {
+        List<Command> commands = pending.commands();
+        CompletableFuture<?>[] replies = new CompletableFuture<?>[commands.size()];
+        for (int i = 0; i < replies.length; i++) {
+            replies[i] = commands.get(i).send(redis).toCompletableFuture();
+        }
+
+        CompletableFuture.allOf(replies).whenComplete((done, error) -> {
+            if (error != null) {
+                pending.results().completeExceptionally(error);
+                return;
+            }
+            List<Object> results = new ArrayList<>(replies.length);
+            for (CompletableFuture<?> reply : replies) {
+                results.add(reply.join());
+            }
+            pending.results().complete(results);
+        });
+    }
+
+    // Commands are queued until flushCommands(): only this thread may use it
+    @SuppressWarnings("unchecked")
+    private RedisClusterAsyncCommands<byte[], byte[]> redis() {
+        if (redis == null) {
+            AbstractRedisClient client =
+                    ((LettuceConnectionFactory) connectionFactory).getRequiredNativeClient();
+            if (client instanceof RedisClusterClient cluster) {
+                StatefulRedisClusterConnection<byte[], byte[]> clustered =
+                        cluster.connect(ByteArrayCodec.INSTANCE);
+                connection = clustered;
+                redis = clustered.async();
+            } else {
+                StatefulRedisConnection<byte[], byte[]> standalone =
+                        ((RedisClient) client).connect(ByteArrayCodec.INSTANCE);
+                connection = standalone;
+                redis = standalone.async();
+            }
+            connection.setAutoFlushCommands(false);
+        }
+        return redis;
+    }
+
+    // Same exceptions a command through LettuceConnection would throw
+    private static RuntimeException translate(Throwable error) {
+        while (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error instanceof DataAccessException translated) {
+            return translated;
+        }
+        if (error instanceof Exception e) {
+            DataAccessException translated = EXCEPTIONS.convert(e);
+            return translated != null ? translated : new RedisSystemException(e.getMessage(), e);
+        }
+        return new RedisSystemException(error.getMessage(), error);
+    }
+}
@@ -1,9 +1,14 @@
 package com.gp.poc.noncepoc.config;
 
+import com.gp.poc.noncepoc.service.IdempotencyWaiters;
+import com.gp.poc.noncepoc.service.SessionKeyNearCache;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
 @Configuration
@@ -11,12 +16,50 @@ public class RedisConfig {
 
     @Bean
     public RedisTemplate<String, String> redisTemplate(
-            RedisConnectionFactory connectionFactory
+            RedisConnectionFactory connectionFactory,
+            RedisBulkhead bulkhead,
+            RedisCommandBatcher batcher
     ) {
-        RedisTemplate<String, String> template = new RedisTemplate<>();
+        RedisTemplate<String, String> template = new LoadShapingRedisTemplate<>(bulkhead, batcher);
         template.setConnectionFactory(connectionFactory);
         template.setKeySerializer(new StringRedisSerializer());
         template.setValueSerializer(new StringRedisSerializer());
         return template;
     }
-}
\ No newline at end of file
+
+    // Binary keys (RedisKeyCodec) and values (captured idempotent responses)
+    @Bean
+    public RedisTemplate<byte[], byte[]> binaryRedisTemplate(
+            RedisConnectionFactory connectionFactory,
+            RedisBulkhead bulkhead,
+            RedisCommandBatcher batcher
+    ) {
+        RedisTemplate<byte[], byte[]> template = new LoadShapingRedisTemplate<>(bulkhead, batcher);
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(RedisSerializer.byteArray());
+        template.setValueSerializer(RedisSerializer.byteArray());
+        return template;
+    }
+
+    // Cross-node invalidation of in-JVM caches + idempotency wake-ups
+    // (subscriptions hold their connection: outside the bulkhead)
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(
+            RedisConnectionFactory connectionFactory,
+            SessionKeyNearCache sessionKeyNearCache,
+            IdempotencyWaiters idempotencyWaiters
+    ) {
+        RedisMessageListenerContainer container =
+                new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(
+                sessionKeyNearCache,
+                new ChannelTopic(SessionKeyNearCache.INVALIDATION_CHANNEL)
+        );
+        container.addMessageListener(
+                idempotencyWaiters,
+                new ChannelTopic(IdempotencyWaiters.COMPLETION_CHANNEL)
+        );
+        return container;
+    }
+}
@@ -0,0 +1,22 @@
+package com.gp.poc.noncepoc.dto;
+
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+@Data
+public class PaymentBatchRequest {
+
+    private List<Item> items;
+
+    @Data
+    public static class Item {
+
+        // same meaning as the Idempotency-Key header of /execute
+        private String idempotencyKey;
+
+        private BigDecimal amount;
+        private String currency;
+    }
+}
@@ -0,0 +1,37 @@
+package com.gp.poc.noncepoc.dto;
+
+import com.fasterxml.jackson.annotation.JsonRawValue;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Builder
+public class PaymentBatchResponse {
+
+    private int executed;
+    private int replayed;
+    private int inProgress;
+
+    // executed, but the lease was taken over before the result was stored
+    private int leaseLost;
+
+    // in request order
+    private List<Item> items;
+
+    @Data
+    @Builder
+    public static class Item {
+
+        private String idempotencyKey;
+
+        // what /execute would have answered for this key
+        private int status;
+        private boolean replayed;
+
+        // response body as JSON (the stored bytes when replayed)
+        @JsonRawValue
+        private String body;
+    }
+}
@@ -15,4 +15,10 @@ public class SignatureRequest {
 
     // example: POST
     private String method;
+
+    // optional: 1 (default) or 2 (payload also covers the body hash)
+    private Integer version;
+
+    // v2 only: exact request body that will be sent
+    private String body;
 }
\ No newline at end of file
@@ -16,6 +16,9 @@ public class SignatureResponse {
     private String method;
     private String path;
 
+    private int version;
+    private String bodySha256;
+
     private String payload;
     private String signature;
 }
\ No newline at end of file
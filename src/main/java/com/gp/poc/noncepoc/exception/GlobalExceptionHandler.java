@@ -2,33 +2,31 @@ package com.gp.poc.noncepoc.exception;
 
 import com.gp.poc.noncepoc.dto.ErrorResponse;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 
+import java.io.IOException;
 import java.time.Instant;
 
 @RestControllerAdvice
+@RequiredArgsConstructor
 public class GlobalExceptionHandler {
 
+    private final SecurityErrorWriter errorWriter;
+
     // ------------------------------------
     // Security / Nonce / Signature errors
     // ------------------------------------
     @ExceptionHandler(SecurityViolationException.class)
-    public ResponseEntity<ErrorResponse> handleSecurityViolation(
+    public void handleSecurityViolation(
             SecurityViolationException ex,
-            HttpServletRequest request
-    ) {
-        return ResponseEntity
-                .status(ex.getHttpStatus())
-                .body(
-                        ErrorResponse.builder()
-                                .code(ex.getCode())
-                                .message(ex.getMessage())
-                                .timestamp(Instant.now().toString())
-                                .path(request.getRequestURI())
-                                .build()
-                );
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        errorWriter.write(request, response, ex);
     }
 
     // ------------------------------------
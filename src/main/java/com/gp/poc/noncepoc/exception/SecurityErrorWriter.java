@@ -0,0 +1,225 @@
+package com.gp.poc.noncepoc.exception;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gp.poc.noncepoc.security.SecurityMetrics;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.core.Ordered;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerExceptionResolver;
+import org.springframework.web.servlet.ModelAndView;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Writes a SecurityViolationException as the app's error JSON straight to
+// the response, byte for byte what Jackson makes of ErrorResponse
+// ({"code","message","timestamp","path"}, timestamp = Instant.toString()),
+// without building an ErrorResponse or going through Jackson:
+// - code + message are encoded once per preallocated violation
+// - the timestamp's date and time are encoded once per second
+// - a plain ASCII path is copied as is
+// The security filters use it as their resolver; GlobalExceptionHandler
+// hands it the violations thrown by controllers.
+// Being a resolver bean, the DispatcherServlet picks it up as well. It is
+// ordered last so the @ExceptionHandler resolvers (GlobalExceptionHandler)
+// always get a controller's exception first.
+@Component
+public class SecurityErrorWriter implements HandlerExceptionResolver, Ordered {
+
+    private static final byte[] TIMESTAMP_TO_PATH =
+            "\",\"path\":".getBytes(StandardCharsets.US_ASCII);
+
+    // yyyy-MM-ddTHH:mm:ss
+    private static final int DATE_TIME_LENGTH = 19;
+
+    private final ObjectMapper objectMapper;
+    private final SecurityMetrics metrics;
+
+    // {"code":"…","message":"…","timestamp":" of each preallocated violation
+    private final Map<SecurityViolationException, byte[]> prefixes;
+
+    private volatile Second second = new Second(Long.MIN_VALUE, null);
+
+    public SecurityErrorWriter(ObjectMapper objectMapper, SecurityMetrics metrics) {
+        this.objectMapper = objectMapper;
+        this.metrics = metrics;
+
+        Map<SecurityViolationException, byte[]> prefixes = new HashMap<>();
+        for (SecurityViolationException violation : SecurityViolations.ALL) {
+            prefixes.put(violation, prefix(violation));
+        }
+        this.prefixes = Map.copyOf(prefixes);
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.LOWEST_PRECEDENCE;
+    }
+
+    @Override
+    public ModelAndView resolveException(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            Object handler,
+            Exception ex
+    ) {
+        if (!(ex instanceof SecurityViolationException violation)) {
+            return null;
+        }
+        try {
+            write(request, response, violation);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new ModelAndView();
+    }
+
+    public void write(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            SecurityViolationException violation
+    ) throws IOException {
+        // Every filter and controller rejection ends up here
+        metrics.rejected(violation.getCode());
+
+        byte[] body = body(violation, Instant.now(), request.getRequestURI());
+
+        response.setStatus(violation.getHttpStatus());
+        // JSON whatever the Accept header (e.g. an NDJSON batch)
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    byte[] body(SecurityViolationException violation, Instant now, String path) {
+        byte[] prefix = prefixes.get(violation);
+        if (prefix == null) {
+            prefix = prefix(violation);
+        }
+
+        byte[] dateTime = dateTime(now.getEpochSecond());
+        if (dateTime == null) {
+            // Outside years 0000-9999: Instant.toString has another shape
+            return concat(prefix, ascii(now.toString()), TIMESTAMP_TO_PATH, json(path), new byte[]{'}'});
+        }
+
+        int nanos = now.getNano();
+        int fractionDigits = nanos == 0 ? 0
+                : nanos % 1_000_000 == 0 ? 3
+                : nanos % 1_000 == 0 ? 6
+                : 9;
+        byte[] quotedPath = plainAscii(path) ? null : json(path);
+        int pathLength = quotedPath != null ? quotedPath.length : path.length() + 2;
+
+        byte[] body = new byte[prefix.length + DATE_TIME_LENGTH
+                + (fractionDigits > 0 ? 1 + fractionDigits : 0) + 1
+                + TIMESTAMP_TO_PATH.length + pathLength + 1];
+
+        int at = 0;
+        System.arraycopy(prefix, 0, body, at, prefix.length);
+        at += prefix.length;
+        System.arraycopy(dateTime, 0, body, at, DATE_TIME_LENGTH);
+        at += DATE_TIME_LENGTH;
+
+        // Instant.toString: fraction in groups of three digits, if any
+        if (fractionDigits > 0) {
+            body[at++] = '.';
+            int value = nanos / (fractionDigits == 3 ? 1_000_000 : fractionDigits == 6 ? 1_000 : 1);
+            for (int i = at + fractionDigits - 1; i >= at; i--) {
+                body[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            at += fractionDigits;
+        }
+        body[at++] = 'Z';
+
+        System.arraycopy(TIMESTAMP_TO_PATH, 0, body, at, TIMESTAMP_TO_PATH.length);
+        at += TIMESTAMP_TO_PATH.length;
+        if (quotedPath != null) {
+            System.arraycopy(quotedPath, 0, body, at, quotedPath.length);
+            at += quotedPath.length;
+        } else {
+            body[at++] = '"';
+            for (int i = 0; i < path.length(); i++) {
+                body[at++] = (byte) path.charAt(i);
+            }
+            body[at++] = '"';
+        }
+        body[at] = '}';
+        return body;
+    }
+
+    // {"code":"…","message":"…","timestamp":"
+    private byte[] prefix(SecurityViolationException violation) {
+        return concat(
+                ascii("{\"code\":"),
+                json(violation.getCode()),
+                ascii(",\"message\":"),
+                json(violation.getMessage()),
+                ascii(",\"timestamp\":\"")
+        );
+    }
+
+    // Date and time of the current second, shared until the next one
+    private byte[] dateTime(long epochSecond) {
+        Second current = second;
+        if (current.epochSecond != epochSecond) {
+            String text = Instant.ofEpochSecond(epochSecond).toString();
+            byte[] dateTime = text.length() == DATE_TIME_LENGTH + 1
+                    ? ascii(text.substring(0, DATE_TIME_LENGTH))
+                    : null;
+            current = new Second(epochSecond, dateTime);
+            second = current;
+        }
+        return current.dateTime;
+    }
+
+    // Nothing Jackson would escape: printable ASCII, no quote or backslash
+    private static boolean plainAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < ' ' || c > '~' || c == '"' || c == '\\') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The JSON string exactly as the app's ObjectMapper writes it
+    private byte[] json(String value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] result = Arrays.copyOf(parts[0], length);
+        int at = parts[0].length;
+        for (int i = 1; i < parts.length; i++) {
+            System.arraycopy(parts[i], 0, result, at, parts[i].length);
+            at += parts[i].length;
+        }
+        return result;
+    }
+
+    private record Second(long epochSecond, byte[] dateTime) {
+    }
+}
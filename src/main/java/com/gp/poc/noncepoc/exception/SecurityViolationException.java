@@ -18,4 +18,26 @@ public class SecurityViolationException extends RuntimeException {
         this.code = code;
     }
 
-}
\ No newline at end of file
+    // No stack trace, no suppressed exceptions, no cause to set: nothing in
+    // it changes once built, so one instance can be thrown by any number of
+    // requests at once (see SecurityViolations)
+    private SecurityViolationException(
+            int httpStatus,
+            String code,
+            String message,
+            Void stackless
+    ) {
+        super(message, null, false, false);
+        this.httpStatus = httpStatus;
+        this.code = code;
+    }
+
+    public static SecurityViolationException stackless(
+            int httpStatus,
+            String code,
+            String message
+    ) {
+        return new SecurityViolationException(httpStatus, code, message, null);
+    }
+
+}
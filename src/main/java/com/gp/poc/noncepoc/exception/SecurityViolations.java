@@ -0,0 +1,83 @@
+package com.gp.poc.noncepoc.exception;
+
+import java.util.List;
+
+// The rejections of the security filters, built once. Throwing one costs
+// no allocation and no stack walk, which matters when a replay or bad
+// signature flood makes rejections the common case. SecurityErrorWriter
+// keeps their JSON pre-encoded. Codes and messages are part of the API.
+public final class SecurityViolations {
+
+    public static final SecurityViolationException UNAUTHENTICATED =
+            SecurityViolationException.stackless(
+                    401, "UNAUTHENTICATED", "User is not authenticated");
+
+    public static final SecurityViolationException MISSING_HEADERS =
+            SecurityViolationException.stackless(
+                    400, "INVALID_REQUEST", "Missing security headers");
+
+    public static final SecurityViolationException MALFORMED_NONCE =
+            SecurityViolationException.stackless(
+                    400, "INVALID_NONCE", "Nonce must be 1 to 128 visible ASCII characters");
+
+    public static final SecurityViolationException NONCE_NOT_COUNTER =
+            SecurityViolationException.stackless(
+                    400, "INVALID_NONCE", "Nonce must be a positive decimal counter");
+
+    public static final SecurityViolationException INVALID_TIMESTAMP =
+            SecurityViolationException.stackless(
+                    400, "INVALID_TIMESTAMP", "Timestamp must be epoch seconds");
+
+    public static final SecurityViolationException REQUEST_EXPIRED =
+            SecurityViolationException.stackless(
+                    401, "REQUEST_EXPIRED", "Request timestamp is expired");
+
+    public static final SecurityViolationException SESSION_EXPIRED =
+            SecurityViolationException.stackless(
+                    401, "SESSION_EXPIRED", "Session expired");
+
+    public static final SecurityViolationException REPLAY_ATTACK =
+            SecurityViolationException.stackless(
+                    401, "REPLAY_ATTACK", "Replay attack detected");
+
+    public static final SecurityViolationException UNSUPPORTED_SIGNATURE_VERSION =
+            SecurityViolationException.stackless(
+                    400, "INVALID_SIGNATURE_VERSION", "Unsupported signature version");
+
+    public static final SecurityViolationException INVALID_SIGNATURE =
+            SecurityViolationException.stackless(
+                    401, "INVALID_SIGNATURE", "Signature verification failed");
+
+    public static final SecurityViolationException IDEMPOTENCY_KEY_MISSING =
+            SecurityViolationException.stackless(
+                    400, "IDEMPOTENCY_KEY_MISSING", "Idempotency-Key header is required");
+
+    public static final SecurityViolationException IDEMPOTENT_REQUEST_IN_PROGRESS =
+            SecurityViolationException.stackless(
+                    409, "IDEMPOTENT_REQUEST_IN_PROGRESS", "Request is already being processed");
+
+    public static final SecurityViolationException RATE_LIMITED =
+            SecurityViolationException.stackless(
+                    429, "RATE_LIMITED", "Too many requests");
+
+    // security.nonce.store=memory at max-entries: refusing beats forgetting
+    // a nonce, and the client may retry once entries expire
+    public static final SecurityViolationException NONCE_STORE_FULL =
+            SecurityViolationException.stackless(
+                    503, "NONCE_STORE_FULL", "Nonce store is full, retry later");
+
+    public static final SecurityViolationException REDIS_BUSY =
+            SecurityViolationException.stackless(
+                    503, "REDIS_BUSY", "Too many concurrent Redis calls, retry later");
+
+    static final List<SecurityViolationException> ALL = List.of(
+            UNAUTHENTICATED, MISSING_HEADERS, MALFORMED_NONCE, NONCE_NOT_COUNTER,
+            INVALID_TIMESTAMP, REQUEST_EXPIRED, SESSION_EXPIRED, REPLAY_ATTACK,
+            UNSUPPORTED_SIGNATURE_VERSION, INVALID_SIGNATURE,
+            IDEMPOTENCY_KEY_MISSING,
+            IDEMPOTENT_REQUEST_IN_PROGRESS, RATE_LIMITED, NONCE_STORE_FULL, REDIS_BUSY
+    );
+
+    private SecurityViolations() {
+    }
+}
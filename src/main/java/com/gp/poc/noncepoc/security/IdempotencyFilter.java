@@ -1,7 +1,17 @@
 package com.gp.poc.noncepoc.security;
 
 import com.gp.poc.noncepoc.exception.SecurityViolationException;
+import com.gp.poc.noncepoc.exception.SecurityViolations;
+import com.gp.poc.noncepoc.security.SecurityMetrics.RedisOperation;
+import com.gp.poc.noncepoc.security.SecurityMetrics.Stage;
+import com.gp.poc.noncepoc.service.IdempotencyLease;
 import com.gp.poc.noncepoc.service.IdempotencyService;
+import com.gp.poc.noncepoc.service.IdempotencyWaiters;
+import com.gp.poc.noncepoc.service.RedisKey;
+import com.gp.poc.noncepoc.service.RedisKeyCodec;
+import com.gp.poc.noncepoc.service.SecurityLookup;
+import com.gp.poc.noncepoc.service.StoredResponse;
+import jakarta.servlet.AsyncContext;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -9,34 +19,72 @@ import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
 import org.springframework.web.servlet.HandlerExceptionResolver;
 
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 
 @Component
 @Slf4j
 public class IdempotencyFilter extends OncePerRequestFilter {
 
+    // Set when the filter has taken the request, so it is not handled twice
+    // when the request is dispatched again (ASYNC)
+    private static final String HANDLED = IdempotencyFilter.class.getName() + ".HANDLED";
+
+    private static final String BATCH_PATH = "/api/payments/execute-batch";
+
     private final IdempotencyService idempotencyService;
+    private final IdempotencyWaiters waiters;
+    private final RedisKeyCodec keyCodec;
+    private final SecurityMetrics metrics;
     private final HandlerExceptionResolver resolver;
 
+    @Value("${security.idempotency.replay-headers:Content-Type,Location}")
+    private List<String> replayHeaders;
+
     public IdempotencyFilter(
             IdempotencyService idempotencyService,
-            @Qualifier("handlerExceptionResolver")
+            IdempotencyWaiters waiters,
+            RedisKeyCodec keyCodec,
+            SecurityMetrics metrics,
+            @Qualifier("securityErrorWriter")
             HandlerExceptionResolver resolver
     ) {
         this.idempotencyService = idempotencyService;
+        this.waiters = waiters;
+        this.keyCodec = keyCodec;
+        this.metrics = metrics;
         this.resolver = resolver;
     }
 
     @Override
     protected boolean shouldNotFilter(HttpServletRequest request) {
-        // Only apply to money-moving APIs
-        return !request.getRequestURI().startsWith("/api/payments");
+        return !appliesTo(request) || request.getAttribute(HANDLED) != null;
+    }
+
+    // Runs on the ASYNC dispatch that resumes a request NonceSecurityFilter
+    // parked (security.redis.async)
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+
+    // Only apply to money-moving APIs. A batch has no request-level key:
+    // its items are deduplicated one by one by PaymentBatchService.
+    static boolean appliesTo(HttpServletRequest request) {
+        String uri = request.getRequestURI();
+        return uri.startsWith("/api/payments") && !uri.equals(BATCH_PATH);
     }
 
     @Override
@@ -46,6 +94,8 @@ public class IdempotencyFilter extends OncePerRequestFilter {
             FilterChain filterChain
     ) throws ServletException, IOException {
 
+        request.setAttribute(HANDLED, Boolean.TRUE);
+
         try {
             Authentication auth =
                     SecurityContextHolder.getContext().getAuthentication();
@@ -55,42 +105,159 @@ public class IdempotencyFilter extends OncePerRequestFilter {
             String idemKey = request.getHeader("Idempotency-Key");
 
             if (idemKey == null || idemKey.isBlank()) {
-                throw new SecurityViolationException(
-                        400,
-                        "IDEMPOTENCY_KEY_MISSING",
-                        "Idempotency-Key header is required"
-                );
+                throw SecurityViolations.IDEMPOTENCY_KEY_MISSING;
             }
 
-            String redisKey =
-                    "idem:" + userId + ":" +
-                            request.getRequestURI() + ":" +
-                            idemKey;
+            RedisKey redisKey = keyCodec.idempotency(
+                    userId,
+                    request.getRequestURI(),
+                    idemKey
+            );
 
             // If result already exists ? return it
-            var cached = idempotencyService.getResult(redisKey);
+            // (reuse the GET pipelined by NonceSecurityFilter when present)
+            SecurityLookup lookup = SecurityLookup.from(request);
+            Optional<StoredResponse> cached;
+            if (lookup != null && lookup.hasIdempotencyLookup(redisKey)) {
+                cached = idempotencyService.toResult(lookup.idempotencyValue());
+            } else {
+                long start = System.nanoTime();
+                cached = idempotencyService.getResult(redisKey);
+                metrics.record(RedisOperation.IDEMPOTENCY_GET, start);
+            }
             if (cached.isPresent()) {
+                // No handler runs: a v2 body is verified (and the nonce
+                // claimed) here, before anything is replayed
+                SignedBodyRequestWrapper.finish(request);
                 log.info("Idempotent request found in cache: {}", redisKey);
-                response.setStatus(HttpServletResponse.SC_OK);
-                response.setContentType("application/json");
-                response.getWriter().write(cached.get());
+                metrics.replayed();
+                writeStored(response, cached.get());
                 return;
             }
 
-            // Acquire lock
-            boolean acquired = idempotencyService.tryAcquire(redisKey);
-            if (!acquired) {
-                throw new SecurityViolationException(
-                        409,
-                        "IDEMPOTENT_REQUEST_IN_PROGRESS",
-                        "Request is already being processed"
-                );
+            // Acquire lease (short TTL, kept alive by a heartbeat)
+            long start = System.nanoTime();
+            IdempotencyLease lease = idempotencyService.tryAcquire(redisKey);
+            metrics.record(RedisOperation.IDEMPOTENCY_ACQUIRE, start);
+            if (lease == null) {
+                SignedBodyRequestWrapper.finish(request);
+                // Wait for the in-flight owner instead of an immediate 409
+                if (waiters.enabled()) {
+                    awaitOwner(request, response, redisKey);
+                    return;
+                }
+                throw SecurityViolations.IDEMPOTENT_REQUEST_IN_PROGRESS;
             }
 
-            filterChain.doFilter(request, response);
+            // Capture the real response (status, headers, body) for replays
+            ContentCachingResponseWrapper capturing =
+                    new ContentCachingResponseWrapper(response);
+
+            metrics.executed();
+            boolean completed = false;
+            try {
+                filterChain.doFilter(request, capturing);
+
+                // Only a success is the outcome of the key. A rejection
+                // (4xx: validation, security, conflict) or failure frees it,
+                // so the corrected retry runs instead of replaying the error.
+                if (isSuccess(capturing.getStatus())) {
+                    start = System.nanoTime();
+                    StoredResponse stored = capture(capturing);
+                    metrics.record(Stage.IDEMPOTENCY_CAPTURE, start);
+
+                    start = System.nanoTime();
+                    idempotencyService.storeResult(lease, stored);
+                    metrics.record(RedisOperation.IDEMPOTENCY_STORE, start);
+                    completed = true;
+                }
+            } finally {
+                // Rejected, failed or threw: free the key for a retry right away
+                if (!completed) {
+                    start = System.nanoTime();
+                    idempotencyService.release(lease);
+                    metrics.record(RedisOperation.IDEMPOTENCY_RELEASE, start);
+                }
+            }
+            capturing.copyBodyToResponse();
 
         } catch (SecurityViolationException ex) {
             resolver.resolveException(request, response, null, ex);
         }
     }
+
+    // Parks the duplicate without holding a request thread (servlet async)
+    // until the owner stores its result, then replays it
+    private void awaitOwner(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            RedisKey redisKey
+    ) {
+        var result = waiters.await(redisKey);
+
+        // The owner may have finished between our GET and the failed SET NX
+        idempotencyService.getResult(redisKey)
+                .ifPresent(value -> waiters.complete(redisKey, Optional.of(value)));
+
+        AsyncContext async = request.startAsync(request, response);
+        async.setTimeout(0); // bounded by the waiter timeout instead
+
+        result.whenComplete((stored, error) -> {
+            try {
+                // Handed over by an owner on this node; otherwise the owner
+                // finished elsewhere, gave up or we timed out: ask Redis
+                Optional<StoredResponse> outcome = error == null && stored.isPresent()
+                        ? stored
+                        : idempotencyService.getResult(redisKey);
+                if (outcome.isPresent()) {
+                    log.info("Idempotent request completed while waiting: {}", redisKey);
+                    metrics.replayed();
+                    writeStored(response, outcome.get());
+                } else {
+                    resolver.resolveException(request, response, null,
+                            SecurityViolations.IDEMPOTENT_REQUEST_IN_PROGRESS);
+                }
+            } catch (Exception e) {
+                log.warn("Failed to answer waiting idempotent request: {}", redisKey, e);
+            } finally {
+                async.complete();
+            }
+        });
+    }
+
+    private static boolean isSuccess(int status) {
+        return status >= 200 && status < 300;
+    }
+
+    private StoredResponse capture(ContentCachingResponseWrapper response) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (String name : replayHeaders) {
+            String value = HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(name)
+                    ? response.getContentType()
+                    : response.getHeader(name);
+            if (value != null) {
+                headers.put(name, value);
+            }
+        }
+        return new StoredResponse(
+                response.getStatus(),
+                headers,
+                response.getContentAsByteArray()
+        );
+    }
+
+    // Replays the stored bytes as-is: no re-serialization
+    private static void writeStored(HttpServletResponse response, StoredResponse stored)
+            throws IOException {
+        response.setStatus(stored.status());
+        stored.headers().forEach((name, value) -> {
+            if (HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(name)) {
+                response.setContentType(value);
+            } else {
+                response.setHeader(name, value);
+            }
+        });
+        response.setContentLength(stored.body().length);
+        response.getOutputStream().write(stored.body());
+    }
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package com.gp.poc.noncepoc.security;
 
 import com.gp.poc.noncepoc.utils.JwtUtil;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -19,7 +20,12 @@ import java.util.List;
 @RequiredArgsConstructor
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
+    // The device the verified token was issued to (its deviceId claim).
+    // Unlike X-Device-Id, the client cannot pick a new one per request.
+    static final String DEVICE_ID = JwtAuthenticationFilter.class.getName() + ".DEVICE_ID";
+
     private final JwtUtil jwtUtil;
+    private final SecurityMetrics metrics;
 
     @Override
     protected boolean shouldNotFilter(HttpServletRequest request) {
@@ -28,6 +34,13 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
                 || path.startsWith("/actuator/");
     }
 
+    // Spring Security authorizes ASYNC dispatches too (e.g. a request
+    // NonceSecurityFilter parked while Redis answers): authenticate again
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+
     @Override
     protected void doFilterInternal(
             HttpServletRequest request,
@@ -38,30 +51,40 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         String authHeader = request.getHeader("Authorization");
 
         if (authHeader == null || !authHeader.startsWith("Bearer ")) {
+            metrics.rejected("JWT_MISSING");
             response.sendError(401, "Missing Authorization header");
             return;
         }
 
+        String token = authHeader.substring(7);
+        Claims claims;
         try {
-            String token = authHeader.substring(7);
-            Claims claims = jwtUtil.validate(token);
-
-            String userId = claims.getSubject();
+            long start = System.nanoTime();
+            claims = jwtUtil.validate(token);
+            metrics.record(SecurityMetrics.Stage.JWT_VALIDATE, start);
+        } catch (JwtException | IllegalArgumentException e) {
+            // Only the token's own failures: what the rest of the chain
+            // throws is not a JWT problem and must not become a 401
+            metrics.rejected("JWT_INVALID");
+            response.sendError(401, "Invalid JWT");
+            return;
+        }
 
-            UsernamePasswordAuthenticationToken authentication =
-                    new UsernamePasswordAuthenticationToken(
-                            userId,
-                            null,
-                            List.of()
-                    );
+        String userId = claims.getSubject();
 
-            SecurityContextHolder.getContext()
-                    .setAuthentication(authentication);
+        UsernamePasswordAuthenticationToken authentication =
+                new UsernamePasswordAuthenticationToken(
+                        userId,
+                        null,
+                        List.of()
+                );
+        // Derived session key (if any) for NonceSecurityFilter
+        authentication.setDetails(JwtUtil.sessionGrant(claims));
 
-            filterChain.doFilter(request, response);
+        SecurityContextHolder.getContext()
+                .setAuthentication(authentication);
+        request.setAttribute(DEVICE_ID, claims.get("deviceId", String.class));
 
-        } catch (Exception e) {
-            response.sendError(401, "Invalid JWT");
-        }
+        filterChain.doFilter(request, response);
     }
 }
\ No newline at end of file
@@ -1,9 +1,20 @@
 package com.gp.poc.noncepoc.security;
 
 import com.gp.poc.noncepoc.exception.SecurityViolationException;
-import com.gp.poc.noncepoc.service.RedisNonceService;
-import com.gp.poc.noncepoc.service.SessionKeyService;
+import com.gp.poc.noncepoc.exception.SecurityViolations;
+import com.gp.poc.noncepoc.security.SecurityMetrics.RedisOperation;
+import com.gp.poc.noncepoc.security.SecurityMetrics.Stage;
+import com.gp.poc.noncepoc.service.DerivedSessionKeys;
+import com.gp.poc.noncepoc.service.NonceSlot;
+import com.gp.poc.noncepoc.service.NonceStore;
+import com.gp.poc.noncepoc.service.RedisKey;
+import com.gp.poc.noncepoc.service.RedisKeyCodec;
+import com.gp.poc.noncepoc.service.SecurityLookup;
+import com.gp.poc.noncepoc.service.SecurityLookupService;
+import com.gp.poc.noncepoc.service.SessionGrant;
+import com.gp.poc.noncepoc.utils.CanonicalPayload;
 import com.gp.poc.noncepoc.utils.HmacUtil;
+import jakarta.servlet.AsyncContext;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -18,26 +29,51 @@ import org.springframework.web.filter.OncePerRequestFilter;
 import org.springframework.web.servlet.HandlerExceptionResolver;
 
 import java.io.IOException;
-import java.security.MessageDigest;
 import java.time.Instant;
-import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 @Component
 public class NonceSecurityFilter extends OncePerRequestFilter {
 
-    private final RedisNonceService nonceService;
-    private final SessionKeyService sessionKeyService;
+    private static final String PARKED = NonceSecurityFilter.class.getName() + ".PARKED";
+
+    // Set once the request has passed, so a later async dispatch of the
+    // same request (e.g. an async controller) is not checked again
+    private static final String CHECKED = NonceSecurityFilter.class.getName() + ".CHECKED";
+
+    private final NonceStore nonceStore;
+    private final SecurityLookupService lookupService;
+    private final RedisKeyCodec keyCodec;
+    private final DerivedSessionKeys derivedSessionKeys;
+    private final SecurityMetrics metrics;
     private final HandlerExceptionResolver handlerExceptionResolver;
 
-    @Value("${security.nonce.ttl-seconds:300}")
-    private long nonceTtlSeconds;
+    // Redis round trips without holding the request thread (see park)
+    @Value("${security.redis.async.enabled:false}")
+    private boolean asyncRedis;
+
+    @Value("${security.redis.async.timeout-ms:2000}")
+    private long asyncTimeoutMs;
 
-    public NonceSecurityFilter(RedisNonceService nonceService,
-                               SessionKeyService sessionKeyService,
-                                @Qualifier("handlerExceptionResolver")
+    // X-Timestamp may be this far from now, either way; the nonce stores
+    // remember a claim for ttl + this drift (see RedisNonceService)
+    @Value("${security.nonce.allowed-time-drift-seconds:300}")
+    private long allowedDriftSeconds = 300;
+
+    public NonceSecurityFilter(NonceStore nonceStore,
+                               SecurityLookupService lookupService,
+                               RedisKeyCodec keyCodec,
+                               DerivedSessionKeys derivedSessionKeys,
+                               SecurityMetrics metrics,
+                                @Qualifier("securityErrorWriter")
                                HandlerExceptionResolver handlerExceptionResolver) {
-        this.nonceService = nonceService;
-        this.sessionKeyService = sessionKeyService;
+        this.nonceStore = nonceStore;
+        this.lookupService = lookupService;
+        this.keyCodec = keyCodec;
+        this.derivedSessionKeys = derivedSessionKeys;
+        this.metrics = metrics;
         this.handlerExceptionResolver = handlerExceptionResolver;
     }
 
@@ -46,7 +82,14 @@ public class NonceSecurityFilter extends OncePerRequestFilter {
         String path = request.getRequestURI();
         return path.startsWith("/auth/")
                 || path.startsWith("/internal/")
-                || path.startsWith("/actuator/");
+                || path.startsWith("/actuator/")
+                || request.getAttribute(CHECKED) != null;
+    }
+
+    // A parked request resumes on an ASYNC dispatch
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
     }
 
     @Override
@@ -58,125 +101,59 @@ public class NonceSecurityFilter extends OncePerRequestFilter {
 
         try {
 
-            // ---------------------------
-            // Authentication check
-            // ---------------------------
-            Authentication authentication =
-                    SecurityContextHolder.getContext().getAuthentication();
-
-            if (authentication == null || authentication.getPrincipal() == null) {
-                throw new SecurityViolationException(
-                        401,
-                        "UNAUTHENTICATED",
-                        "User is not authenticated"
-                );
-            }
-
-            String userId = authentication.getPrincipal().toString();
+            Checks checks;
+            String sessionKey;
+            boolean claimed;
 
-            // ---------------------------
-            // Headers
-            // ---------------------------
-            String deviceId = request.getHeader("X-Device-Id");
-            String nonce = request.getHeader("X-Nonce");
-            String timestampHeader = request.getHeader("X-Timestamp");
-            String signature = request.getHeader("X-Signature");
+            Parked parked = (Parked) request.getAttribute(PARKED);
+            if (parked != null) {
+                // Resumed: the Redis work is done, pick up its outcome
+                request.removeAttribute(PARKED);
+                if (parked.error() != null) {
+                    rethrow(parked.error());
+                }
+                checks = parked.checks();
+                sessionKey = parked.sessionKey();
+                claimed = parked.claimed();
+            } else {
+                long start = System.nanoTime();
+                checks = prepare(request);
+                metrics.record(Stage.NONCE_PREPARE, start);
 
-            if (deviceId == null || nonce == null
-                    || timestampHeader == null || signature == null) {
+                if (asyncRedis && request.isAsyncSupported()) {
+                    park(request, response, checks);
+                    return;
+                }
 
-                throw new SecurityViolationException(
-                        400,
-                        "INVALID_REQUEST",
-                        "Missing security headers"
+                // ---------------------------
+                // Redis lookups (one pipeline)
+                // ---------------------------
+                start = System.nanoTime();
+                SecurityLookup lookup = lookupService.prefetch(
+                        checks.sessionKeyKey(),
+                        checks.nonceSlot(),
+                        checks.idemKey()
                 );
-            }
+                metrics.record(RedisOperation.SECURITY_LOOKUP, start);
+                lookup.attachTo(request);
 
-            // ---------------------------
-            // Timestamp
-            // ---------------------------
-            long timestamp;
-            try {
-                timestamp = Long.parseLong(timestampHeader);
-            } catch (Exception e) {
-                throw new SecurityViolationException(
-                        400,
-                        "INVALID_TIMESTAMP",
-                        "Timestamp must be epoch seconds"
-                );
-            }
+                sessionKey = checkBeforeClaim(request, checks, lookup);
 
-            long now = Instant.now().getEpochSecond();
-            if (Math.abs(now - timestamp) > 300) {
-                throw new SecurityViolationException(
-                        401,
-                        "REQUEST_EXPIRED",
-                        "Request timestamp is expired"
-                );
+                // ---------------------------
+                // Nonce claim AFTER validation (atomic, closes races)
+                // (v2: once the body is verified, see signedBody)
+                // ---------------------------
+                claimed = checks.signsBody() || claimNonce(checks);
             }
 
-            // ---------------------------
-            // Session key
-            // ---------------------------
-            String sessionKey =
-                    sessionKeyService.getSessionKey(userId, deviceId);
-
-            if (sessionKey == null) {
-                throw new SecurityViolationException(
-                        401,
-                        "SESSION_EXPIRED",
-                        "Session expired"
-                );
+            if (!claimed) {
+                throw SecurityViolations.REPLAY_ATTACK;
             }
 
-            // ---------------------------
-            // Nonce replay
-            // ---------------------------
-            String nonceKey =
-                    "nonce:" + userId + ":" +
-                            request.getMethod() + ":" +
-                            request.getRequestURI() + ":" +
-                            nonce;
-
-            if (nonceService.isReplay(nonceKey)) {
-                throw new SecurityViolationException(
-                        401,
-                        "REPLAY_ATTACK",
-                        "Replay attack detected"
-                );
-            }
-
-            // ---------------------------
-            // Signature
-            // ---------------------------
-            String payload =
-                    request.getMethod() + "\n" +
-                            request.getRequestURI() + "\n" +
-                            timestamp + "\n" +
-                            nonce;
-
-            String expectedSignature =
-                    HmacUtil.generateHmacSha256(sessionKey, payload);
-
-            byte[] expected = Base64.getDecoder()
-                    .decode(expectedSignature.trim());
-            byte[] actual = Base64.getDecoder()
-                    .decode(signature.trim());
-
-            if (!MessageDigest.isEqual(expected, actual)) {
-                throw new SecurityViolationException(
-                        401,
-                        "INVALID_SIGNATURE",
-                        "Signature verification failed"
-                );
-            }
-
-            // ---------------------------
-            // Store nonce AFTER validation
-            // ---------------------------
-            nonceService.storeNonce(nonceKey, nonceTtlSeconds);
-
-            filterChain.doFilter(request, response);
+            request.setAttribute(CHECKED, Boolean.TRUE);
+            filterChain.doFilter(
+                    checks.signsBody() ? signedBody(request, checks, sessionKey) : request,
+                    response);
 
         } catch (SecurityViolationException ex) {
 
@@ -188,4 +165,289 @@ public class NonceSecurityFilter extends OncePerRequestFilter {
             );
         }
     }
-}
\ No newline at end of file
+
+    // Everything that needs no Redis: authentication, headers, timestamp,
+    // the keys to look up and a derived session key
+    private Checks prepare(HttpServletRequest request) {
+
+        // ---------------------------
+        // Authentication check
+        // ---------------------------
+        Authentication authentication =
+                SecurityContextHolder.getContext().getAuthentication();
+
+        if (authentication == null || authentication.getPrincipal() == null) {
+            throw SecurityViolations.UNAUTHENTICATED;
+        }
+
+        String userId = authentication.getPrincipal().toString();
+
+        // ---------------------------
+        // Headers
+        // ---------------------------
+        String deviceId = request.getHeader("X-Device-Id");
+        String nonce = request.getHeader("X-Nonce");
+        String timestampHeader = request.getHeader("X-Timestamp");
+        String signature = request.getHeader("X-Signature");
+
+        if (deviceId == null || nonce == null
+                || timestampHeader == null || signature == null) {
+
+            throw SecurityViolations.MISSING_HEADERS;
+        }
+
+        // ---------------------------
+        // Header shape: junk is refused before any lookup
+        // ---------------------------
+        if (!NonceStore.isWellFormed(nonce)) {
+            throw SecurityViolations.MALFORMED_NONCE;
+        }
+
+        // Could never verify: the same answer as a wrong signature
+        if (!HmacUtil.isWellFormedSignature(signature)) {
+            throw SecurityViolations.INVALID_SIGNATURE;
+        }
+
+        int signatureVersion =
+                parseSignatureVersion(request.getHeader("X-Signature-Version"));
+
+        // ---------------------------
+        // Timestamp
+        // ---------------------------
+        long timestamp;
+        try {
+            timestamp = Long.parseLong(timestampHeader);
+        } catch (Exception e) {
+            throw SecurityViolations.INVALID_TIMESTAMP;
+        }
+
+        long now = Instant.now().getEpochSecond();
+        if (Math.abs(now - timestamp) > allowedDriftSeconds) {
+            throw SecurityViolations.REQUEST_EXPIRED;
+        }
+
+        // ---------------------------
+        // Counter nonces (COUNTER_WINDOW storage)
+        // ---------------------------
+        if (nonceStore.countersEnabled() && !NonceStore.isCounter(nonce)) {
+            throw SecurityViolations.NONCE_NOT_COUNTER;
+        }
+
+        NonceSlot nonceSlot = nonceStore.slot(
+                userId,
+                deviceId,
+                request.getMethod(),
+                request.getRequestURI(),
+                nonce
+        );
+
+        String idemHeader = request.getHeader("Idempotency-Key");
+        RedisKey idemKey =
+                IdempotencyFilter.appliesTo(request)
+                        && idemHeader != null && !idemHeader.isBlank()
+                        ? keyCodec.idempotency(
+                                userId, request.getRequestURI(), idemHeader)
+                        : null;
+
+        // A derived session key is rebuilt locally: no Redis read
+        // (its generation check may read Redis, hence here and not on
+        // Lettuce's I/O thread)
+        SessionGrant grant =
+                authentication.getDetails() instanceof SessionGrant g ? g : null;
+
+        RedisKey sessionKeyKey = grant == null ? keyCodec.session(userId, deviceId) : null;
+
+        // No session for this device a moment ago (negative cache, dropped
+        // as soon as a login issues one): no Redis round trip to learn it again
+        if (sessionKeyKey != null && lookupService.knownWithoutSession(sessionKeyKey)) {
+            throw SecurityViolations.SESSION_EXPIRED;
+        }
+
+        return new Checks(
+                nonce,
+                signature,
+                timestamp,
+                nonceSlot,
+                sessionKeyKey,
+                idemKey,
+                grant == null ? null : derivedSessionKeys.sessionKey(userId, deviceId, grant),
+                signatureVersion == CanonicalPayload.VERSION_2
+        );
+    }
+
+    // Session key, early replay reject and the v1 signature (v2 covers the
+    // body: see signedBody). Returns the session key. CPU only: also runs
+    // on Lettuce's I/O thread (park).
+    private String checkBeforeClaim(
+            HttpServletRequest request,
+            Checks checks,
+            SecurityLookup lookup
+    ) {
+        // ---------------------------
+        // Session key
+        // ---------------------------
+        String sessionKey = checks.sessionKeyKey() != null
+                ? lookup.sessionKey()
+                : checks.derivedSessionKey();
+
+        if (sessionKey == null) {
+            throw SecurityViolations.SESSION_EXPIRED;
+        }
+
+        // ---------------------------
+        // Nonce replay (early reject, no HMAC work)
+        // ---------------------------
+        if (lookup.nonceSeen()) {
+            throw SecurityViolations.REPLAY_ATTACK;
+        }
+
+        // ---------------------------
+        // Signature
+        // ---------------------------
+        if (!checks.signsBody()) {
+            verifySignature(request, sessionKey, checks, null);
+        }
+        return sessionKey;
+    }
+
+    private boolean claimNonce(Checks checks) {
+        long start = System.nanoTime();
+        boolean claimed = nonceStore.claimNonce(checks.nonceSlot());
+        metrics.record(RedisOperation.NONCE_CLAIM, start);
+        return claimed;
+    }
+
+    // Signature v2 covers the body: it is hashed as the handler reads it,
+    // without buffering, and once it has been consumed (EOF, or drained by
+    // SignedBodyAdvice / SignedBodyInterceptor before the handler runs)
+    // the signature is checked and only then the nonce claimed
+    private HttpServletRequest signedBody(
+            HttpServletRequest request,
+            Checks checks,
+            String sessionKey
+    ) {
+        return new SignedBodyRequestWrapper(request, bodySha256 -> {
+            verifySignature(request, sessionKey, checks, bodySha256);
+            if (!claimNonce(checks)) {
+                throw SecurityViolations.REPLAY_ATTACK;
+            }
+        });
+    }
+
+    // security.redis.async: the prefetch pipeline and the claim go through
+    // Lettuce's async API while the request is parked (servlet async), so
+    // the request thread returns to the pool instead of waiting on Redis.
+    // The outcome is handed to the ASYNC dispatch that resumes the request.
+    private void park(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            Checks checks
+    ) {
+        AsyncContext async = request.startAsync(request, response);
+        async.setTimeout(0); // bounded by security.redis.async.timeout-ms instead
+
+        long start = System.nanoTime();
+        CompletableFuture<SecurityLookup> lookup;
+        try {
+            lookup = lookupService.prefetchAsync(
+                    checks.sessionKeyKey(),
+                    checks.nonceSlot(),
+                    checks.idemKey()
+            );
+        } catch (RuntimeException e) {
+            lookup = CompletableFuture.failedFuture(e);
+        }
+
+        lookup.thenCompose(found -> {
+                    metrics.record(RedisOperation.SECURITY_LOOKUP, start);
+                    found.attachTo(request);
+                    String sessionKey = checkBeforeClaim(request, checks, found);
+                    if (checks.signsBody()) {
+                        // Claimed once the body is verified (signedBody)
+                        return CompletableFuture.completedFuture(
+                                new Parked(checks, sessionKey, true, null));
+                    }
+                    long claimStart = System.nanoTime();
+                    return nonceStore.claimNonceAsync(checks.nonceSlot())
+                            .thenApply(claimed -> {
+                                metrics.record(RedisOperation.NONCE_CLAIM, claimStart);
+                                return new Parked(checks, sessionKey, claimed, null);
+                            });
+                })
+                .orTimeout(asyncTimeoutMs, TimeUnit.MILLISECONDS)
+                .exceptionally(error -> new Parked(checks, null, false, error))
+                .thenAccept(parked -> {
+                    request.setAttribute(PARKED, parked);
+                    async.dispatch();
+                });
+    }
+
+    // Failures of the parked stage surface as on the blocking path
+    private static void rethrow(Throwable error) throws ServletException {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                ? error.getCause()
+                : error;
+        if (cause instanceof RuntimeException e) {
+            throw e;
+        }
+        if (cause instanceof Error e) {
+            throw e;
+        }
+        throw new ServletException("Redis did not answer in time", cause);
+    }
+
+    private static int parseSignatureVersion(String header) {
+        if (header == null || header.equals("1")) {
+            return CanonicalPayload.VERSION_1;
+        }
+        if (header.equals("2")) {
+            return CanonicalPayload.VERSION_2;
+        }
+        throw SecurityViolations.UNSUPPORTED_SIGNATURE_VERSION;
+    }
+
+    private void verifySignature(
+            HttpServletRequest request,
+            String sessionKey,
+            Checks checks,
+            byte[] bodySha256
+    ) {
+        long start = System.nanoTime();
+        boolean validSignature = HmacUtil.verifyHmacSha256(
+                sessionKey,
+                checks.signature(),
+                request.getMethod(),
+                request.getRequestURI(),
+                checks.timestamp(),
+                checks.nonce(),
+                bodySha256
+        );
+        metrics.record(Stage.NONCE_SIGNATURE, start);
+
+        if (!validSignature) {
+            throw SecurityViolations.INVALID_SIGNATURE;
+        }
+    }
+
+    // Header values and Redis keys of one request, from prepare()
+    private record Checks(
+            String nonce,
+            String signature,
+            long timestamp,
+            NonceSlot nonceSlot,
+            RedisKey sessionKeyKey,
+            RedisKey idemKey,
+            String derivedSessionKey,
+            boolean signsBody
+    ) {
+    }
+
+    // Outcome of a parked request: the claim result or what went wrong
+    private record Parked(
+            Checks checks,
+            String sessionKey,
+            boolean claimed,
+            Throwable error
+    ) {
+    }
+}
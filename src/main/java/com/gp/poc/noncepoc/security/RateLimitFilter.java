@@ -0,0 +1,88 @@
+package com.gp.poc.noncepoc.security;
+
+import com.gp.poc.noncepoc.exception.SecurityViolations;
+import com.gp.poc.noncepoc.service.RateLimiter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerExceptionResolver;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Runs between JWT and nonce checks: a flood from one device (or of logins
+// from one IP) is turned away before it reaches Redis. No network I/O on
+// this path, see RateLimiter. The device is the one in the token, not the
+// X-Device-Id header: a header would give a client a fresh bucket per value.
+@Component
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    private static final String LOGIN_PATH = "/auth/login";
+
+    private final RateLimiter rateLimiter;
+    private final HandlerExceptionResolver handlerExceptionResolver;
+
+    @Value("${security.rate-limit.enabled:true}")
+    private boolean enabled;
+
+    public RateLimitFilter(RateLimiter rateLimiter,
+                           @Qualifier("securityErrorWriter")
+                           HandlerExceptionResolver handlerExceptionResolver) {
+        this.rateLimiter = rateLimiter;
+        this.handlerExceptionResolver = handlerExceptionResolver;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI();
+        return !enabled
+                || !(path.startsWith("/api/") || path.equals(LOGIN_PATH));
+    }
+
+    @Override
+    protected void doFilterInternal(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            FilterChain filterChain
+    ) throws ServletException, IOException {
+
+        long waitNanos;
+        if (request.getRequestURI().equals(LOGIN_PATH)) {
+            // Behind a proxy: server.forward-headers-strategy for the client IP
+            waitNanos = rateLimiter.tryAcquireLogin(request.getRemoteAddr());
+        } else {
+            Authentication authentication = SecurityContextHolder
+                    .getContext()
+                    .getAuthentication();
+            String deviceId = (String) request.getAttribute(JwtAuthenticationFilter.DEVICE_ID);
+            waitNanos = authentication == null
+                    ? 0 // left to the authorization rules
+                    : rateLimiter.tryAcquireDevice(
+                            (String) authentication.getPrincipal(),
+                            deviceId == null ? "" : deviceId);
+        }
+
+        if (waitNanos > 0) {
+            response.setHeader(HttpHeaders.RETRY_AFTER,
+                    Long.toString(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(
+                            waitNanos + TimeUnit.SECONDS.toNanos(1) - 1))));
+            handlerExceptionResolver.resolveException(
+                    request,
+                    response,
+                    null,
+                    SecurityViolations.RATE_LIMITED
+            );
+            return;
+        }
+
+        filterChain.doFilter(request, response);
+    }
+}
@@ -13,6 +13,7 @@ import org.springframework.security.web.authentication.UsernamePasswordAuthentic
 public class SecurityConfig {
 
     private final JwtAuthenticationFilter jwtFilter;
+    private final RateLimitFilter rateLimitFilter;
     private final NonceSecurityFilter nonceFilter;
     private final IdempotencyFilter idempotencyFilter;
 
@@ -29,10 +30,16 @@ public class SecurityConfig {
                         UsernamePasswordAuthenticationFilter.class
                 )
 
+                // HOW OFTEN (before any Redis work)
+                .addFilterAfter(
+                        rateLimitFilter,
+                        JwtAuthenticationFilter.class
+                )
+
                 // REPLAY + INTEGRITY
                 .addFilterAfter(
                         nonceFilter,
-                        JwtAuthenticationFilter.class
+                        RateLimitFilter.class
                 )
                 .addFilterAfter(
                         idempotencyFilter,
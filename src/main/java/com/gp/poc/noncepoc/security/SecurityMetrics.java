@@ -0,0 +1,140 @@
+package com.gp.poc.noncepoc.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Where the time of a signed request goes, and why requests are refused.
+// Every meter is registered up front and looked up by enum or code, so
+// recording is a nanoTime delta and a counter bump, with no tags or
+// Timer.Sample built per request.
+//   security.filter.stage{filter,stage}  CPU work of the filters
+//   redis.operation{operation}           Redis round trips of the filters,
+//                                        per logical operation
+//   security.rejections{code}            SecurityViolationException codes,
+//                                        plus the JWT filter's own refusals
+//   idempotency.requests{outcome}        executed or replayed from storage
+@Component
+public class SecurityMetrics {
+
+    public enum Stage {
+        JWT_VALIDATE("jwt", "validate"),
+        // headers, timestamp, keys, derived session key
+        NONCE_PREPARE("nonce", "prepare"),
+        // HMAC verification (v2: once the body is read)
+        NONCE_SIGNATURE("nonce", "signature"),
+        // status, headers and body kept for replays
+        IDEMPOTENCY_CAPTURE("idempotency", "capture");
+
+        private final String filter;
+        private final String stage;
+
+        Stage(String filter, String stage) {
+            this.filter = filter;
+            this.stage = stage;
+        }
+    }
+
+    public enum RedisOperation {
+        // session key + nonce seen + idempotency GET, one pipeline
+        SECURITY_LOOKUP("security-lookup"),
+        // SET NX or Lua (or the in-memory store, security.nonce.store)
+        NONCE_CLAIM("nonce-claim"),
+        // only when not already read by SECURITY_LOOKUP
+        IDEMPOTENCY_GET("idempotency-get"),
+        IDEMPOTENCY_ACQUIRE("idempotency-acquire"),
+        IDEMPOTENCY_STORE("idempotency-store"),
+        IDEMPOTENCY_RELEASE("idempotency-release");
+
+        private final String operation;
+
+        RedisOperation(String operation) {
+            this.operation = operation;
+        }
+    }
+
+    // Codes thrown by this app, registered at startup so they show up at 0
+    private static final String[] KNOWN_CODES = {
+            "UNAUTHENTICATED", "INVALID_REQUEST", "INVALID_TIMESTAMP",
+            "REQUEST_EXPIRED", "INVALID_NONCE", "SESSION_EXPIRED",
+            "REPLAY_ATTACK", "INVALID_SIGNATURE_VERSION", "INVALID_SIGNATURE",
+            "IDEMPOTENCY_KEY_MISSING", "IDEMPOTENT_REQUEST_IN_PROGRESS",
+            "NONCE_STORE_FULL", "REDIS_BUSY", "RATE_LIMITED", "JWT_MISSING", "JWT_INVALID"
+    };
+
+    private final MeterRegistry meterRegistry;
+    private final Map<Stage, Timer> stages = new EnumMap<>(Stage.class);
+    private final Map<RedisOperation, Timer> redisOperations = new EnumMap<>(RedisOperation.class);
+    private final Map<String, Counter> rejections = new ConcurrentHashMap<>();
+    private final Counter executed;
+    private final Counter replayed;
+
+    public SecurityMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, Timer.builder("security.filter.stage")
+                    .description("CPU work of a security filter stage")
+                    .tag("filter", stage.filter)
+                    .tag("stage", stage.stage)
+                    .register(meterRegistry));
+        }
+        for (RedisOperation operation : RedisOperation.values()) {
+            redisOperations.put(operation, Timer.builder("redis.operation")
+                    .description("Redis round trip of a security filter")
+                    .tag("operation", operation.operation)
+                    .register(meterRegistry));
+        }
+        for (String code : KNOWN_CODES) {
+            rejections.put(code, rejectionCounter(code));
+        }
+
+        this.executed = Counter.builder("idempotency.requests")
+                .description("Idempotent requests run for the first time")
+                .tag("outcome", "executed")
+                .register(meterRegistry);
+        this.replayed = Counter.builder("idempotency.requests")
+                .description("Idempotent requests answered with the stored response")
+                .tag("outcome", "replayed")
+                .register(meterRegistry);
+    }
+
+    // startNanos: System.nanoTime() when the stage began
+    public void record(Stage stage, long startNanos) {
+        stages.get(stage).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void record(RedisOperation operation, long startNanos) {
+        redisOperations.get(operation).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void rejected(String code) {
+        Counter counter = rejections.get(code);
+        if (counter == null) {
+            // A code not in KNOWN_CODES: registered once, on first use
+            counter = rejections.computeIfAbsent(code, this::rejectionCounter);
+        }
+        counter.increment();
+    }
+
+    public void executed() {
+        executed.increment();
+    }
+
+    public void replayed() {
+        replayed.increment();
+    }
+
+    private Counter rejectionCounter(String code) {
+        return Counter.builder("security.rejections")
+                .description("Requests refused by the security checks, by code")
+                .tag("code", code)
+                .register(meterRegistry);
+    }
+}
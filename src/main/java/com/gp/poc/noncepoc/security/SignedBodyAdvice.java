@@ -0,0 +1,66 @@
+package com.gp.poc.noncepoc.security;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.mvc.method.annotation.RequestBodyAdviceAdapter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+
+// Guarantees a v2 body signature is checked (and the nonce claimed) before
+// a @RequestBody handler runs, even when the JSON parser stopped reading
+// before EOF. Handlers without a body parameter: SignedBodyInterceptor.
+@ControllerAdvice
+public class SignedBodyAdvice extends RequestBodyAdviceAdapter {
+
+    @Override
+    public boolean supports(
+            MethodParameter methodParameter,
+            Type targetType,
+            Class<? extends HttpMessageConverter<?>> converterType
+    ) {
+        return true;
+    }
+
+    @Override
+    public Object afterBodyRead(
+            Object body,
+            HttpInputMessage inputMessage,
+            MethodParameter parameter,
+            Type targetType,
+            Class<? extends HttpMessageConverter<?>> converterType
+    ) {
+        finishSignedBody();
+        return body;
+    }
+
+    @Override
+    public Object handleEmptyBody(
+            Object body,
+            HttpInputMessage inputMessage,
+            MethodParameter parameter,
+            Type targetType,
+            Class<? extends HttpMessageConverter<?>> converterType
+    ) {
+        finishSignedBody();
+        return body;
+    }
+
+    private void finishSignedBody() {
+        if (!(RequestContextHolder.getRequestAttributes()
+                instanceof ServletRequestAttributes attributes)) {
+            return;
+        }
+
+        try {
+            SignedBodyRequestWrapper.finish(attributes.getRequest());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.gp.poc.noncepoc.security;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+// Signature v2 on a handler that never reads its body (like /execute):
+// the body is drained into the digest, without keeping it, and verified
+// (and the nonce claimed) before the handler runs. A handler with a body
+// parameter reads it itself and is finished by SignedBodyAdvice.
+@Component
+public class SignedBodyInterceptor implements HandlerInterceptor, WebMvcConfigurer {
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(this);
+    }
+
+    @Override
+    public boolean preHandle(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            Object handler
+    ) throws Exception {
+        if (!(handler instanceof HandlerMethod method) || !readsBody(method)) {
+            SignedBodyRequestWrapper.finish(request);
+        }
+        return true;
+    }
+
+    static boolean readsBody(HandlerMethod method) {
+        for (MethodParameter parameter : method.getMethodParameters()) {
+            if (parameter.hasParameterAnnotation(RequestBody.class)
+                    || HttpEntity.class.isAssignableFrom(parameter.getParameterType())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,156 @@
+package com.gp.poc.noncepoc.security;
+
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import org.springframework.web.util.WebUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// Signature v2: hashes the body (SHA-256) while the application reads it,
+// in the same single pass and without keeping it, and runs the verifier
+// (signature, then nonce claim) once the last byte has been consumed:
+// at EOF, or from finish() for a handler that leaves the body unread.
+// A failed check surfaces as the verifier's exception, from read() or
+// finish(), and again on every later call.
+public class SignedBodyRequestWrapper extends HttpServletRequestWrapper {
+
+    @FunctionalInterface
+    public interface BodyVerifier {
+        void verify(byte[] bodySha256);
+    }
+
+    private final BodyVerifier verifier;
+    private final MessageDigest digest;
+
+    private DigestingInputStream inputStream;
+    private BufferedReader reader;
+
+    private boolean verified;
+    private RuntimeException failure;
+
+    public SignedBodyRequestWrapper(
+            HttpServletRequest request,
+            BodyVerifier verifier
+    ) {
+        super(request);
+        this.verifier = verifier;
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    // Finishes the v2 body of a request, if it has one (no-op otherwise)
+    public static void finish(HttpServletRequest request) throws IOException {
+        SignedBodyRequestWrapper signedBody =
+                WebUtils.getNativeRequest(request, SignedBodyRequestWrapper.class);
+        if (signedBody != null) {
+            signedBody.finish();
+        }
+    }
+
+    @Override
+    public ServletInputStream getInputStream() throws IOException {
+        if (inputStream == null) {
+            inputStream = new DigestingInputStream(super.getInputStream());
+        }
+        return inputStream;
+    }
+
+    @Override
+    public BufferedReader getReader() throws IOException {
+        if (reader == null) {
+            String encoding = getCharacterEncoding();
+            Charset charset = encoding != null
+                    ? Charset.forName(encoding)
+                    : StandardCharsets.UTF_8;
+            reader = new BufferedReader(
+                    new InputStreamReader(getInputStream(), charset)
+            );
+        }
+        return reader;
+    }
+
+    // Hashes whatever the application left unread (a parser that stopped
+    // at the end of the JSON value, a handler that never reads its body)
+    // through a fixed scratch buffer, then verifies
+    public void finish() throws IOException {
+        if (!verified) {
+            ServletInputStream in = getInputStream();
+            byte[] skip = new byte[8192];
+            while (in.read(skip) != -1) {
+                // hashed by DigestingInputStream
+            }
+        }
+        verify();
+    }
+
+    private void verify() {
+        if (!verified) {
+            verified = true;
+            try {
+                verifier.verify(digest.digest());
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private class DigestingInputStream extends ServletInputStream {
+
+        private final ServletInputStream delegate;
+
+        private DigestingInputStream(ServletInputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = delegate.read();
+            if (b == -1) {
+                verify();
+            } else {
+                digest.update((byte) b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = delegate.read(b, off, len);
+            if (n == -1) {
+                verify();
+            } else {
+                digest.update(b, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return delegate.isFinished();
+        }
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            delegate.setReadListener(readListener);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.gp.poc.noncepoc.service;
+
+import io.lettuce.core.RedisNoScriptException;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+// Lettuce's async API on the connection RedisTemplate shares between
+// threads (security.redis.async): commands are written at once and their
+// futures complete on Lettuce's I/O thread, so no thread waits for Redis.
+// Commands issued back to back travel as one pipeline.
+final class AsyncRedis {
+
+    private AsyncRedis() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static RedisClusterAsyncCommands<byte[], byte[]> commands(
+            RedisTemplate<byte[], byte[]> template
+    ) {
+        RedisConnectionFactory factory = template.getRequiredConnectionFactory();
+        if (!(factory instanceof LettuceConnectionFactory lettuce)
+                || !lettuce.getShareNativeConnection()) {
+            throw new IllegalStateException(
+                    "security.redis.async needs Lettuce with a shared native connection");
+        }
+
+        // Closing does not close the shared native connection
+        RedisConnection connection = factory.getConnection();
+        try {
+            return (RedisClusterAsyncCommands<byte[], byte[]>) connection.getNativeConnection();
+        } finally {
+            connection.close();
+        }
+    }
+
+    // EVALSHA, falling back to EVAL (which caches the script) on NOSCRIPT,
+    // like RedisTemplate.execute(script, ...)
+    static CompletableFuture<Long> eval(
+            RedisClusterAsyncCommands<byte[], byte[]> redis,
+            RedisScript<Long> script,
+            byte[][] keys,
+            byte[]... args
+    ) {
+        CompletableFuture<Long> sha = redis.<Long>evalsha(
+                script.getSha1(), ScriptOutputType.INTEGER, keys, args).toCompletableFuture();
+        return sha.exceptionallyCompose(error -> unwrap(error) instanceof RedisNoScriptException
+                ? redis.<Long>eval(script.getScriptAsString(), ScriptOutputType.INTEGER, keys, args)
+                        .toCompletableFuture()
+                : CompletableFuture.failedFuture(error));
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        while (error instanceof CompletionException
+                && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+}
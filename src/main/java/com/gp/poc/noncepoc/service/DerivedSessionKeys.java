@@ -0,0 +1,237 @@
+package com.gp.poc.noncepoc.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.gp.poc.noncepoc.utils.CanonicalPayload;
+import com.gp.poc.noncepoc.utils.ThreadAwarePool;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Stateless session keys: instead of a random key stored in Redis at login,
+//   key = HKDF-SHA256(master key `kid`, info = userId, deviceId, epoch, generation)
+// with kid/epoch/generation carried in the JWT (SessionGrant). Any node
+// holding the master key rebuilds it locally, no Redis read.
+//
+// Revocation: bumping the user's generation (one small Redis counter,
+// cached here for generation-cache-ms) invalidates every grant issued
+// before. Rotation: add the new kid to master-keys everywhere, then make
+// it current-kid; drop the old one once its sessions (ttl) have expired.
+@Component
+public class DerivedSessionKeys {
+
+    // STORED: random key in Redis (SessionKeyService). DERIVED: this class.
+    // Only decides what login issues; both kinds are accepted.
+    public enum Mode { STORED, DERIVED }
+
+    public static final long SESSION_TTL_SECONDS = 600;
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final byte[] SALT =
+            "gp-nonce-poc/session-key/v1".getBytes(StandardCharsets.US_ASCII);
+
+    // KEYS = generation per key name (2 while migrating key layouts)
+    private static final RedisScript<Long> BUMP_GENERATION = RedisScript.of("""
+            local generation = 0
+            for _, key in ipairs(KEYS) do
+              generation = math.max(generation, tonumber(redis.call('GET', key) or '0'))
+            end
+            generation = generation + 1
+            for _, key in ipairs(KEYS) do
+              redis.call('SET', key, generation)
+            end
+            return generation
+            """, Long.class);
+
+    private final RedisTemplate<byte[], byte[]> binaryRedisTemplate;
+    private final RedisKeyCodec keyCodec;
+    private final Mode mode;
+    private final String currentKid;
+
+    // kid -> HKDF-Extract output (PRK), computed once
+    private final Map<String, SecretKeySpec> pseudoRandomKeys = new HashMap<>();
+
+    private final ThreadAwarePool<Mac> macs = new ThreadAwarePool<>(DerivedSessionKeys::newMac);
+    private final Cache<String, Long> generations;
+
+    public DerivedSessionKeys(
+            RedisTemplate<byte[], byte[]> binaryRedisTemplate,
+            RedisKeyCodec keyCodec,
+            @Value("${security.session.mode:STORED}") Mode mode,
+            @Value("${security.session.derived.current-kid:}") String currentKid,
+            @Value("${security.session.derived.master-keys:}") List<String> masterKeys,
+            @Value("${security.session.derived.generation-cache-ms:5000}")
+            long generationCacheMs
+    ) {
+        this.binaryRedisTemplate = binaryRedisTemplate;
+        this.keyCodec = keyCodec;
+        this.mode = mode;
+        this.currentKid = currentKid;
+
+        // "kid:secret" entries
+        for (String entry : masterKeys) {
+            int colon = entry.indexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException(
+                        "security.session.derived.master-keys entries must be kid:secret");
+            }
+            pseudoRandomKeys.put(
+                    entry.substring(0, colon).trim(),
+                    extract(entry.substring(colon + 1).trim())
+            );
+        }
+        if (mode == Mode.DERIVED && !pseudoRandomKeys.containsKey(currentKid)) {
+            throw new IllegalArgumentException(
+                    "security.session.derived.current-kid must name one of master-keys");
+        }
+
+        this.generations = Caffeine.newBuilder()
+                .maximumSize(100_000)
+                .expireAfterWrite(Duration.ofMillis(generationCacheMs))
+                .build();
+    }
+
+    // Whether login hands out derived keys
+    public boolean issuing() {
+        return mode == Mode.DERIVED;
+    }
+
+    // Login: reads the generation from Redis, not the cache, so a session
+    // issued right after a revocation is not born revoked elsewhere
+    public SessionGrant newGrant(String userId) {
+        long generation = readGeneration(userId);
+        generations.put(userId, generation);
+        return new SessionGrant(currentKid, Instant.now().getEpochSecond(), generation);
+    }
+
+    // null when the grant has expired, was revoked or its kid is retired
+    public String sessionKey(String userId, String deviceId, SessionGrant grant) {
+        SecretKeySpec prk = pseudoRandomKeys.get(grant.kid());
+        if (prk == null) {
+            return null;
+        }
+
+        // Only our nodes sign grants: an epoch slightly ahead is clock skew
+        if (Instant.now().getEpochSecond() - grant.epoch() >= SESSION_TTL_SECONDS) {
+            return null;
+        }
+
+        // A newer grant than the cached generation means the cache is stale.
+        // Read outside the cache's loader: a loader runs under a map-bin
+        // monitor, which would pin a virtual thread for the Redis round trip.
+        Long cached = generations.getIfPresent(userId);
+        long generation;
+        if (cached != null) {
+            generation = cached;
+        } else {
+            generation = readGeneration(userId);
+            generations.put(userId, generation);
+        }
+        if (grant.generation() < generation) {
+            return null;
+        }
+        if (grant.generation() > generation) {
+            generations.invalidate(userId);
+        }
+
+        return derive(prk, userId, deviceId, grant);
+    }
+
+    // Revokes every session of the user issued so far; other nodes notice
+    // within generation-cache-ms
+    public long revoke(String userId) {
+        RedisKey key = keyCodec.sessionGeneration(userId);
+        List<byte[]> keys = key.hasAlias()
+                ? List.of(key.raw(), key.alias())
+                : List.of(key.raw());
+
+        Long generation = binaryRedisTemplate.execute(BUMP_GENERATION, keys);
+        generations.put(userId, generation);
+        return generation;
+    }
+
+    private long readGeneration(String userId) {
+        RedisKey key = keyCodec.sessionGeneration(userId);
+        List<Object> values = binaryRedisTemplate.executePipelined(
+                (RedisCallback<Object>) connection -> {
+                    connection.stringCommands().get(key.raw());
+                    if (key.hasAlias()) {
+                        connection.stringCommands().get(key.alias());
+                    }
+                    return null;
+                },
+                null
+        );
+
+        long generation = 0;
+        for (Object value : values) {
+            if (value != null) {
+                generation = Math.max(generation, Long.parseLong(
+                        new String((byte[]) value, StandardCharsets.US_ASCII)));
+            }
+        }
+        return generation;
+    }
+
+    // HKDF-Expand, one 32-byte block: HMAC(PRK, info | 0x01)
+    private String derive(
+            SecretKeySpec prk,
+            String userId,
+            String deviceId,
+            SessionGrant grant
+    ) {
+        byte[] user = userId.getBytes(StandardCharsets.UTF_8);
+        byte[] device = deviceId.getBytes(StandardCharsets.UTF_8);
+
+        // Length-prefixed fields: no two (user, device) pairs share an info
+        ByteBuffer info = ByteBuffer.allocate(4 + user.length + 4 + device.length + 8 + 8 + 1)
+                .putInt(user.length).put(user)
+                .putInt(device.length).put(device)
+                .putLong(grant.epoch())
+                .putLong(grant.generation())
+                .put((byte) 0x01);
+
+        Mac mac = macs.acquire();
+        try {
+            mac.init(prk);
+            return CanonicalPayload.hex(mac.doFinal(info.array()));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Session key derivation failed", e);
+        } finally {
+            macs.release(mac);
+        }
+    }
+
+    // HKDF-Extract: PRK = HMAC(salt, master secret)
+    private static SecretKeySpec extract(String secret) {
+        try {
+            Mac mac = newMac();
+            mac.init(new SecretKeySpec(SALT, ALGORITHM));
+            byte[] prk = mac.doFinal(secret.getBytes(StandardCharsets.UTF_8));
+            return new SecretKeySpec(prk, ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Session key derivation failed", e);
+        }
+    }
+
+    private static Mac newMac() {
+        try {
+            return Mac.getInstance(ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.gp.poc.noncepoc.service;
+
+// Short-lived ownership of an idempotency key. The fencing token grows on
+// every acquisition of the key, so a stale owner can never overwrite the
+// result of the owner that took over its expired lease.
+public record IdempotencyLease(
+        RedisKey key,
+        String ownerId,
+        long fencingToken
+) {
+
+    static final String PREFIX = "LEASE:";
+
+    // Stored as the key's value while the request is in flight
+    String value() {
+        return PREFIX + ownerId + ":" + fencingToken;
+    }
+}
@@ -1,37 +1,464 @@
 package com.gp.poc.noncepoc.service;
 
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 @Service
-@RequiredArgsConstructor
+@Slf4j
 public class IdempotencyService {
 
-    private final RedisTemplate<String, String> redisTemplate;
+    private final RedisTemplate<byte[], byte[]> binaryRedisTemplate;
+    private final IdempotencyWaiters waiters;
+    private final RedisKeyCodec keyCodec;
+    private final int compressionThreshold;
+    private final long leaseTtlMillis;
 
     private static final Duration TTL = Duration.ofHours(24);
-    private static final String IN_PROGRESS = "IN_PROGRESS";
 
-    public boolean tryAcquire(String key) {
-        Boolean success = redisTemplate.opsForValue()
-                .setIfAbsent(key, IN_PROGRESS, TTL);
-        return Boolean.TRUE.equals(success);
+    // Pre-lease marker (24h TTL); still honoured for keys written by old nodes
+    private static final byte[] IN_PROGRESS =
+            "IN_PROGRESS".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LEASE_PREFIX =
+            IdempotencyLease.PREFIX.getBytes(StandardCharsets.US_ASCII);
+
+    // KEYS[3] (optional) is the legacy alias of KEYS[1] while migrating:
+    // it must be free too, and mirrors the lease and the result
+
+    // KEYS[1] = key, KEYS[2] = fence; ARGV = owner, lease ttl ms, fence ttl ms
+    // -> 0 if taken, else the new fencing token (> 1: stale lease taken over)
+    private static final RedisScript<Long> ACQUIRE = RedisScript.of("""
+            if redis.call('EXISTS', KEYS[1]) == 1 then return 0 end
+            if KEYS[3] and redis.call('EXISTS', KEYS[3]) == 1 then return 0 end
+            local token = redis.call('INCR', KEYS[2])
+            redis.call('PEXPIRE', KEYS[2], ARGV[3])
+            local lease = 'LEASE:' .. ARGV[1] .. ':' .. token
+            redis.call('SET', KEYS[1], lease, 'PX', ARGV[2])
+            if KEYS[3] then redis.call('SET', KEYS[3], lease, 'PX', ARGV[2]) end
+            return token
+            """, Long.class);
+
+    // KEYS[1] = key, KEYS[2] = alias (optional); ARGV = lease value, lease ttl ms
+    private static final String RENEW = """
+            if redis.call('GET', KEYS[1]) ~= ARGV[1] then return 0 end
+            for i = 1, #KEYS do redis.call('PEXPIRE', KEYS[i], ARGV[2]) end
+            return 1
+            """;
+
+    // KEYS[1] = key, KEYS[2] = fence; ARGV = lease value, result, ttl ms
+    private static final RedisScript<Long> COMPLETE = RedisScript.of("""
+            if redis.call('GET', KEYS[1]) ~= ARGV[1] then return 0 end
+            redis.call('SET', KEYS[1], ARGV[2], 'PX', ARGV[3])
+            if KEYS[3] then redis.call('SET', KEYS[3], ARGV[2], 'PX', ARGV[3]) end
+            redis.call('DEL', KEYS[2])
+            return 1
+            """, Long.class);
+
+    // KEYS[1] = key, KEYS[2] = fence; ARGV = lease value
+    private static final RedisScript<Long> RELEASE = RedisScript.of("""
+            if redis.call('GET', KEYS[1]) ~= ARGV[1] then return 0 end
+            redis.call('DEL', unpack(KEYS))
+            return 1
+            """, Long.class);
+
+    private final String ownerId = UUID.randomUUID().toString();
+
+    // Leases held by in-flight requests on this node, renewed by the heartbeat
+    private final Set<IdempotencyLease> activeLeases = ConcurrentHashMap.newKeySet();
+
+    private final ScheduledExecutorService heartbeat =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "idempotency-lease-heartbeat");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final Counter takeovers;
+    private final Counter fencedWrites;
+
+    public IdempotencyService(
+            RedisTemplate<byte[], byte[]> binaryRedisTemplate,
+            IdempotencyWaiters waiters,
+            RedisKeyCodec keyCodec,
+            MeterRegistry meterRegistry,
+            @Value("${security.idempotency.compression-threshold-bytes:512}")
+            int compressionThreshold,
+            @Value("${security.idempotency.lease-ttl-ms:10000}")
+            long leaseTtlMillis
+    ) {
+        this.binaryRedisTemplate = binaryRedisTemplate;
+        this.waiters = waiters;
+        this.keyCodec = keyCodec;
+        this.compressionThreshold = compressionThreshold;
+        this.leaseTtlMillis = leaseTtlMillis;
+
+        this.takeovers = Counter.builder("idempotency.lease.takeovers")
+                .description("Expired leases of crashed/stalled owners taken over")
+                .register(meterRegistry);
+        this.fencedWrites = Counter.builder("idempotency.lease.fenced")
+                .description("Results rejected because the lease was lost")
+                .register(meterRegistry);
+    }
+
+    // Not from the constructor: the heartbeat thread must not see a
+    // half-built service
+    @PostConstruct
+    public void start() {
+        long period = Math.max(leaseTtlMillis / 3, 1);
+        heartbeat.scheduleAtFixedRate(
+                this::renewActiveLeases, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        heartbeat.shutdownNow();
+    }
+
+    // null when another request holds the key (or it is already done)
+    public IdempotencyLease tryAcquire(RedisKey key) {
+        Long token = binaryRedisTemplate.execute(
+                ACQUIRE,
+                scriptKeys(key),
+                bytes(ownerId),
+                bytes(Long.toString(leaseTtlMillis)),
+                bytes(Long.toString(TTL.toMillis()))
+        );
+
+        if (token == null || token == 0) {
+            return null;
+        }
+        if (token > 1) {
+            log.warn("Took over stale idempotency lease: {} (token {})", key, token);
+            takeovers.increment();
+        }
+
+        IdempotencyLease lease = new IdempotencyLease(key, ownerId, token);
+        activeLeases.add(lease);
+        return lease;
     }
 
-    public void storeResult(String key, String jsonResponse) {
-        redisTemplate.opsForValue().set(key, jsonResponse, TTL);
+    // Converts the lease into the final result; false if the lease was lost
+    // (expired and taken over), in which case nothing is written
+    public boolean storeResult(IdempotencyLease lease, StoredResponse response) {
+        activeLeases.remove(lease);
+
+        byte[] encoded = response.encode(compressionThreshold);
+        Long stored = binaryRedisTemplate.execute(
+                COMPLETE,
+                scriptKeys(lease.key()),
+                bytes(lease.value()),
+                encoded,
+                bytes(Long.toString(TTL.toMillis()))
+        );
+
+        if (stored == null || stored == 0) {
+            log.warn("Idempotency lease lost before completion: {}", lease.key());
+            fencedWrites.increment();
+            return false;
+        }
+
+        // Wake duplicates parked on this node now, and on other nodes via Redis
+        waiters.complete(lease.key(), Optional.of(response));
+        announce(lease.key());
+        return true;
     }
 
-    public Optional<String> getResult(String key) {
-        String value = redisTemplate.opsForValue().get(key);
+    // Gives the key back after a failed request so a retry can run it
+    public void release(IdempotencyLease lease) {
+        activeLeases.remove(lease);
+
+        binaryRedisTemplate.execute(
+                RELEASE,
+                scriptKeys(lease.key()),
+                bytes(lease.value())
+        );
 
-        if (value == null || IN_PROGRESS.equals(value)) {
+        waiters.complete(lease.key(), Optional.empty());
+        announce(lease.key());
+    }
+
+    // Tells waiters on other nodes the key is done (they read the result);
+    // nothing to tell when waiting is off
+    private void announce(RedisKey key) {
+        if (waiters.enabled()) {
+            binaryRedisTemplate.convertAndSend(
+                    IdempotencyWaiters.COMPLETION_CHANNEL,
+                    IdempotencyWaiters.completionMessage(key)
+            );
+        }
+    }
+
+    public Optional<StoredResponse> getResult(RedisKey key) {
+        if (!key.hasAlias()) {
+            return toResult(binaryRedisTemplate.opsForValue().get(key.raw()));
+        }
+
+        List<byte[]> values = binaryRedisTemplate.opsForValue()
+                .multiGet(List.of(key.raw(), key.alias()));
+        return toResult(values.get(0) != null ? values.get(0) : values.get(1));
+    }
+
+    // Interprets a raw value read elsewhere (e.g. a pipelined lookup)
+    public Optional<StoredResponse> toResult(byte[] value) {
+        if (value == null || isInProgress(value)) {
             return Optional.empty();
         }
-        return Optional.of(value);
+        if (StoredResponse.isEncoded(value)) {
+            return Optional.of(StoredResponse.decode(value));
+        }
+
+        // Plain JSON body written before responses were captured in full
+        return Optional.of(new StoredResponse(
+                200,
+                Map.of("Content-Type", "application/json"),
+                value
+        ));
+    }
+
+    // ---------------------------
+    // Batches (/api/payments/execute-batch): one round trip per step
+    // for all items instead of one per item
+    // ---------------------------
+
+    // Raw values of many keys (legacy aliases too while migrating) in ONE
+    // MGET, in key order; interpret each with toResult
+    public List<byte[]> getValues(List<RedisKey> keys) {
+        List<byte[]> names = new ArrayList<>(keys.size());
+        for (RedisKey key : keys) {
+            names.add(key.raw());
+        }
+        for (RedisKey key : keys) {
+            if (key.hasAlias()) {
+                names.add(key.alias());
+            }
+        }
+
+        List<byte[]> values = binaryRedisTemplate.opsForValue().multiGet(names);
+        if (values.size() == keys.size()) {
+            return values;
+        }
+
+        List<byte[]> merged = new ArrayList<>(keys.size());
+        int alias = keys.size();
+        for (int i = 0; i < keys.size(); i++) {
+            byte[] value = values.get(i);
+            if (keys.get(i).hasAlias()) {
+                byte[] legacy = values.get(alias++);
+                value = value != null ? value : legacy;
+            }
+            merged.add(value);
+        }
+        return merged;
+    }
+
+    // tryAcquire for every key in ONE pipeline (the same fenced script per
+    // key, not a bare SET NX); null where the key is taken
+    public List<IdempotencyLease> tryAcquireAll(List<RedisKey> keys) {
+        byte[] script = bytes(ACQUIRE.getScriptAsString());
+        byte[][] args = {
+                bytes(ownerId),
+                bytes(Long.toString(leaseTtlMillis)),
+                bytes(Long.toString(TTL.toMillis()))
+        };
+
+        List<Object> tokens = binaryRedisTemplate.executePipelined(
+                (RedisCallback<Object>) connection -> {
+                    for (RedisKey key : keys) {
+                        eval(connection, script, scriptKeys(key), args);
+                    }
+                    return null;
+                });
+
+        List<IdempotencyLease> leases = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            Long token = (Long) tokens.get(i);
+            if (token == null || token == 0) {
+                leases.add(null);
+                continue;
+            }
+            if (token > 1) {
+                log.warn("Took over stale idempotency lease: {} (token {})", keys.get(i), token);
+                takeovers.increment();
+            }
+            IdempotencyLease lease = new IdempotencyLease(keys.get(i), ownerId, token);
+            activeLeases.add(lease);
+            leases.add(lease);
+        }
+        return leases;
+    }
+
+    // storeResult for every lease: ONE pipeline of fenced writes, then one
+    // of completion broadcasts (if waiting is on). false where the lease was
+    // lost.
+    public boolean[] storeResults(List<IdempotencyLease> leases, List<StoredResponse> responses) {
+        leases.forEach(activeLeases::remove);
+
+        byte[] script = bytes(COMPLETE.getScriptAsString());
+        byte[] ttl = bytes(Long.toString(TTL.toMillis()));
+        List<byte[]> encoded = new ArrayList<>(responses.size());
+        for (StoredResponse response : responses) {
+            encoded.add(response.encode(compressionThreshold));
+        }
+
+        List<Object> written = binaryRedisTemplate.executePipelined(
+                (RedisCallback<Object>) connection -> {
+                    for (int i = 0; i < leases.size(); i++) {
+                        IdempotencyLease lease = leases.get(i);
+                        eval(connection, script, scriptKeys(lease.key()),
+                                bytes(lease.value()), encoded.get(i), ttl);
+                    }
+                    return null;
+                });
+
+        boolean[] stored = new boolean[leases.size()];
+        for (int i = 0; i < leases.size(); i++) {
+            stored[i] = Long.valueOf(1).equals(written.get(i));
+            if (stored[i]) {
+                waiters.complete(leases.get(i).key(), Optional.of(responses.get(i)));
+            } else {
+                log.warn("Idempotency lease lost before completion: {}", leases.get(i).key());
+                fencedWrites.increment();
+            }
+        }
+
+        if (waiters.enabled()) {
+            binaryRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (int i = 0; i < leases.size(); i++) {
+                    if (stored[i]) {
+                        connection.publish(
+                                COMPLETION_CHANNEL,
+                                IdempotencyWaiters.completionMessage(leases.get(i).key()));
+                    }
+                }
+                return null;
+            });
+        }
+        return stored;
+    }
+
+    // release for every lease, releases and broadcasts in ONE pipeline
+    public void releaseAll(List<IdempotencyLease> leases) {
+        leases.forEach(activeLeases::remove);
+
+        byte[] script = bytes(RELEASE.getScriptAsString());
+        boolean announce = waiters.enabled();
+        binaryRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (IdempotencyLease lease : leases) {
+                eval(connection, script, scriptKeys(lease.key()), bytes(lease.value()));
+                if (announce) {
+                    connection.publish(
+                            COMPLETION_CHANNEL,
+                            IdempotencyWaiters.completionMessage(lease.key()));
+                }
+            }
+            return null;
+        });
+
+        for (IdempotencyLease lease : leases) {
+            waiters.complete(lease.key(), Optional.empty());
+        }
+    }
+
+    private static final byte[] COMPLETION_CHANNEL =
+            bytes(IdempotencyWaiters.COMPLETION_CHANNEL);
+
+    private static void eval(
+            RedisConnection connection,
+            byte[] script,
+            List<byte[]> keys,
+            byte[]... args
+    ) {
+        byte[][] keysAndArgs = new byte[keys.size() + args.length][];
+        for (int i = 0; i < keys.size(); i++) {
+            keysAndArgs[i] = keys.get(i);
+        }
+        System.arraycopy(args, 0, keysAndArgs, keys.size(), args.length);
+
+        connection.scriptingCommands().eval(
+                script, ReturnType.INTEGER, keys.size(), keysAndArgs);
+    }
+
+    // One pipelined round trip renews every lease held on this node
+    void renewActiveLeases() {
+        if (activeLeases.isEmpty()) {
+            return;
+        }
+
+        List<IdempotencyLease> leases = List.copyOf(activeLeases);
+        byte[] script = bytes(RENEW);
+        byte[] ttl = bytes(Long.toString(leaseTtlMillis));
+
+        try {
+            List<Object> renewed = binaryRedisTemplate.executePipelined(
+                    (RedisCallback<Object>) connection -> {
+                        for (IdempotencyLease lease : leases) {
+                            RedisKey key = lease.key();
+                            byte[] value = bytes(lease.value());
+                            if (key.hasAlias()) {
+                                connection.scriptingCommands().eval(
+                                        script, ReturnType.INTEGER, 2,
+                                        key.raw(), key.alias(), value, ttl);
+                            } else {
+                                connection.scriptingCommands().eval(
+                                        script, ReturnType.INTEGER, 1,
+                                        key.raw(), value, ttl);
+                            }
+                        }
+                        return null;
+                    });
+
+            for (int i = 0; i < leases.size(); i++) {
+                if (Long.valueOf(0).equals(renewed.get(i))) {
+                    log.warn("Idempotency lease expired before renewal: {}",
+                            leases.get(i).key());
+                    activeLeases.remove(leases.get(i));
+                }
+            }
+
+        } catch (Exception e) {
+            log.warn("Idempotency lease heartbeat failed", e);
+        }
+    }
+
+    // key, fence[, legacy alias]
+    private List<byte[]> scriptKeys(RedisKey key) {
+        byte[] fence = keyCodec.fence(key);
+        return key.hasAlias()
+                ? List.of(key.raw(), fence, key.alias())
+                : List.of(key.raw(), fence);
+    }
+
+    private static boolean isInProgress(byte[] value) {
+        return Arrays.equals(IN_PROGRESS, value)
+                || value.length > LEASE_PREFIX.length
+                && Arrays.equals(value, 0, LEASE_PREFIX.length,
+                        LEASE_PREFIX, 0, LEASE_PREFIX.length);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
     }
-}
\ No newline at end of file
+}
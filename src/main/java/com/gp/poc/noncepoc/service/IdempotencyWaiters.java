@@ -0,0 +1,102 @@
+package com.gp.poc.noncepoc.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Single-flight for duplicate idempotent requests: every waiter for the same
+// key on this node shares one future. It is completed locally, with the
+// result, when the owner runs here, or by the completion broadcast when the
+// owner is another node. The broadcast only names the key: the waiters read
+// the result from Redis, so no response body is fanned out to every node.
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class IdempotencyWaiters implements MessageListener {
+
+    public static final String COMPLETION_CHANNEL = "idempotency:done";
+
+    private static final byte SEPARATOR = '\n';
+
+    private final RedisKeyCodec keyCodec;
+
+    private final ConcurrentHashMap<RedisKey, CompletableFuture<Optional<StoredResponse>>>
+            waiting = new ConcurrentHashMap<>();
+
+    @Value("${security.idempotency.wait-for-result.timeout-ms:5000}")
+    private long timeoutMs;
+
+    // Off: nobody waits, so owners broadcast nothing (see IdempotencyService)
+    @Value("${security.idempotency.wait-for-result.enabled:false}")
+    private boolean enabled;
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    // Completes with the stored result if the owner ran on this node, empty
+    // once an owner elsewhere finished or gave up (the result, if any, is in
+    // Redis), or exceptionally (TimeoutException) after timeout-ms
+    public CompletableFuture<Optional<StoredResponse>> await(RedisKey key) {
+        return waiting.computeIfAbsent(key, k -> {
+            CompletableFuture<Optional<StoredResponse>> future = new CompletableFuture<>();
+            future.orTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                    .whenComplete((result, error) -> waiting.remove(k, future));
+            return future;
+        });
+    }
+
+    public void complete(RedisKey key, Optional<StoredResponse> result) {
+        CompletableFuture<Optional<StoredResponse>> future = waiting.remove(key);
+        if (future != null) {
+            future.complete(result);
+        }
+    }
+
+    // Just the key
+    public static byte[] completionMessage(RedisKey key) {
+        return key.broadcastForm();
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        byte[] body = message.getBody();
+
+        int separator = compactKeyLength(body);
+        while (separator < body.length && body[separator] != SEPARATOR) {
+            separator++;
+        }
+
+        RedisKey key = keyCodec.fromPeer(Arrays.copyOf(body, separator));
+        if (!waiting.containsKey(key)) {
+            return;
+        }
+
+        // key \n encoded StoredResponse from nodes that still send the
+        // result along (legacy-layout keys never contain a newline; compact
+        // keys may, but have a fixed width)
+        log.debug("Idempotent result broadcast for waiting key: {}", key);
+        Optional<StoredResponse> result = separator < body.length
+                ? Optional.of(StoredResponse.decode(
+                        body, separator + 1, body.length - separator - 1))
+                : Optional.empty();
+        complete(key, result);
+    }
+
+    // Compact keys start with their type byte, legacy ones with a letter
+    private static int compactKeyLength(byte[] body) {
+        int length = 1 + RedisKeyCodec.HASH_BYTES;
+        return body.length >= length && RedisKeyCodec.isTypeByte(body[0])
+                ? length
+                : 0;
+    }
+}
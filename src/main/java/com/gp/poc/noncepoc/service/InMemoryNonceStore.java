@@ -0,0 +1,307 @@
+package com.gp.poc.noncepoc.service;
+
+import com.gp.poc.noncepoc.exception.SecurityViolations;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+// security.nonce.store=memory: nonces are remembered by THIS node only, so
+// it suits single-node deployments and tests, not a cluster.
+//
+// A nonce is kept as its 128-bit compact key hash (two longs, no String or
+// RedisKey per entry) in one of `shards` open-addressing tables, each with
+// its own lock. Tables are allocated up front for max-entries, so memory
+// is bounded; a full store refuses the claim (503 NONCE_STORE_FULL) rather
+// than forget nonces.
+//
+// Expiry is a hashed timing wheel per shard: one slot per second, holding
+// the keys claimed during that second. Once a second is retention (ttl +
+// allowed drift) old its slot is dropped as a whole, without scanning the
+// live entries.
+@Service
+@ConditionalOnProperty(name = "security.nonce.store", havingValue = "memory")
+public class InMemoryNonceStore implements NonceStore {
+
+    private static final VarHandle LONGS =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private final RedisKeyCodec keyCodec;
+    private final long retentionSeconds;
+    private final LongSupplier clock;
+    private final Shard[] shards;
+
+    @Autowired
+    public InMemoryNonceStore(
+            @Value("${security.redis.keys.hash-secret}") String hashSecret,
+            @Value("${security.nonce.storage:KEYS}") RedisNonceService.Storage storage,
+            @Value("${security.nonce.ttl-seconds:300}") long ttlSeconds,
+            @Value("${security.nonce.allowed-time-drift-seconds:300}") long allowedDriftSeconds,
+            @Value("${security.nonce.memory.max-entries:1000000}") int maxEntries,
+            @Value("${security.nonce.memory.shards:64}") int shards
+    ) {
+        this(hashSecret, storage, ttlSeconds, allowedDriftSeconds, maxEntries, shards,
+                () -> TimeUnit.NANOSECONDS.toSeconds(System.nanoTime()));
+    }
+
+    // clock: monotonic seconds
+    InMemoryNonceStore(
+            String hashSecret,
+            RedisNonceService.Storage storage,
+            long ttlSeconds,
+            long allowedDriftSeconds,
+            int maxEntries,
+            int shards,
+            LongSupplier clock
+    ) {
+        if (storage == RedisNonceService.Storage.COUNTER_WINDOW) {
+            throw new IllegalArgumentException(
+                    "security.nonce.store=memory does not support COUNTER_WINDOW storage");
+        }
+        if (shards <= 0 || Integer.bitCount(shards) != 1) {
+            throw new IllegalArgumentException(
+                    "security.nonce.memory.shards must be a power of two");
+        }
+
+        // Compact keys whatever security.redis.keys.mode says: they are
+        // never written to Redis, only hashed into two longs
+        this.keyCodec = new RedisKeyCodec(RedisKeyCodec.Mode.COMPACT, hashSecret);
+        // Same retention as RedisNonceService: a request dated drift ahead
+        // is accepted for 2 x drift after its claim
+        this.retentionSeconds = Math.max(ttlSeconds, allowedDriftSeconds) + allowedDriftSeconds;
+        this.clock = clock;
+        this.shards = new Shard[shards];
+
+        // Keys never spread perfectly evenly: 1/8 slack per shard
+        int perShard = (maxEntries + shards - 1) / shards;
+        perShard += perShard / 8 + 16;
+        long now = clock.getAsLong();
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new Shard(perShard, retentionSeconds, now);
+        }
+    }
+
+    @Override
+    public boolean countersEnabled() {
+        return false;
+    }
+
+    // BUCKETS only changes the Redis layout: memory slots are always one
+    // entry per nonce
+    @Override
+    public NonceSlot slot(
+            String userId,
+            String deviceId,
+            String method,
+            String uri,
+            String nonce
+    ) {
+        return new NonceSlot(keyCodec.nonce(userId, method, uri, nonce), null, null, 0, 0);
+    }
+
+    @Override
+    public boolean seen(NonceSlot slot) {
+        byte[] raw = slot.key().raw();
+        long hi = hi(raw);
+        long lo = lo(raw);
+        Shard shard = shard(hi);
+        shard.lock.lock();
+        try {
+            shard.advance(clock.getAsLong());
+            return shard.contains(hi, lo);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean claimNonce(NonceSlot slot) {
+        byte[] raw = slot.key().raw();
+        long hi = hi(raw);
+        long lo = lo(raw);
+        Shard shard = shard(hi);
+        shard.lock.lock();
+        try {
+            long now = clock.getAsLong();
+            shard.advance(now);
+            return shard.add(hi, lo, now);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    // Live entries across all shards (takes every lock; for tests/metrics)
+    public int size() {
+        int size = 0;
+        long now = clock.getAsLong();
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                shard.advance(now);
+                size += shard.size;
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    private Shard shard(long hi) {
+        return shards[(int) hi & (shards.length - 1)];
+    }
+
+    private static long hi(byte[] raw) {
+        return (long) LONGS.get(raw, 1);
+    }
+
+    // (0, 0) marks an empty table slot, so lo is never 0
+    private static long lo(byte[] raw) {
+        long lo = (long) LONGS.get(raw, 9);
+        return lo != 0 ? lo : 1;
+    }
+
+    // Linear-probing table of (hi, lo) pairs plus the wheel that expires
+    // them. Guarded by its own lock (a j.u.c. lock: a virtual thread
+    // waiting for it frees its carrier, unlike a contended monitor on 21).
+    private static final class Shard {
+
+        final ReentrantLock lock = new ReentrantLock();
+
+        private static final int INITIAL_WHEEL_SLOT = 16;
+
+        private final long[] table;
+        private final int mask;
+        private final int capacity;
+        private int size;
+
+        private final long retentionSeconds;
+        private final long[][] wheel;
+        private final int[] wheelSizes;
+        private long expiredThrough;
+
+        Shard(int capacity, long retentionSeconds, long now) {
+            // At most half full: probe sequences stay short
+            int slots = Integer.highestOneBit(Math.max(2, capacity * 2 - 1)) << 1;
+            this.table = new long[slots * 2];
+            this.mask = slots - 1;
+            this.capacity = capacity;
+
+            // retention + 1 seconds live at once (the current one is
+            // partial), plus the one being dropped
+            int wheelSlots = Integer.highestOneBit((int) retentionSeconds + 1) << 1;
+            this.retentionSeconds = retentionSeconds;
+            this.wheel = new long[wheelSlots][INITIAL_WHEEL_SLOT];
+            this.wheelSizes = new int[wheelSlots];
+            this.expiredThrough = now - retentionSeconds - 1;
+        }
+
+        // Drops every second that is now more than retention old. After a long
+        // idle spell each wheel slot is visited once at most.
+        void advance(long now) {
+            long deadline = now - retentionSeconds - 1;
+            if (deadline <= expiredThrough) {
+                return;
+            }
+            long from = Math.max(expiredThrough + 1, deadline - wheel.length + 1);
+            for (long second = from; second <= deadline; second++) {
+                drop((int) second & (wheel.length - 1));
+            }
+            expiredThrough = deadline;
+        }
+
+        boolean contains(long hi, long lo) {
+            return find(hi, lo) >= 0;
+        }
+
+        boolean add(long hi, long lo, long now) {
+            int i = (int) lo & mask;
+            while (table[2 * i] != 0 || table[2 * i + 1] != 0) {
+                if (table[2 * i] == hi && table[2 * i + 1] == lo) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            if (size == capacity) {
+                throw SecurityViolations.NONCE_STORE_FULL;
+            }
+
+            table[2 * i] = hi;
+            table[2 * i + 1] = lo;
+            size++;
+            schedule(hi, lo, (int) now & (wheel.length - 1));
+            return true;
+        }
+
+        private int find(long hi, long lo) {
+            int i = (int) lo & mask;
+            while (table[2 * i] != 0 || table[2 * i + 1] != 0) {
+                if (table[2 * i] == hi && table[2 * i + 1] == lo) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void schedule(long hi, long lo, int at) {
+            int n = wheelSizes[at];
+            if (n == wheel[at].length) {
+                wheel[at] = Arrays.copyOf(wheel[at], n * 2);
+            }
+            wheel[at][n] = hi;
+            wheel[at][n + 1] = lo;
+            wheelSizes[at] = n + 2;
+        }
+
+        private void drop(int at) {
+            long[] keys = wheel[at];
+            int n = wheelSizes[at];
+            for (int k = 0; k < n; k += 2) {
+                remove(keys[k], keys[k + 1]);
+            }
+            wheelSizes[at] = 0;
+
+            // Give back what a burst grew, so idle wheel slots stay small
+            if (keys.length > INITIAL_WHEEL_SLOT && n < keys.length / 4) {
+                wheel[at] = new long[Math.max(INITIAL_WHEEL_SLOT, keys.length / 2)];
+            }
+        }
+
+        // Backward-shift deletion: no tombstones, probes stay short
+        private void remove(long hi, long lo) {
+            int hole = find(hi, lo);
+            if (hole < 0) {
+                return;
+            }
+
+            int j = hole;
+            while (true) {
+                j = (j + 1) & mask;
+                long h = table[2 * j];
+                long l = table[2 * j + 1];
+                if (h == 0 && l == 0) {
+                    break;
+                }
+                // Move j into the hole unless its home lies in (hole, j]
+                int home = (int) l & mask;
+                if (((j - home) & mask) >= ((j - hole) & mask)) {
+                    table[2 * hole] = h;
+                    table[2 * hole + 1] = l;
+                    hole = j;
+                }
+            }
+
+            table[2 * hole] = 0;
+            table[2 * hole + 1] = 0;
+            size--;
+        }
+    }
+}
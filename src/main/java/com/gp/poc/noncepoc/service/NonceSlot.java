@@ -0,0 +1,23 @@
+package com.gp.poc.noncepoc.service;
+
+// Where one nonce is recorded, built by the NonceStore.
+// KEYS (and InMemoryNonceStore): its own key. BUCKETS: a member (the same key bytes) of the user's
+// current bucket set; the previous bucket is checked too, and the set
+// expires at expireAt (epoch seconds). COUNTER_WINDOW: bit `counter` of
+// the device's anti-replay window stored under key.
+public record NonceSlot(
+        RedisKey key,
+        RedisKey bucket,
+        RedisKey previousBucket,
+        long expireAt,
+        long counter
+) {
+
+    public boolean bucketed() {
+        return bucket != null;
+    }
+
+    public boolean windowed() {
+        return counter > 0;
+    }
+}
@@ -0,0 +1,71 @@
+package com.gp.poc.noncepoc.service;
+
+import java.util.concurrent.CompletableFuture;
+
+// Records the nonces NonceSecurityFilter has accepted.
+// RedisNonceService (security.nonce.store=redis, the default) shares them
+// across nodes; InMemoryNonceStore (memory) keeps them in this JVM only,
+// for single-node deployments and tests.
+public interface NonceStore {
+
+    // Largest counter Lua numbers (doubles) hold exactly
+    long MAX_COUNTER = (1L << 53) - 1;
+
+    // X-Nonce must be a per-device counter (see isCounter)
+    boolean countersEnabled();
+
+    NonceSlot slot(
+            String userId,
+            String deviceId,
+            String method,
+            String uri,
+            String nonce
+    );
+
+    // Read-only early-reject check; claimNonce still decides
+    boolean seen(NonceSlot slot);
+
+    // Atomic check-and-store: only one of several concurrent copies of the
+    // same request can win the claim
+    boolean claimNonce(NonceSlot slot);
+
+    // claimNonce without blocking the caller on I/O (security.redis.async);
+    // a store that never waits on I/O just claims in place
+    default CompletableFuture<Boolean> claimNonceAsync(NonceSlot slot) {
+        return CompletableFuture.completedFuture(claimNonce(slot));
+    }
+
+    // Longest X-Nonce accepted (a UUID is 36)
+    int MAX_NONCE_LENGTH = 128;
+
+    // Any nonce: 1..MAX_NONCE_LENGTH visible ASCII characters. Checked
+    // before any lookup, so junk never reaches a store.
+    static boolean isWellFormed(String nonce) {
+        int n = nonce.length();
+        if (n == 0 || n > MAX_NONCE_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < n; i++) {
+            char c = nonce.charAt(i);
+            if (c <= ' ' || c > '~') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Counter nonces: 1..MAX_COUNTER in plain decimal
+    static boolean isCounter(String nonce) {
+        int n = nonce.length();
+        if (n == 0 || n > 16 || nonce.charAt(0) == '0') {
+            return false;
+        }
+        for (int i = 0; i < n; i++) {
+            char c = nonce.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return Long.parseLong(nonce) <= MAX_COUNTER;
+    }
+}
@@ -0,0 +1,159 @@
+package com.gp.poc.noncepoc.service;
+
+import com.gp.poc.noncepoc.dto.PaymentBatchRequest;
+import com.gp.poc.noncepoc.dto.PaymentBatchResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+// Many payments under one signed request, each with its own idempotency
+// key. The keys are the ones /api/payments/execute uses, so an item and a
+// single retry of it with the same Idempotency-Key are the same payment.
+// Redis: one MGET for every stored result, one pipeline of lease acquires
+// for the rest, one pipeline to store their results (+ broadcast of the
+// keys when waiting is on).
+@Service
+@RequiredArgsConstructor
+public class PaymentBatchService {
+
+    // Key namespace shared with the single-payment endpoint
+    public static final String ITEM_PATH = "/api/payments/execute";
+
+    private static final String PAYMENT_RESULT = "{\"status\":\"PAYMENT_SUCCESS\"}";
+    private static final String IN_PROGRESS =
+            "{\"code\":\"IDEMPOTENT_REQUEST_IN_PROGRESS\",\"message\":\"Request is already being processed\"}";
+    private static final String LEASE_LOST =
+            "{\"code\":\"IDEMPOTENCY_LEASE_LOST\",\"message\":\"Another request took over this key; retry to get its result\"}";
+
+    private final IdempotencyService idempotencyService;
+    private final RedisKeyCodec keyCodec;
+
+    public PaymentBatchResponse execute(String userId, List<PaymentBatchRequest.Item> items) {
+        int size = items.size();
+
+        List<RedisKey> keys = new ArrayList<>(size);
+        for (PaymentBatchRequest.Item item : items) {
+            keys.add(keyCodec.idempotency(userId, ITEM_PATH, item.getIdempotencyKey()));
+        }
+
+        PaymentBatchResponse.Item[] results = new PaymentBatchResponse.Item[size];
+        int replayed = 0;
+
+        // ---------------------------
+        // Stored results (one MGET)
+        // ---------------------------
+        List<byte[]> values = idempotencyService.getValues(keys);
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            Optional<StoredResponse> stored = idempotencyService.toResult(values.get(i));
+            if (stored.isPresent()) {
+                results[i] = item(items.get(i), stored.get().status(), true,
+                        new String(stored.get().body(), StandardCharsets.UTF_8));
+                replayed++;
+            } else if (values.get(i) == null) {
+                pending.add(i);
+            } else {
+                results[i] = inProgress(items.get(i));
+            }
+        }
+
+        // ---------------------------
+        // Leases for the rest (one pipeline)
+        // ---------------------------
+        List<RedisKey> pendingKeys = new ArrayList<>(pending.size());
+        for (int i : pending) {
+            pendingKeys.add(keys.get(i));
+        }
+        List<IdempotencyLease> acquired = pendingKeys.isEmpty()
+                ? List.of()
+                : idempotencyService.tryAcquireAll(pendingKeys);
+
+        List<IdempotencyLease> leases = new ArrayList<>(acquired.size());
+        List<Integer> owned = new ArrayList<>(acquired.size());
+        for (int j = 0; j < acquired.size(); j++) {
+            int i = pending.get(j);
+            if (acquired.get(j) == null) {
+                results[i] = inProgress(items.get(i));
+            } else {
+                leases.add(acquired.get(j));
+                owned.add(i);
+            }
+        }
+
+        // ---------------------------
+        // Execute, then store every result (one pipeline)
+        // ---------------------------
+        int executed = 0;
+        int leaseLost = 0;
+        if (!leases.isEmpty()) {
+            List<StoredResponse> responses = new ArrayList<>(leases.size());
+            boolean[] stored = null;
+            try {
+                for (int i : owned) {
+                    responses.add(pay(items.get(i)));
+                }
+                stored = idempotencyService.storeResults(leases, responses);
+            } finally {
+                // Failed: free every key for a retry right away
+                if (stored == null) {
+                    idempotencyService.releaseAll(leases);
+                }
+            }
+
+            for (int j = 0; j < owned.size(); j++) {
+                int i = owned.get(j);
+                if (stored[j]) {
+                    StoredResponse response = responses.get(j);
+                    results[i] = item(items.get(i), response.status(), false,
+                            new String(response.body(), StandardCharsets.UTF_8));
+                    executed++;
+                } else {
+                    // Fenced out: a newer owner's result is the key's
+                    // outcome, not ours
+                    results[i] = item(items.get(i), 409, false, LEASE_LOST);
+                    leaseLost++;
+                }
+            }
+        }
+
+        return PaymentBatchResponse.builder()
+                .executed(executed)
+                .replayed(replayed)
+                .inProgress(size - leases.size() - replayed)
+                .leaseLost(leaseLost)
+                .items(List.of(results))
+                .build();
+    }
+
+    // The business logic of one item: same result as /execute
+    private static StoredResponse pay(PaymentBatchRequest.Item item) {
+        return new StoredResponse(
+                200,
+                Map.of("Content-Type", "application/json"),
+                PAYMENT_RESULT.getBytes(StandardCharsets.UTF_8)
+        );
+    }
+
+    private static PaymentBatchResponse.Item inProgress(PaymentBatchRequest.Item item) {
+        return item(item, 409, false, IN_PROGRESS);
+    }
+
+    private static PaymentBatchResponse.Item item(
+            PaymentBatchRequest.Item item,
+            int status,
+            boolean replayed,
+            String body
+    ) {
+        return PaymentBatchResponse.Item.builder()
+                .idempotencyKey(item.getIdempotencyKey())
+                .status(status)
+                .replayed(replayed)
+                .body(body)
+                .build();
+    }
+}
@@ -0,0 +1,270 @@
+package com.gp.poc.noncepoc.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Token buckets per user+device (API calls) and per client IP (login), in
+// two tiers:
+//
+// local: one lock-free bucket per key on this node (a CAS on one long). It
+//        answers every request without network I/O and caps what a single
+//        node lets through at the configured rate.
+// redis: the cluster-wide bucket (Lua, one hash per key). It is not on the
+//        request path: every sync-interval-ms, what each key let through
+//        locally is charged to its Redis bucket, all keys in ONE pipeline.
+//        A key whose Redis bucket is overdrawn is blocked on this node until
+//        the deficit has refilled, so the cluster as a whole converges on
+//        the limit within one sync interval.
+//
+// Redis failures only disable the cluster tier until the next sync; the
+// local tier keeps limiting.
+@Service
+@Slf4j
+public class RateLimiter {
+
+    // KEYS[1] = bucket; ARGV = tokens taken, rate per second, burst, now ms
+    // -> tokens left (negative: overdrawn by that much)
+    private static final byte[] CONSUME = """
+            local bucket = redis.call('HMGET', KEYS[1], 'tokens', 'ts')
+            local rate, burst, now = tonumber(ARGV[2]), tonumber(ARGV[3]), tonumber(ARGV[4])
+            local tokens = tonumber(bucket[1]) or burst
+            local ts = tonumber(bucket[2]) or now
+            if now > ts then
+              tokens = math.min(burst, tokens + (now - ts) * rate / 1000)
+              ts = now
+            end
+            tokens = tokens - tonumber(ARGV[1])
+            redis.call('HMSET', KEYS[1], 'tokens', tokens, 'ts', ts)
+            redis.call('PEXPIRE', KEYS[1], math.ceil((burst - tokens) * 1000 / rate) + 1000)
+            return math.floor(tokens)
+            """.getBytes(StandardCharsets.US_ASCII);
+
+    private final RedisTemplate<byte[], byte[]> binaryRedisTemplate;
+    private final RedisKeyCodec keyCodec;
+    private final boolean clusterTier;
+    private final long syncIntervalMillis;
+
+    private final Limit deviceLimit;
+    private final Limit loginLimit;
+
+    private final ConcurrentHashMap<String, Bucket> devices = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Bucket> logins = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService sync =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "rate-limit-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    public RateLimiter(
+            RedisTemplate<byte[], byte[]> binaryRedisTemplate,
+            RedisKeyCodec keyCodec,
+            @Value("${security.rate-limit.device.rate-per-second:50}")
+            double deviceRate,
+            @Value("${security.rate-limit.device.burst:100}")
+            int deviceBurst,
+            @Value("${security.rate-limit.login.rate-per-second:5}")
+            double loginRate,
+            @Value("${security.rate-limit.login.burst:20}")
+            int loginBurst,
+            @Value("${security.rate-limit.redis.enabled:true}")
+            boolean clusterTier,
+            @Value("${security.rate-limit.redis.sync-interval-ms:100}")
+            long syncIntervalMillis
+    ) {
+        this.binaryRedisTemplate = binaryRedisTemplate;
+        this.keyCodec = keyCodec;
+        this.clusterTier = clusterTier;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.deviceLimit = new Limit(deviceRate, deviceBurst);
+        this.loginLimit = new Limit(loginRate, loginBurst);
+    }
+
+    // Not from the constructor: the sync thread must not see a half-built
+    // limiter
+    @PostConstruct
+    public void start() {
+        sync.scheduleWithFixedDelay(
+                this::sync, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sync.shutdownNow();
+    }
+
+    // 0 if the request may go on, else nanoseconds until it would
+    public long tryAcquireDevice(String userId, String deviceId) {
+        // Device ids came in a header at login (no line breaks), user ids
+        // are ours
+        String id = userId + '\n' + deviceId;
+        Bucket bucket = devices.get(id);
+        if (bucket == null) {
+            bucket = devices.computeIfAbsent(id,
+                    k -> new Bucket(deviceLimit, keyCodec.rateLimit(userId, deviceId)));
+        }
+        return bucket.tryAcquire(System.nanoTime());
+    }
+
+    public long tryAcquireLogin(String clientIp) {
+        Bucket bucket = logins.get(clientIp);
+        if (bucket == null) {
+            bucket = logins.computeIfAbsent(clientIp,
+                    k -> new Bucket(loginLimit, keyCodec.loginRateLimit(k)));
+        }
+        return bucket.tryAcquire(System.nanoTime());
+    }
+
+    // ---------------------------
+    // Cluster tier (one pipeline per interval)
+    // ---------------------------
+
+    void sync() {
+        long now = System.nanoTime();
+        List<Bucket> charged = new ArrayList<>();
+        List<Long> taken = new ArrayList<>();
+        collect(devices, now, charged, taken);
+        collect(logins, now, charged, taken);
+
+        if (!clusterTier || charged.isEmpty()) {
+            return;
+        }
+
+        byte[] nowMillis = bytes(System.currentTimeMillis());
+        try {
+            List<Object> left = binaryRedisTemplate.executePipelined(
+                    (RedisCallback<Object>) connection -> {
+                        for (int i = 0; i < charged.size(); i++) {
+                            Bucket bucket = charged.get(i);
+                            connection.scriptingCommands().eval(
+                                    CONSUME, ReturnType.INTEGER, 1,
+                                    bucket.key.raw(),
+                                    bytes(taken.get(i)),
+                                    bucket.limit.rate,
+                                    bucket.limit.burst,
+                                    nowMillis);
+                        }
+                        return null;
+                    });
+
+            now = System.nanoTime();
+            for (int i = 0; i < charged.size(); i++) {
+                charged.get(i).overdrawn((Long) left.get(i), now);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Rate limit sync failed, local limits only until the next one: {}",
+                    e.toString());
+        }
+    }
+
+    // Takes what each bucket let through since the last sync, and drops
+    // buckets that have refilled and have nothing left to report
+    private static void collect(
+            ConcurrentHashMap<String, Bucket> buckets,
+            long now,
+            List<Bucket> charged,
+            List<Long> taken
+    ) {
+        buckets.forEach((id, bucket) -> {
+            long count = bucket.admitted.sumThenReset();
+            if (count > 0) {
+                charged.add(bucket);
+                taken.add(count);
+            } else if (bucket.idle(now)) {
+                buckets.remove(id, bucket);
+            }
+        });
+    }
+
+    private static byte[] bytes(long value) {
+        return Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    static final class Limit {
+
+        final long intervalNanos; // one token
+        final long capacityNanos; // burst tokens
+
+        // as script arguments
+        final byte[] rate;
+        final byte[] burst;
+
+        Limit(double ratePerSecond, int burst) {
+            if (ratePerSecond <= 0 || burst < 1) {
+                throw new IllegalArgumentException("Rate limit needs rate > 0 and burst >= 1");
+            }
+            this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+            this.capacityNanos = intervalNanos * burst;
+            this.rate = Double.toString(ratePerSecond).getBytes(StandardCharsets.US_ASCII);
+            this.burst = Integer.toString(burst).getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    // Local tier as a GCRA: one long, the time at which the bucket will be
+    // full again (tat), is the whole state, so acquiring is a single CAS
+    static final class Bucket {
+
+        final Limit limit;
+        final RedisKey key;
+
+        private final AtomicLong tat;
+        final LongAdder admitted = new LongAdder();
+
+        // Set by the cluster tier: the key is over the limit cluster-wide
+        private volatile long blockedUntil;
+
+        Bucket(Limit limit, RedisKey key) {
+            this.limit = limit;
+            this.key = key;
+            this.tat = new AtomicLong(System.nanoTime());
+        }
+
+        long tryAcquire(long now) {
+            long blocked = blockedUntil - now;
+            if (blocked > 0) {
+                return blocked;
+            }
+
+            for (;;) {
+                long current = tat.get();
+                long next = Math.max(current, now) + limit.intervalNanos;
+                long excess = next - now - limit.capacityNanos;
+                if (excess > 0) {
+                    return excess;
+                }
+                if (tat.compareAndSet(current, next)) {
+                    admitted.increment();
+                    return 0;
+                }
+            }
+        }
+
+        // Redis bucket left with `tokens`: block until a deficit has refilled
+        void overdrawn(Long tokens, long now) {
+            if (tokens != null && tokens < 0) {
+                blockedUntil = now - tokens * limit.intervalNanos;
+            }
+        }
+
+        boolean idle(long now) {
+            return tat.get() - now <= 0 && blockedUntil - now <= 0;
+        }
+    }
+}
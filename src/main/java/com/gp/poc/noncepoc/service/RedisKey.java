@@ -0,0 +1,59 @@
+package com.gp.poc.noncepoc.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+// A Redis key as raw bytes, built by RedisKeyCodec. While migrating it also
+// carries the legacy (string layout) alias of the same logical key.
+// Equality is on the raw bytes only, so it can key in-JVM maps.
+public final class RedisKey {
+
+    private final byte[] raw;
+    private final byte[] alias;
+
+    RedisKey(byte[] raw, byte[] alias) {
+        this.raw = raw;
+        this.alias = alias;
+    }
+
+    public byte[] raw() {
+        return raw;
+    }
+
+    // Legacy key to read/write as well, or null
+    public byte[] alias() {
+        return alias;
+    }
+
+    public boolean hasAlias() {
+        return alias != null;
+    }
+
+    // How the key is named in pub/sub messages: the legacy layout while
+    // migrating, so LEGACY peers understand it (see RedisKeyCodec.fromPeer)
+    public byte[] broadcastForm() {
+        return alias != null ? alias : raw;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof RedisKey key && Arrays.equals(raw, key.raw);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(raw);
+    }
+
+    // For logs only: compact keys as hex, legacy keys as text
+    @Override
+    public String toString() {
+        for (byte b : raw) {
+            if (b < 0x20) {
+                return HexFormat.of().formatHex(raw);
+            }
+        }
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,300 @@
+package com.gp.poc.noncepoc.service;
+
+import com.gp.poc.noncepoc.utils.ThreadAwarePool;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+// Builds the Redis keys for nonces, session keys and idempotency entries.
+//
+// LEGACY:  "nonce:{user}:{method}:{uri}:{nonce}" etc. as UTF-8 bytes
+// COMPACT: [type byte][first 16 bytes of HMAC-SHA256(legacy layout)] = 17 bytes,
+//          whatever the length of user id, URI or nonce. The hash is keyed so
+//          clients cannot craft colliding keys.
+// MIGRATE: compact keys carrying their legacy key as alias. Claims and leases
+//          take both and reads fall back to the alias, so nodes in any two
+//          adjacent modes (LEGACY/MIGRATE or MIGRATE/COMPACT) can run together.
+@Component
+public class RedisKeyCodec {
+
+    public enum Mode { LEGACY, MIGRATE, COMPACT }
+
+    static final byte NONCE = 0x01;
+    static final byte SESSION = 0x02;
+    static final byte IDEMPOTENCY = 0x03;
+    static final byte FENCE = 0x04;
+    static final byte NONCE_BUCKET = 0x05;
+    static final byte NONCE_WINDOW = 0x06;
+    static final byte SESSION_GENERATION = 0x07;
+    static final byte RATE_LIMIT = 0x08;
+
+    static final int HASH_BYTES = 16;
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final byte SEPARATOR = ':';
+    private static final byte[] FENCE_SUFFIX =
+            ":fence".getBytes(StandardCharsets.US_ASCII);
+
+    private final Mode mode;
+    private final SecretKeySpec hashKey;
+    private final ThreadAwarePool<Encoder> encoders =
+            new ThreadAwarePool<>(this::newEncoder);
+
+    public RedisKeyCodec(
+            @Value("${security.redis.keys.mode:LEGACY}") Mode mode,
+            @Value("${security.redis.keys.hash-secret}") String hashSecret
+    ) {
+        this.mode = mode;
+        this.hashKey = new SecretKeySpec(
+                hashSecret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    public RedisKey nonce(String userId, String method, String uri, String nonce) {
+        return encoders.acquire()
+                .begin("nonce")
+                .field(userId)
+                .field(method)
+                .field(uri)
+                .field(nonce)
+                .key(NONCE);
+    }
+
+    public RedisKey session(String userId, String deviceId) {
+        return encoders.acquire()
+                .begin("session")
+                .field(userId)
+                .field(deviceId)
+                .key(SESSION);
+    }
+
+    public RedisKey idempotency(String userId, String uri, String idemKey) {
+        return encoders.acquire()
+                .begin("idem")
+                .field(userId)
+                .field(uri)
+                .field(idemKey)
+                .key(IDEMPOTENCY);
+    }
+
+    // Set of a user's nonces seen during one time bucket
+    public RedisKey nonceBucket(String userId, long bucket) {
+        return encoders.acquire()
+                .begin("nonces")
+                .field(userId)
+                .field(bucket)
+                .key(NONCE_BUCKET);
+    }
+
+    // Anti-replay window of a device sending counter nonces
+    public RedisKey nonceWindow(String userId, String deviceId) {
+        return encoders.acquire()
+                .begin("nonce-window")
+                .field(userId)
+                .field(deviceId)
+                .key(NONCE_WINDOW);
+    }
+
+    // Revocation counter of a user's derived session keys
+    public RedisKey sessionGeneration(String userId) {
+        return encoders.acquire()
+                .begin("session-gen")
+                .field(userId)
+                .key(SESSION_GENERATION);
+    }
+
+    // Cluster-wide token bucket of a user's device (RateLimiter). Short-lived
+    // and never migrated: the raw key is used in every mode.
+    public RedisKey rateLimit(String userId, String deviceId) {
+        return encoders.acquire()
+                .begin("rate")
+                .field(userId)
+                .field(deviceId)
+                .key(RATE_LIMIT);
+    }
+
+    // Cluster-wide token bucket of /auth/login calls from one client IP
+    public RedisKey loginRateLimit(String clientIp) {
+        return encoders.acquire()
+                .begin("rate-login")
+                .field(clientIp)
+                .key(RATE_LIMIT);
+    }
+
+    // Fencing counter of an idempotency key (same hash, own type byte)
+    public byte[] fence(RedisKey key) {
+        byte[] raw = key.raw();
+        if (mode == Mode.LEGACY) {
+            return concat(raw, FENCE_SUFFIX);
+        }
+
+        byte[] fence = raw.clone();
+        fence[0] = FENCE;
+        return fence;
+    }
+
+    // Key named in a peer's broadcast. Legacy-layout keys (from LEGACY or
+    // MIGRATE peers) are hashed so they match this node's compact keys.
+    public RedisKey fromPeer(byte[] key) {
+        if (mode == Mode.LEGACY || isCompact(key)) {
+            return new RedisKey(key, null);
+        }
+
+        byte type = startsWith(key, "nonces:") ? NONCE_BUCKET
+                : startsWith(key, "session:") ? SESSION
+                : startsWith(key, "session-gen:") ? SESSION_GENERATION
+                : startsWith(key, "idem:") ? IDEMPOTENCY
+                : NONCE;
+        Encoder encoder = encoders.acquire().begin(key);
+        try {
+            return new RedisKey(encoder.hashed(type), mode == Mode.MIGRATE ? key : null);
+        } finally {
+            encoders.release(encoder);
+        }
+    }
+
+    static boolean isCompact(byte[] key) {
+        return key.length == 1 + HASH_BYTES && isTypeByte(key[0]);
+    }
+
+    static boolean isTypeByte(byte first) {
+        return first >= NONCE && first <= RATE_LIMIT;
+    }
+
+    private static boolean startsWith(byte[] key, String prefix) {
+        byte[] bytes = prefix.getBytes(StandardCharsets.US_ASCII);
+        return key.length >= bytes.length
+                && Arrays.equals(key, 0, bytes.length, bytes, 0, bytes.length);
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    private Encoder newEncoder() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(hashKey);
+            return new Encoder(mac);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Redis key hashing unavailable", e);
+        }
+    }
+
+    // Per-thread (see ThreadAwarePool): writes the legacy layout into a
+    // reusable buffer (no intermediate Strings) and hashes it from there
+    private final class Encoder {
+
+        private final Mac mac;
+        private final byte[] digest = new byte[32];
+        private byte[] buffer = new byte[256];
+        private int length;
+
+        Encoder(Mac mac) {
+            this.mac = mac;
+        }
+
+        Encoder begin(String prefix) {
+            length = 0;
+            append(prefix);
+            return this;
+        }
+
+        Encoder begin(byte[] layout) {
+            length = 0;
+            ensureCapacity(layout.length);
+            System.arraycopy(layout, 0, buffer, 0, layout.length);
+            length = layout.length;
+            return this;
+        }
+
+        Encoder field(String value) {
+            ensureCapacity(1);
+            buffer[length++] = SEPARATOR;
+            append(value);
+            return this;
+        }
+
+        // Non-negative numbers only (bucket indices)
+        Encoder field(long value) {
+            int digits = 1;
+            for (long rest = value / 10; rest > 0; rest /= 10) {
+                digits++;
+            }
+
+            ensureCapacity(1 + digits);
+            buffer[length++] = SEPARATOR;
+            for (int at = length + digits - 1; at >= length; at--) {
+                buffer[at] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            length += digits;
+            return this;
+        }
+
+        // Ends the key: the encoder goes back to the pool
+        RedisKey key(byte type) {
+            try {
+                return switch (mode) {
+                    case LEGACY -> new RedisKey(Arrays.copyOf(buffer, length), null);
+                    case MIGRATE -> new RedisKey(hashed(type), Arrays.copyOf(buffer, length));
+                    case COMPACT -> new RedisKey(hashed(type), null);
+                };
+            } finally {
+                encoders.release(this);
+            }
+        }
+
+        private byte[] hashed(byte type) {
+            try {
+                mac.update(buffer, 0, length);
+                mac.doFinal(digest, 0);
+            } catch (ShortBufferException e) {
+                throw new IllegalStateException(e);
+            }
+
+            byte[] key = new byte[1 + HASH_BYTES];
+            key[0] = type;
+            System.arraycopy(digest, 0, key, 1, HASH_BYTES);
+            return key;
+        }
+
+        private void append(String value) {
+            int n = value.length();
+            ensureCapacity(n);
+            for (int i = 0; i < n; i++) {
+                char c = value.charAt(i);
+                if (c >= 0x80) {
+                    appendUtf8(value, i);
+                    return;
+                }
+                buffer[length++] = (byte) c;
+            }
+        }
+
+        // Non-ASCII tail (rare): encode the rest the slow way
+        private void appendUtf8(String value, int from) {
+            byte[] tail = value.substring(from).getBytes(StandardCharsets.UTF_8);
+            ensureCapacity(tail.length);
+            System.arraycopy(tail, 0, buffer, length, tail.length);
+            length += tail.length;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (length + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+            }
+        }
+    }
+}
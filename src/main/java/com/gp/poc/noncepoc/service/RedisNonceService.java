@@ -1,23 +1,403 @@
 package com.gp.poc.noncepoc.service;
 
-import lombok.RequiredArgsConstructor;
+import io.lettuce.core.SetArgs;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
 
-import java.util.concurrent.TimeUnit;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @Service
-@RequiredArgsConstructor
-public class RedisNonceService {
+@ConditionalOnProperty(name = "security.nonce.store", havingValue = "redis", matchIfMissing = true)
+public class RedisNonceService implements NonceStore {
 
-    private final RedisTemplate<String, String> redisTemplate;
+    // KEYS: one key per nonce (SET NX EX)
+    // BUCKETS: one set per user and retention-sized time bucket, one expiry each
+    // COUNTER_WINDOW: X-Nonce is a per-device counter; one fixed-size
+    //   sliding anti-replay window (IPsec style) per user+device
+    public enum Storage { KEYS, BUCKETS, COUNTER_WINDOW }
 
-    public boolean isReplay(String nonce) {
-        return Boolean.TRUE.equals(redisTemplate.hasKey(nonce));
+    // Window value: highest counter seen as 20 ASCII digits, then the bitmap
+    static final int WINDOW_HEADER = 20;
+
+    private static final byte[] USED = "USED".getBytes(StandardCharsets.US_ASCII);
+
+    // Migration: claim the compact key and its legacy alias together,
+    // failing if either is already taken
+    private static final RedisScript<Long> CLAIM_WITH_ALIAS = RedisScript.of("""
+            if redis.call('EXISTS', KEYS[1], KEYS[2]) > 0 then return 0 end
+            redis.call('SET', KEYS[1], ARGV[1], 'EX', ARGV[2])
+            redis.call('SET', KEYS[2], ARGV[1], 'EX', ARGV[2])
+            return 1
+            """, Long.class);
+
+    // KEYS = (current, previous) bucket per key name (2, or 4 with an alias)
+    // ARGV[1] = expire-at of the current bucket, ARGV[2..] = member per name
+    private static final RedisScript<Long> CLAIM_IN_BUCKET = RedisScript.of("""
+            for i = 1, #KEYS / 2 do
+              if redis.call('SISMEMBER', KEYS[2 * i - 1], ARGV[i + 1]) == 1
+                  or redis.call('SISMEMBER', KEYS[2 * i], ARGV[i + 1]) == 1 then
+                return 0
+              end
+            end
+            for i = 1, #KEYS / 2 do
+              redis.call('SADD', KEYS[2 * i - 1], ARGV[i + 1])
+              redis.call('EXPIREAT', KEYS[2 * i - 1], ARGV[1])
+            end
+            return 1
+            """, Long.class);
+
+    // KEYS = window per key name; ARGV = counter, window bits, retention seconds
+    // Bit (counter % size) of the bitmap, most significant bit first, marks
+    // counter as seen; moving the top forward clears the skipped counters.
+    // Whole-value GET/SET keeps it one small plain string per device.
+    private static final RedisScript<Long> CLAIM_IN_WINDOW = RedisScript.of("""
+            local counter = tonumber(ARGV[1])
+            local size = tonumber(ARGV[2])
+            local header = 20
+            local function bit(bytes, c, on)
+              local i = c % size
+              local at = math.floor(i / 8) + 1
+              local weight = 2 ^ (7 - i % 8)
+              local set = math.floor(bytes[at] / weight) % 2 == 1
+              if on ~= nil and on ~= set then
+                bytes[at] = bytes[at] + (on and weight or -weight)
+              end
+              return set
+            end
+            local windows = {}
+            for n, key in ipairs(KEYS) do
+              local raw = redis.call('GET', key)
+              local window = { top = 0, bytes = {} }
+              if raw then
+                window.top = tonumber(string.sub(raw, 1, header))
+                window.bytes = { string.byte(raw, header + 1, -1) }
+              end
+              for i = #window.bytes + 1, size / 8 do window.bytes[i] = 0 end
+              if counter <= window.top - size then return 0 end
+              if counter <= window.top and bit(window.bytes, counter) then return 0 end
+              windows[n] = window
+            end
+            for n, window in ipairs(windows) do
+              if counter > window.top then
+                if counter - window.top >= size then
+                  for i = 1, size / 8 do window.bytes[i] = 0 end
+                else
+                  for c = window.top + 1, counter - 1 do bit(window.bytes, c, false) end
+                end
+                window.top = counter
+              end
+              bit(window.bytes, counter, true)
+              local chars = {}
+              for i = 1, size / 8 do chars[i] = string.char(window.bytes[i]) end
+              redis.call('SET', KEYS[n],
+                  string.format('%020d', window.top) .. table.concat(chars),
+                  'EX', ARGV[3])
+            end
+            return 1
+            """, Long.class);
+
+    private final RedisTemplate<byte[], byte[]> binaryRedisTemplate;
+    private final RedisKeyCodec keyCodec;
+    private final Storage storage;
+    // A request is accepted while its X-Timestamp is within the allowed
+    // drift of now, either way: one dated drift ahead can be replayed up to
+    // 2 x drift after its claim. Every nonce is remembered for ttl + drift,
+    // and never less than that
+    private final long retentionSeconds;
+    private final int windowBits;
+
+    public RedisNonceService(
+            RedisTemplate<byte[], byte[]> binaryRedisTemplate,
+            RedisKeyCodec keyCodec,
+            @Value("${security.nonce.storage:KEYS}") Storage storage,
+            @Value("${security.nonce.ttl-seconds:300}") long ttlSeconds,
+            @Value("${security.nonce.allowed-time-drift-seconds:300}") long allowedDriftSeconds,
+            @Value("${security.nonce.counter-window-bits:1024}") int windowBits
+    ) {
+        if (windowBits <= 0 || windowBits % 8 != 0) {
+            throw new IllegalArgumentException(
+                    "security.nonce.counter-window-bits must be a positive multiple of 8");
+        }
+        this.binaryRedisTemplate = binaryRedisTemplate;
+        this.keyCodec = keyCodec;
+        this.storage = storage;
+        this.retentionSeconds = Math.max(ttlSeconds, allowedDriftSeconds) + allowedDriftSeconds;
+        this.windowBits = windowBits;
+    }
+
+    @Override
+    public boolean countersEnabled() {
+        return storage == Storage.COUNTER_WINDOW;
+    }
+
+    // deviceId is only used by COUNTER_WINDOW, whose nonce must pass isCounter
+    @Override
+    public NonceSlot slot(
+            String userId,
+            String deviceId,
+            String method,
+            String uri,
+            String nonce
+    ) {
+        return slot(userId, deviceId, method, uri, nonce, Instant.now().getEpochSecond());
+    }
+
+    // A nonce stored in bucket b lives until the end of bucket b + 1, so it
+    // is still found (current or previous bucket) for at least retention
+    // seconds
+    NonceSlot slot(
+            String userId,
+            String deviceId,
+            String method,
+            String uri,
+            String nonce,
+            long now
+    ) {
+        if (storage == Storage.COUNTER_WINDOW) {
+            return new NonceSlot(
+                    keyCodec.nonceWindow(userId, deviceId),
+                    null, null, 0,
+                    Long.parseLong(nonce)
+            );
+        }
+
+        RedisKey key = keyCodec.nonce(userId, method, uri, nonce);
+        if (storage == Storage.KEYS) {
+            return new NonceSlot(key, null, null, 0, 0);
+        }
+
+        long bucket = now / retentionSeconds;
+        return new NonceSlot(
+                key,
+                keyCodec.nonceBucket(userId, bucket),
+                keyCodec.nonceBucket(userId, bucket - 1),
+                (bucket + 2) * retentionSeconds,
+                0
+        );
+    }
+
+    // One round trip (SET NX or Lua)
+    @Override
+    public boolean claimNonce(NonceSlot slot) {
+        if (slot.windowed()) {
+            return claimInWindow(slot);
+        }
+        return slot.bucketed() ? claimInBucket(slot) : claimKey(slot.key());
+    }
+
+    // Same commands as claimNonce, sent with Lettuce's async API
+    @Override
+    public CompletableFuture<Boolean> claimNonceAsync(NonceSlot slot) {
+        RedisClusterAsyncCommands<byte[], byte[]> redis = AsyncRedis.commands(binaryRedisTemplate);
+        RedisKey key = slot.key();
+
+        CompletableFuture<Long> claimed;
+        if (slot.windowed()) {
+            claimed = AsyncRedis.eval(redis, CLAIM_IN_WINDOW, keys(key),
+                    ascii(slot.counter()), ascii(windowBits), ascii(retentionSeconds));
+        } else if (slot.bucketed()) {
+            claimed = key.hasAlias()
+                    ? AsyncRedis.eval(redis, CLAIM_IN_BUCKET,
+                            new byte[][] {slot.bucket().raw(), slot.previousBucket().raw(),
+                                    slot.bucket().alias(), slot.previousBucket().alias()},
+                            ascii(slot.expireAt()), key.raw(), key.alias())
+                    : AsyncRedis.eval(redis, CLAIM_IN_BUCKET,
+                            new byte[][] {slot.bucket().raw(), slot.previousBucket().raw()},
+                            ascii(slot.expireAt()), key.raw());
+        } else if (key.hasAlias()) {
+            claimed = AsyncRedis.eval(redis, CLAIM_WITH_ALIAS, keys(key),
+                    USED, ascii(retentionSeconds));
+        } else {
+            return redis.set(key.raw(), USED, SetArgs.Builder.nx().ex(retentionSeconds))
+                    .toCompletableFuture()
+                    .thenApply("OK"::equals);
+        }
+        return claimed.thenApply(result -> result != null && result == 1);
+    }
+
+    // Early-reject lookup for SecurityLookupService's pipeline: queues
+    // seenCheckCount(slot) commands, whose results are read by seen()
+    public void queueSeenCheck(RedisConnection connection, NonceSlot slot) {
+        RedisKey key = slot.key();
+
+        if (slot.windowed()) {
+            connection.stringCommands().get(key.raw());
+            if (key.hasAlias()) {
+                connection.stringCommands().get(key.alias());
+            }
+            return;
+        }
+
+        if (!slot.bucketed()) {
+            if (key.hasAlias()) {
+                connection.keyCommands().exists(key.raw(), key.alias());
+            } else {
+                connection.keyCommands().exists(key.raw());
+            }
+            return;
+        }
+
+        connection.setCommands().sIsMember(slot.bucket().raw(), key.raw());
+        connection.setCommands().sIsMember(slot.previousBucket().raw(), key.raw());
+        if (key.hasAlias()) {
+            connection.setCommands().sIsMember(slot.bucket().alias(), key.alias());
+            connection.setCommands().sIsMember(slot.previousBucket().alias(), key.alias());
+        }
+    }
+
+    // queueSeenCheck for the async pipeline: adds one future per result
+    public void queueSeenCheck(
+            RedisClusterAsyncCommands<byte[], byte[]> redis,
+            NonceSlot slot,
+            List<CompletableFuture<?>> results
+    ) {
+        RedisKey key = slot.key();
+
+        if (slot.windowed()) {
+            results.add(redis.get(key.raw()).toCompletableFuture());
+            if (key.hasAlias()) {
+                results.add(redis.get(key.alias()).toCompletableFuture());
+            }
+            return;
+        }
+
+        if (!slot.bucketed()) {
+            results.add((key.hasAlias()
+                    ? redis.exists(key.raw(), key.alias())
+                    : redis.exists(key.raw())).toCompletableFuture());
+            return;
+        }
+
+        results.add(redis.sismember(slot.bucket().raw(), key.raw()).toCompletableFuture());
+        results.add(redis.sismember(slot.previousBucket().raw(), key.raw()).toCompletableFuture());
+        if (key.hasAlias()) {
+            results.add(redis.sismember(slot.bucket().alias(), key.alias()).toCompletableFuture());
+            results.add(redis.sismember(slot.previousBucket().alias(), key.alias())
+                    .toCompletableFuture());
+        }
+    }
+
+    @Override
+    public boolean seen(NonceSlot slot) {
+        List<Object> results = binaryRedisTemplate.executePipelined(
+                (RedisCallback<Object>) connection -> {
+                    queueSeenCheck(connection, slot);
+                    return null;
+                },
+                null
+        );
+        return seen(results, 0, slot);
+    }
+
+    public int seenCheckCount(NonceSlot slot) {
+        boolean alias = slot.key().hasAlias();
+        if (slot.bucketed()) {
+            return alias ? 4 : 2;
+        }
+        return slot.windowed() && alias ? 2 : 1;
+    }
+
+    public boolean seen(List<Object> results, int from, NonceSlot slot) {
+        for (int i = from; i < from + seenCheckCount(slot); i++) {
+            Object result = results.get(i);
+            boolean seen = slot.windowed()
+                    ? result instanceof byte[] window && seenInWindow(window, slot.counter())
+                    : Boolean.TRUE.equals(result) || result instanceof Long found && found > 0;
+            if (seen) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Mirrors the checks of CLAIM_IN_WINDOW
+    boolean seenInWindow(byte[] window, long counter) {
+        if (window.length < WINDOW_HEADER) {
+            return false;
+        }
+
+        long top = Long.parseLong(
+                new String(window, 0, WINDOW_HEADER, StandardCharsets.US_ASCII));
+        if (counter <= top - windowBits) {
+            return true;
+        }
+        if (counter > top) {
+            return false;
+        }
+
+        int bit = (int) (counter % windowBits);
+        int index = WINDOW_HEADER + bit / 8;
+        return index < window.length && (window[index] & (0x80 >>> (bit % 8))) != 0;
+    }
+
+    private boolean claimKey(RedisKey nonceKey) {
+        if (nonceKey.hasAlias()) {
+            Long claimed = binaryRedisTemplate.execute(
+                    CLAIM_WITH_ALIAS,
+                    List.of(nonceKey.raw(), nonceKey.alias()),
+                    USED,
+                    ascii(retentionSeconds)
+            );
+            return claimed != null && claimed == 1;
+        }
+
+        Boolean claimed = binaryRedisTemplate.opsForValue()
+                .setIfAbsent(nonceKey.raw(), USED, Duration.ofSeconds(retentionSeconds));
+        return Boolean.TRUE.equals(claimed);
+    }
+
+    private boolean claimInBucket(NonceSlot slot) {
+        RedisKey key = slot.key();
+        Long claimed = key.hasAlias()
+                ? binaryRedisTemplate.execute(
+                        CLAIM_IN_BUCKET,
+                        List.of(slot.bucket().raw(), slot.previousBucket().raw(),
+                                slot.bucket().alias(), slot.previousBucket().alias()),
+                        ascii(slot.expireAt()), key.raw(), key.alias())
+                : binaryRedisTemplate.execute(
+                        CLAIM_IN_BUCKET,
+                        List.of(slot.bucket().raw(), slot.previousBucket().raw()),
+                        ascii(slot.expireAt()), key.raw());
+        return claimed != null && claimed == 1;
+    }
+
+    // The window outlives its last use by retention: a counter it has
+    // forgotten (expired, recreated empty) belongs to a request whose
+    // timestamp the filter no longer accepts
+    private boolean claimInWindow(NonceSlot slot) {
+        RedisKey key = slot.key();
+        List<byte[]> keys = new ArrayList<>(2);
+        keys.add(key.raw());
+        if (key.hasAlias()) {
+            keys.add(key.alias());
+        }
+
+        Long claimed = binaryRedisTemplate.execute(
+                CLAIM_IN_WINDOW,
+                keys,
+                ascii(slot.counter()), ascii(windowBits), ascii(retentionSeconds)
+        );
+        return claimed != null && claimed == 1;
+    }
+
+    private static byte[][] keys(RedisKey key) {
+        return key.hasAlias()
+                ? new byte[][] {key.raw(), key.alias()}
+                : new byte[][] {key.raw()};
     }
 
-    public void storeNonce(String nonce, long ttlSeconds) {
-        redisTemplate.opsForValue()
-                .set(nonce, "USED", ttlSeconds, TimeUnit.SECONDS);
+    private static byte[] ascii(long value) {
+        return Long.toString(value).getBytes(StandardCharsets.US_ASCII);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,28 @@
+package com.gp.poc.noncepoc.service;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+// Per-request snapshot of the Redis reads done in one pipeline by
+// SecurityLookupService. Later filters read from it instead of Redis.
+public record SecurityLookup(
+        String sessionKey,
+        boolean nonceSeen,
+        RedisKey idempotencyKey,
+        byte[] idempotencyValue
+) {
+
+    public static final String REQUEST_ATTRIBUTE =
+            SecurityLookup.class.getName();
+
+    public static SecurityLookup from(HttpServletRequest request) {
+        return (SecurityLookup) request.getAttribute(REQUEST_ATTRIBUTE);
+    }
+
+    public void attachTo(HttpServletRequest request) {
+        request.setAttribute(REQUEST_ATTRIBUTE, this);
+    }
+
+    public boolean hasIdempotencyLookup(RedisKey key) {
+        return idempotencyKey != null && idempotencyKey.equals(key);
+    }
+}
@@ -0,0 +1,186 @@
+package com.gp.poc.noncepoc.service;
+
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+@Service
+@RequiredArgsConstructor
+public class SecurityLookupService {
+
+    private final RedisTemplate<byte[], byte[]> binaryRedisTemplate;
+    private final SessionKeyNearCache sessionKeyCache;
+    private final NonceStore nonceStore;
+
+    // The session key was read as missing moments ago (negative cache):
+    // the request can be refused without any lookup
+    public boolean knownWithoutSession(RedisKey sessionKeyKey) {
+        return sessionKeyCache.knownAbsent(sessionKeyKey);
+    }
+
+    // Session-key GET (+ PTTL, skipped on a near-cache hit), nonce lookup
+    // and idempotency GET in ONE round trip. A nonce store other than Redis
+    // is asked directly instead.
+    // sessionKeyKey may be null (derived session key, nothing to read) and
+    // idempotencyKey when the request is not idempotent.
+    // Keys with a legacy alias (migration) are read under both names.
+    public SecurityLookup prefetch(
+            RedisKey sessionKeyKey,
+            NonceSlot nonceSlot,
+            RedisKey idempotencyKey
+    ) {
+        Plan plan = new Plan(sessionKeyKey, nonceSlot, idempotencyKey);
+
+        // Nothing left for Redis (e.g. derived session key + in-memory nonces)
+        List<Object> results = List.of();
+        if (plan.readsRedis()) {
+            results = binaryRedisTemplate.executePipelined(
+                    (RedisCallback<Object>) connection -> {
+                        if (plan.readSessionKey) {
+                            connection.stringCommands().get(sessionKeyKey.raw());
+                            connection.keyCommands().pTtl(sessionKeyKey.raw());
+                            if (sessionKeyKey.hasAlias()) {
+                                connection.stringCommands().get(sessionKeyKey.alias());
+                                connection.keyCommands().pTtl(sessionKeyKey.alias());
+                            }
+                        }
+
+                        if (plan.redisNonces != null) {
+                            plan.redisNonces.queueSeenCheck(connection, nonceSlot);
+                        }
+
+                        if (idempotencyKey != null) {
+                            connection.stringCommands().get(idempotencyKey.raw());
+                            if (idempotencyKey.hasAlias()) {
+                                connection.stringCommands().get(idempotencyKey.alias());
+                            }
+                        }
+                        return null;
+                    },
+                    null // raw results: the idempotency value is binary
+            );
+        }
+
+        return plan.toLookup(results);
+    }
+
+    // prefetch without blocking: the same commands through Lettuce's async
+    // API (security.redis.async). Completes on Lettuce's I/O thread.
+    public CompletableFuture<SecurityLookup> prefetchAsync(
+            RedisKey sessionKeyKey,
+            NonceSlot nonceSlot,
+            RedisKey idempotencyKey
+    ) {
+        Plan plan = new Plan(sessionKeyKey, nonceSlot, idempotencyKey);
+        if (!plan.readsRedis()) {
+            return CompletableFuture.completedFuture(plan.toLookup(List.of()));
+        }
+
+        RedisClusterAsyncCommands<byte[], byte[]> redis = AsyncRedis.commands(binaryRedisTemplate);
+        List<CompletableFuture<?>> replies = new ArrayList<>(8);
+
+        if (plan.readSessionKey) {
+            replies.add(redis.get(sessionKeyKey.raw()).toCompletableFuture());
+            replies.add(redis.pttl(sessionKeyKey.raw()).toCompletableFuture());
+            if (sessionKeyKey.hasAlias()) {
+                replies.add(redis.get(sessionKeyKey.alias()).toCompletableFuture());
+                replies.add(redis.pttl(sessionKeyKey.alias()).toCompletableFuture());
+            }
+        }
+
+        if (plan.redisNonces != null) {
+            plan.redisNonces.queueSeenCheck(redis, nonceSlot, replies);
+        }
+
+        if (idempotencyKey != null) {
+            replies.add(redis.get(idempotencyKey.raw()).toCompletableFuture());
+            if (idempotencyKey.hasAlias()) {
+                replies.add(redis.get(idempotencyKey.alias()).toCompletableFuture());
+            }
+        }
+
+        return CompletableFuture.allOf(replies.toArray(CompletableFuture[]::new))
+                .thenApply(done -> {
+                    List<Object> results = new ArrayList<>(replies.size());
+                    for (CompletableFuture<?> reply : replies) {
+                        results.add(reply.join());
+                    }
+                    return plan.toLookup(results);
+                });
+    }
+
+    // What one prefetch reads, decided before any command is sent, and how
+    // its results (in command order) become a SecurityLookup
+    private final class Plan {
+
+        private final RedisKey sessionKeyKey;
+        private final NonceSlot nonceSlot;
+        private final RedisKey idempotencyKey;
+
+        private final String cachedSessionKey;
+        private final boolean readSessionKey;
+        private final long cacheVersion;
+        private final RedisNonceService redisNonces;
+
+        Plan(RedisKey sessionKeyKey, NonceSlot nonceSlot, RedisKey idempotencyKey) {
+            this.sessionKeyKey = sessionKeyKey;
+            this.nonceSlot = nonceSlot;
+            this.idempotencyKey = idempotencyKey;
+
+            this.cachedSessionKey = sessionKeyKey != null
+                    ? sessionKeyCache.get(sessionKeyKey)
+                    : null;
+            this.readSessionKey = sessionKeyKey != null && cachedSessionKey == null;
+            this.cacheVersion = sessionKeyCache.version();
+            this.redisNonces =
+                    nonceStore instanceof RedisNonceService redis ? redis : null;
+        }
+
+        boolean readsRedis() {
+            return readSessionKey || redisNonces != null || idempotencyKey != null;
+        }
+
+        SecurityLookup toLookup(List<Object> results) {
+            int i = 0;
+            String sessionKey = cachedSessionKey;
+
+            if (readSessionKey) {
+                // Migrating: fall back to a key issued by a LEGACY node
+                int at = results.get(i) == null && sessionKeyKey.hasAlias() ? i + 2 : i;
+                sessionKey = SessionKeyService.toSessionKey(results.get(at));
+                Long ttlMillis = (Long) results.get(at + 1);
+                sessionKeyCache.put(sessionKeyKey, sessionKey, ttlMillis, cacheVersion);
+                i += sessionKeyKey.hasAlias() ? 4 : 2;
+            }
+
+            boolean nonceSeen;
+            if (redisNonces != null) {
+                nonceSeen = redisNonces.seen(results, i, nonceSlot);
+                i += redisNonces.seenCheckCount(nonceSlot);
+            } else {
+                nonceSeen = nonceStore.seen(nonceSlot);
+            }
+
+            byte[] idempotencyValue = null;
+            if (idempotencyKey != null) {
+                idempotencyValue = (byte[]) results.get(i);
+                if (idempotencyValue == null && idempotencyKey.hasAlias()) {
+                    idempotencyValue = (byte[]) results.get(i + 1);
+                }
+            }
+
+            return new SecurityLookup(
+                    sessionKey,
+                    nonceSeen,
+                    idempotencyKey,
+                    idempotencyValue
+            );
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.gp.poc.noncepoc.service;
+
+// What a derived session key is derived from, carried in the JWT:
+// master key id, issuance epoch (seconds) and the user's session
+// generation at login. See DerivedSessionKeys.
+public record SessionGrant(
+        String kid,
+        long epoch,
+        long generation
+) {
+}
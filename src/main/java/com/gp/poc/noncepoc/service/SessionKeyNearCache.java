@@ -0,0 +1,168 @@
+package com.gp.poc.noncepoc.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+// In-JVM copy of session keys (keyed by the Redis key, i.e. user+device).
+// Entries never outlive the Redis TTL they were read with, and every
+// issueSessionKey broadcasts an invalidation so other nodes drop theirs.
+// Devices read as having NO session are remembered too, briefly (negative
+// cache): a client retrying with an expired session or an unknown device
+// costs no Redis read. The same invalidation drops them on login.
+@Component
+@Slf4j
+public class SessionKeyNearCache implements MessageListener {
+
+    public static final String INVALIDATION_CHANNEL = "session-key:invalidate";
+
+    private static final byte SEPARATOR = '|';
+
+    private final RedisTemplate<byte[], byte[]> binaryRedisTemplate;
+    private final RedisKeyCodec keyCodec;
+    private final Cache<RedisKey, CachedKey> cache;
+    private final Cache<RedisKey, Boolean> absent;
+
+    // Identifies our own broadcasts so we don't drop a key we just stored
+    private final byte[] nodeId =
+            UUID.randomUUID().toString().getBytes(StandardCharsets.US_ASCII);
+
+    // Bumped on every invalidation; a read that raced one is not cached
+    private final AtomicLong version = new AtomicLong();
+
+    public SessionKeyNearCache(
+            RedisTemplate<byte[], byte[]> binaryRedisTemplate,
+            RedisKeyCodec keyCodec,
+            MeterRegistry meterRegistry,
+            @Value("${security.session.near-cache.max-size:100000}")
+            long maxSize,
+            @Value("${security.session.negative-cache.max-size:100000}")
+            long absentMaxSize,
+            @Value("${security.session.negative-cache.ttl-ms:5000}")
+            long absentTtlMillis
+    ) {
+        this.binaryRedisTemplate = binaryRedisTemplate;
+        this.keyCodec = keyCodec;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(Expiry.creating(
+                        (RedisKey key, CachedKey value) -> value.ttl()
+                ))
+                .recordStats()
+                .build();
+
+        this.absent = Caffeine.newBuilder()
+                .maximumSize(absentMaxSize)
+                .expireAfterWrite(Duration.ofMillis(absentTtlMillis))
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "session-key-near-cache");
+        CaffeineCacheMetrics.monitor(meterRegistry, absent, "session-key-negative-cache");
+    }
+
+    public String get(RedisKey redisKey) {
+        CachedKey cached = cache.getIfPresent(redisKey);
+        return cached != null ? cached.sessionKey() : null;
+    }
+
+    // true: Redis had no session key for it a moment ago
+    public boolean knownAbsent(RedisKey redisKey) {
+        return absent.getIfPresent(redisKey) != null;
+    }
+
+    // Call before reading Redis, then hand the value to put()
+    public long version() {
+        return version.get();
+    }
+
+    // ttlMillis is the remaining Redis TTL (PTTL) observed with the value;
+    // a null sessionKey (none in Redis) goes to the negative cache
+    public void put(
+            RedisKey redisKey,
+            String sessionKey,
+            Long ttlMillis,
+            long versionAtRead
+    ) {
+        if (sessionKey == null) {
+            absent.put(redisKey, Boolean.TRUE);
+            if (version.get() != versionAtRead) {
+                absent.invalidate(redisKey);
+            }
+            return;
+        }
+        if (ttlMillis == null || ttlMillis <= 0) {
+            return;
+        }
+
+        cache.put(redisKey, new CachedKey(sessionKey, Duration.ofMillis(ttlMillis)));
+
+        // An invalidation landed while we were reading: don't trust the value
+        if (version.get() != versionAtRead) {
+            cache.invalidate(redisKey);
+        }
+    }
+
+    // Local replace + cluster-wide invalidation after a key is (re)issued
+    public void replace(RedisKey redisKey, String sessionKey, Duration ttl) {
+        evictLocally(redisKey);
+        cache.put(redisKey, new CachedKey(sessionKey, ttl));
+
+        binaryRedisTemplate.convertAndSend(
+                INVALIDATION_CHANNEL,
+                invalidationMessage(redisKey)
+        );
+    }
+
+    // nodeId | key (node ids never contain the separator)
+    private byte[] invalidationMessage(RedisKey redisKey) {
+        byte[] raw = redisKey.broadcastForm();
+        byte[] message = Arrays.copyOf(nodeId, nodeId.length + 1 + raw.length);
+        message[nodeId.length] = SEPARATOR;
+        System.arraycopy(raw, 0, message, nodeId.length + 1, raw.length);
+        return message;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        byte[] body = message.getBody();
+
+        int separator = 0;
+        while (separator < body.length && body[separator] != SEPARATOR) {
+            separator++;
+        }
+
+        if (separator == body.length
+                || Arrays.equals(body, 0, separator, nodeId, 0, nodeId.length)) {
+            return;
+        }
+
+        RedisKey redisKey = keyCodec.fromPeer(
+                Arrays.copyOfRange(body, separator + 1, body.length));
+        log.debug("Session key invalidated by peer: {}", redisKey);
+        evictLocally(redisKey);
+    }
+
+    private void evictLocally(RedisKey redisKey) {
+        version.incrementAndGet();
+        cache.invalidate(redisKey);
+        absent.invalidate(redisKey);
+    }
+
+    private record CachedKey(String sessionKey, Duration ttl) {
+    }
+}
@@ -1,17 +1,24 @@
 package com.gp.poc.noncepoc.service;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.redis.connection.RedisStringCommands.SetOption;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
 
 @Service
 @RequiredArgsConstructor
 public class SessionKeyService {
 
-    private final RedisTemplate<String, String> redisTemplate;
+    private final RedisTemplate<byte[], byte[]> binaryRedisTemplate;
+    private final SessionKeyNearCache nearCache;
+    private final RedisKeyCodec keyCodec;
 
     private static final long SESSION_TTL_SECONDS = 600;
 
@@ -20,22 +27,60 @@ public class SessionKeyService {
                 .toString()
                 .replace("-", "");
 
-        redisTemplate.opsForValue().set(
-                buildKey(userId, deviceId),
-                sessionKey,
-                SESSION_TTL_SECONDS,
-                TimeUnit.SECONDS
-        );
+        RedisKey key = keyCodec.session(userId, deviceId);
+        byte[] value = sessionKey.getBytes(StandardCharsets.UTF_8);
+        Expiration ttl = Expiration.seconds(SESSION_TTL_SECONDS);
+
+        binaryRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.stringCommands().set(key.raw(), value, ttl, SetOption.upsert());
+            if (key.hasAlias()) {
+                connection.stringCommands().set(key.alias(), value, ttl, SetOption.upsert());
+            }
+            return null;
+        });
+
+        nearCache.replace(key, sessionKey, Duration.ofSeconds(SESSION_TTL_SECONDS));
 
         return sessionKey;
     }
 
     public String getSessionKey(String userId, String deviceId) {
-        return redisTemplate.opsForValue()
-                .get(buildKey(userId, deviceId));
+        RedisKey key = keyCodec.session(userId, deviceId);
+
+        String cached = nearCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        if (nearCache.knownAbsent(key)) {
+            return null;
+        }
+
+        // GET + PTTL together so the near-cache entry can't outlive Redis
+        long version = nearCache.version();
+        List<Object> results = binaryRedisTemplate.executePipelined(
+                (RedisCallback<Object>) connection -> {
+                    connection.stringCommands().get(key.raw());
+                    connection.keyCommands().pTtl(key.raw());
+                    if (key.hasAlias()) {
+                        connection.stringCommands().get(key.alias());
+                        connection.keyCommands().pTtl(key.alias());
+                    }
+                    return null;
+                },
+                null
+        );
+
+        // Migrating: fall back to a key issued by a LEGACY node
+        int i = results.get(0) == null && key.hasAlias() ? 2 : 0;
+
+        String sessionKey = toSessionKey(results.get(i));
+        nearCache.put(key, sessionKey, (Long) results.get(i + 1), version);
+        return sessionKey;
     }
 
-    private String buildKey(String userId, String deviceId) {
-        return "session:" + userId + ":" + deviceId;
+    static String toSessionKey(Object value) {
+        return value != null
+                ? new String((byte[]) value, StandardCharsets.UTF_8)
+                : null;
     }
-}
\ No newline at end of file
+}
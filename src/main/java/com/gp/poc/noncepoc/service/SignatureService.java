@@ -2,11 +2,15 @@ package com.gp.poc.noncepoc.service;
 
 import com.gp.poc.noncepoc.dto.SignatureRequest;
 import com.gp.poc.noncepoc.dto.SignatureResponse;
+import com.gp.poc.noncepoc.utils.CanonicalPayload;
 import com.gp.poc.noncepoc.utils.HmacUtil;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
 
 @Service
@@ -14,44 +18,121 @@ import java.time.Instant;
 public class SignatureService {
 
     private final SessionKeyService sessionKeyService;
+    private final DerivedSessionKeys derivedSessionKeys;
 
+    // grant: derived session key from the caller's JWT, or null
     public SignatureResponse generate(
             SignatureRequest request,
             String userId,
-            String deviceId
+            String deviceId,
+            SessionGrant grant
     ) {
+        try (Batch batch = batch(userId, deviceId, grant)) {
+            return batch.sign(request);
+        }
+    }
 
-        long timestamp = request.getTimestamp() != null
-                ? request.getTimestamp()
-                : Instant.now().getEpochSecond();
+    // Signs any number of requests for one user+device: the session key is
+    // read once and one Mac is initialized with it. Close it when done.
+    public Batch batch(String userId, String deviceId, SessionGrant grant) {
 
         // 🔐 Fetch session key (same key used by NonceSecurityFilter)
-        String sessionKey =
-                sessionKeyService.getSessionKey(userId, deviceId);
+        String sessionKey = grant != null
+                ? derivedSessionKeys.sessionKey(userId, deviceId, grant)
+                : sessionKeyService.getSessionKey(userId, deviceId);
 
         if (sessionKey == null) {
             throw new RuntimeException("Session expired");
         }
 
-        // 🔐 Canonical payload (MUST MATCH FILTER)
-        String payload =
-                request.getMethod() + "\n" +
-                        request.getPath() + "\n" +
-                        timestamp + "\n" +
-                        request.getNonce();
-
-        String signature =
-                HmacUtil.generateHmacSha256(sessionKey, payload);
-
-        return SignatureResponse.builder()
-                .userId(userId)
-                .deviceId(deviceId)
-                .nonce(request.getNonce())
-                .timestamp(timestamp)
-                .method(request.getMethod())
-                .path(request.getPath())
-                .payload(payload)
-                .signature(signature)
-                .build();
+        return new Batch(userId, deviceId, HmacUtil.signer(sessionKey));
+    }
+
+    public static final class Batch implements AutoCloseable {
+
+        private final String userId;
+        private final String deviceId;
+        private final HmacUtil.Signer signer;
+
+        private MessageDigest sha256;
+
+        private Batch(String userId, String deviceId, HmacUtil.Signer signer) {
+            this.userId = userId;
+            this.deviceId = deviceId;
+            this.signer = signer;
+        }
+
+        public SignatureResponse sign(SignatureRequest request) {
+
+            long timestamp = request.getTimestamp() != null
+                    ? request.getTimestamp()
+                    : Instant.now().getEpochSecond();
+
+            int version = request.getVersion() != null
+                    ? request.getVersion()
+                    : CanonicalPayload.VERSION_1;
+
+            // 🔐 Canonical payload (MUST MATCH FILTER)
+            String payload;
+            String bodySha256 = null;
+
+            if (version == CanonicalPayload.VERSION_2) {
+                byte[] digest = sha256(request.getBody());
+                bodySha256 = CanonicalPayload.hex(digest);
+                payload = CanonicalPayload.build(
+                        request.getMethod(),
+                        request.getPath(),
+                        timestamp,
+                        request.getNonce(),
+                        digest
+                );
+            } else {
+                payload = CanonicalPayload.build(
+                        request.getMethod(),
+                        request.getPath(),
+                        timestamp,
+                        request.getNonce()
+                );
+            }
+
+            String signature = signer.sign(payload);
+
+            return SignatureResponse.builder()
+                    .userId(userId)
+                    .deviceId(deviceId)
+                    .nonce(request.getNonce())
+                    .timestamp(timestamp)
+                    .method(request.getMethod())
+                    .path(request.getPath())
+                    .version(version)
+                    .bodySha256(bodySha256)
+                    .payload(payload)
+                    .signature(signature)
+                    .build();
+        }
+
+        @Override
+        public void close() {
+            signer.close();
+        }
+
+        private byte[] sha256(String body) {
+            if (sha256 == null) {
+                sha256 = newSha256();
+            }
+            return sha256.digest(
+                    body != null
+                            ? body.getBytes(StandardCharsets.UTF_8)
+                            : new byte[0]
+            );
+        }
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
     }
-}
\ No newline at end of file
+}
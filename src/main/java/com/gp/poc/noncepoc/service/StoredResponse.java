@@ -0,0 +1,89 @@
+package com.gp.poc.noncepoc.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+// Response captured by IdempotencyFilter and replayed for duplicates.
+//
+// Redis encoding: [format byte] then, deflated when format == DEFLATED:
+//   status (u16) | header count (u8) | (name, value) as modified UTF-8 | body length (i32) | body
+public record StoredResponse(
+        int status,
+        Map<String, String> headers,
+        byte[] body
+) {
+
+    private static final byte FORMAT_PLAIN = 0x01;
+    private static final byte FORMAT_DEFLATED = 0x02;
+
+    public static boolean isEncoded(byte[] value) {
+        return value.length > 0
+                && (value[0] == FORMAT_PLAIN || value[0] == FORMAT_DEFLATED);
+    }
+
+    public byte[] encode(int compressionThreshold) {
+        try {
+            boolean deflate = body.length >= compressionThreshold;
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length + 64);
+            bytes.write(deflate ? FORMAT_DEFLATED : FORMAT_PLAIN);
+
+            OutputStream target = deflate ? new DeflaterOutputStream(bytes) : bytes;
+            try (DataOutputStream out = new DataOutputStream(target)) {
+                out.writeShort(status);
+                out.writeByte(headers.size());
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    out.writeUTF(header.getKey());
+                    out.writeUTF(header.getValue());
+                }
+                out.writeInt(body.length);
+                out.write(body);
+            }
+            return bytes.toByteArray();
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static StoredResponse decode(byte[] value) {
+        return decode(value, 0, value.length);
+    }
+
+    public static StoredResponse decode(byte[] value, int offset, int length) {
+        try {
+            InputStream source = new ByteArrayInputStream(value, offset + 1, length - 1);
+            if (value[offset] == FORMAT_DEFLATED) {
+                source = new InflaterInputStream(source);
+            }
+
+            try (DataInputStream in = new DataInputStream(source)) {
+                int status = in.readUnsignedShort();
+
+                int headerCount = in.readUnsignedByte();
+                Map<String, String> headers = new LinkedHashMap<>(headerCount * 2);
+                for (int i = 0; i < headerCount; i++) {
+                    headers.put(in.readUTF(), in.readUTF());
+                }
+
+                byte[] body = new byte[in.readInt()];
+                in.readFully(body);
+
+                return new StoredResponse(status, headers, body);
+            }
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
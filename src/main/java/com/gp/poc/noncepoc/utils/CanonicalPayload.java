@@ -0,0 +1,54 @@
+package com.gp.poc.noncepoc.utils;
+
+// Single definition of the signed payload, shared by the signer
+// (SignatureService) and the verifier (HmacUtil / NonceSecurityFilter):
+//
+//   v1: METHOD \n PATH \n TIMESTAMP \n NONCE
+//   v2: METHOD \n PATH \n TIMESTAMP \n NONCE \n hex(SHA-256(body))
+public final class CanonicalPayload {
+
+    public static final int VERSION_1 = 1;
+    public static final int VERSION_2 = 2;
+
+    public static final char SEPARATOR = '\n';
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private CanonicalPayload() {
+    }
+
+    public static String build(
+            String method,
+            String path,
+            long timestamp,
+            String nonce
+    ) {
+        return method + SEPARATOR +
+                path + SEPARATOR +
+                timestamp + SEPARATOR +
+                nonce;
+    }
+
+    public static String build(
+            String method,
+            String path,
+            long timestamp,
+            String nonce,
+            byte[] bodySha256
+    ) {
+        return build(method, path, timestamp, nonce) + SEPARATOR + hex(bodySha256);
+    }
+
+    public static String hex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0x0f];
+            chars[2 * i + 1] = HEX[bytes[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+
+    static byte hexDigit(int nibble) {
+        return (byte) HEX[nibble];
+    }
+}
@@ -1,25 +1,52 @@
 package com.gp.poc.noncepoc.utils;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import org.springframework.stereotype.Service;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.Base64;
 @Service
 public class HmacUtil {
 
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int DIGEST_LENGTH = 32;
+
+    // Session key -> ready-to-use key spec (skips getBytes + spec per call)
+    private static final Cache<String, SecretKeySpec> KEYS = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterAccess(Duration.ofMinutes(10))
+            .build();
+
+    // One Mac + scratch buffers per thread (pooled for virtual threads):
+    // no provider lookup per call
+    private static final ThreadAwarePool<HmacContext> CONTEXTS =
+            new ThreadAwarePool<>(HmacContext::new);
+
+    private static final byte[] BASE64_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(BASE64_VALUES, (byte) -1);
+        String alphabet =
+                "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64_VALUES[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
     public static String generateHmacSha256(
             String secret,
             String payload
     ) {
+        HmacContext context = CONTEXTS.acquire();
         try {
-            Mac mac = Mac.getInstance("HmacSHA256");
-            SecretKeySpec key = new SecretKeySpec(
-                    secret.getBytes(StandardCharsets.UTF_8),
-                    "HmacSHA256"
-            );
-            mac.init(key);
+            Mac mac = context.macFor(secret);
 
             byte[] rawHmac = mac.doFinal(
                     payload.getBytes(StandardCharsets.UTF_8)
@@ -29,6 +56,283 @@ public class HmacUtil {
 
         } catch (Exception e) {
             throw new RuntimeException("Failed to generate HMAC", e);
+        } finally {
+            CONTEXTS.release(context);
+        }
+    }
+
+    // Many payloads under one key (batch signing): one pooled Mac,
+    // initialized once, for the whole batch. Close it when done.
+    public static Signer signer(String secret) {
+        HmacContext context = CONTEXTS.acquire();
+        try {
+            return new Signer(context, context.macFor(secret));
+        } catch (Exception e) {
+            CONTEXTS.release(context);
+            throw new RuntimeException("Failed to generate HMAC", e);
+        }
+    }
+
+    public static boolean verifyHmacSha256(
+            String secret,
+            String signature,
+            String method,
+            String path,
+            long timestamp,
+            String nonce
+    ) {
+        return verifyHmacSha256(
+                secret, signature, method, path, timestamp, nonce, null);
+    }
+
+    // Verifies a Base64 X-Signature against the canonical payload without
+    // building the payload String, the expected Base64 or decoded copies.
+    // bodySha256 == null -> v1 payload, otherwise v2.
+    public static boolean verifyHmacSha256(
+            String secret,
+            String signature,
+            String method,
+            String path,
+            long timestamp,
+            String nonce,
+            byte[] bodySha256
+    ) {
+        HmacContext context = CONTEXTS.acquire();
+        try {
+            return verify(context, secret, signature, method, path, timestamp, nonce, bodySha256);
+        } finally {
+            CONTEXTS.release(context);
+        }
+    }
+
+    private static boolean verify(
+            HmacContext context,
+            String secret,
+            String signature,
+            String method,
+            String path,
+            long timestamp,
+            String nonce,
+            byte[] bodySha256
+    ) {
+        if (!decodeBase64(signature, context.actual, DIGEST_LENGTH)) {
+            return false;
+        }
+
+        try {
+            Mac mac = context.macFor(secret);
+
+            context.length = 0;
+            context.append(method).appendSeparator()
+                    .append(path).appendSeparator()
+                    .append(timestamp).appendSeparator()
+                    .append(nonce);
+
+            if (bodySha256 != null) {
+                context.appendSeparator().appendHex(bodySha256);
+            }
+
+            if (context.length < 0) {
+                // non-ASCII input: take the slow, allocating path
+                String payload = bodySha256 == null
+                        ? CanonicalPayload.build(method, path, timestamp, nonce)
+                        : CanonicalPayload.build(method, path, timestamp, nonce, bodySha256);
+                mac.update(payload.getBytes(StandardCharsets.UTF_8));
+            } else {
+                mac.update(context.buffer, 0, context.length);
+            }
+            mac.doFinal(context.expected, 0);
+
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Failed to verify HMAC", e);
+        }
+
+        return MessageDigest.isEqual(context.expected, context.actual);
+    }
+
+    // Shape of an X-Signature, checked before anything is looked up: what
+    // verifyHmacSha256 would decode to one HMAC-SHA256, without decoding it
+    public static boolean isWellFormedSignature(String signature) {
+        return decodeBase64(signature, null, DIGEST_LENGTH);
+    }
+
+    // Decodes canonical padded Base64, exactly what Base64.getEncoder()
+    // writes, into out (null: only checks). False unless it is the encoding
+    // of length bytes: no whitespace, no missing or extra padding, no stray
+    // bits in the last char, so one MAC has one accepted X-Signature
+    private static boolean decodeBase64(String value, byte[] out, int length) {
+        int end = value.length();
+        if (end != (length + 2) / 3 * 4) {
+            return false;
+        }
+
+        int padding = (3 - length % 3) % 3;
+        for (int i = end - padding; i < end; i++) {
+            if (value.charAt(i) != '=') {
+                return false;
+            }
         }
+        end -= padding;
+
+        int bits = 0;
+        int bitCount = 0;
+        int written = 0;
+
+        for (int i = 0; i < end; i++) {
+            char c = value.charAt(i);
+            int v = c < 128 ? BASE64_VALUES[c] : -1;
+            if (v < 0) {
+                return false;
+            }
+
+            bits = (bits << 6) | v;
+            bitCount += 6;
+
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                if (out != null) {
+                    out[written] = (byte) (bits >> bitCount);
+                }
+                written++;
+            }
+        }
+
+        // The bits left over after the last byte must be zero
+        return (bits & ((1 << bitCount) - 1)) == 0;
+    }
+
+    public static final class Signer implements AutoCloseable {
+
+        private final HmacContext context;
+        private final Mac mac;
+
+        private Signer(HmacContext context, Mac mac) {
+            this.context = context;
+            this.mac = mac;
+        }
+
+        // Same output as generateHmacSha256(secret, payload)
+        public String sign(String payload) {
+            return Base64.getEncoder().encodeToString(
+                    mac.doFinal(payload.getBytes(StandardCharsets.UTF_8))
+            );
+        }
+
+        @Override
+        public void close() {
+            CONTEXTS.release(context);
+        }
+    }
+
+    private static final class HmacContext {
+
+        private final byte[] expected = new byte[DIGEST_LENGTH];
+        private final byte[] actual = new byte[DIGEST_LENGTH];
+        private byte[] buffer = new byte[256];
+
+        // -1 once a non-ASCII char is seen
+        private int length;
+
+        private Mac mac;
+        private String macSecret;
+
+        private Mac macFor(String secret) throws GeneralSecurityException {
+            if (mac == null) {
+                mac = Mac.getInstance(ALGORITHM);
+            }
+
+            // Mac resets itself after doFinal: re-init only on a key change
+            if (!secret.equals(macSecret)) {
+                mac.init(KEYS.get(secret, HmacUtil::keySpec));
+                macSecret = secret;
+            }
+            return mac;
+        }
+
+        private HmacContext append(String value) {
+            if (length < 0) {
+                return this;
+            }
+
+            int size = value.length();
+            ensureCapacity(size);
+
+            for (int i = 0; i < size; i++) {
+                char c = value.charAt(i);
+                if (c >= 0x80) {
+                    length = -1;
+                    return this;
+                }
+                buffer[length++] = (byte) c;
+            }
+            return this;
+        }
+
+        private HmacContext append(long value) {
+            if (length < 0) {
+                return this;
+            }
+            if (value == Long.MIN_VALUE) {
+                return append(Long.toString(value));
+            }
+
+            ensureCapacity(20);
+
+            if (value < 0) {
+                buffer[length++] = '-';
+                value = -value;
+            }
+
+            int digitsStart = length;
+            do {
+                buffer[length++] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+
+            // digits were written least-significant first
+            for (int i = digitsStart, j = length - 1; i < j; i++, j--) {
+                byte tmp = buffer[i];
+                buffer[i] = buffer[j];
+                buffer[j] = tmp;
+            }
+            return this;
+        }
+
+        private HmacContext appendHex(byte[] bytes) {
+            if (length < 0) {
+                return this;
+            }
+
+            ensureCapacity(bytes.length * 2);
+            for (byte b : bytes) {
+                buffer[length++] = CanonicalPayload.hexDigit((b >> 4) & 0x0f);
+                buffer[length++] = CanonicalPayload.hexDigit(b & 0x0f);
+            }
+            return this;
+        }
+
+        private HmacContext appendSeparator() {
+            if (length >= 0) {
+                ensureCapacity(1);
+                buffer[length++] = CanonicalPayload.SEPARATOR;
+            }
+            return this;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (length + extra > buffer.length) {
+                buffer = Arrays.copyOf(
+                        buffer,
+                        Math.max(buffer.length * 2, length + extra)
+                );
+            }
+        }
+    }
+
+    private static SecretKeySpec keySpec(String secret) {
+        return new SecretKeySpec(
+                secret.getBytes(StandardCharsets.UTF_8),
+                ALGORITHM
+        );
     }
-}
\ No newline at end of file
+}
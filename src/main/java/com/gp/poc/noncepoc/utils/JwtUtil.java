@@ -1,20 +1,36 @@
 package com.gp.poc.noncepoc.utils;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.gp.poc.noncepoc.service.SessionGrant;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtBuilder;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.nio.charset.StandardCharsets;
 import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.Base64;
 import java.util.Date;
 
 @Component
 public class JwtUtil {
 
+    // Derived session key grant (see DerivedSessionKeys)
+    private static final String SESSION_KID = "skid";
+    private static final String SESSION_EPOCH = "sep";
+    private static final String SESSION_GENERATION = "sgen";
+
     @Value("${spring.jwt.secret}")
     private String secret;
 
@@ -24,30 +40,106 @@ public class JwtUtil {
     @Value("${spring.jwt.access-token-ttl-seconds}")
     private long accessTokenTtl;
 
+    @Value("${spring.jwt.claims-cache.max-size:10000}")
+    private long claimsCacheMaxSize;
+
+    // Built once: key derivation + parser construction are not free
+    private Key key;
+    private JwtParser parser;
+
+    // SHA-256(token) -> claims that already passed signature verification.
+    // Each entry expires at the token's own exp. null when max-size is 0.
+    private Cache<String, Claims> verifiedClaims;
+
+    @PostConstruct
+    public void init() {
+        key = Keys.hmacShaKeyFor(
+                secret.getBytes(StandardCharsets.UTF_8)
+        );
+        parser = Jwts.parserBuilder()
+                .setSigningKey(key)
+                .build();
+        if (claimsCacheMaxSize <= 0) {
+            return;
+        }
+        verifiedClaims = Caffeine.newBuilder()
+                .maximumSize(claimsCacheMaxSize)
+                .expireAfter(Expiry.creating(
+                        (String digest, Claims claims) -> untilExpiry(claims)
+                ))
+                .build();
+    }
+
     public String generateToken(String userId, String deviceId) {
-        return Jwts.builder()
+        return generateToken(userId, deviceId, null);
+    }
+
+    // grant: derived session key to carry, or null for a stored one
+    public String generateToken(String userId, String deviceId, SessionGrant grant) {
+        JwtBuilder builder = Jwts.builder()
                 .setSubject(userId)
                 .setIssuer(issuer)
                 .claim("deviceId", deviceId)
                 .setIssuedAt(new Date())
                 .setExpiration(
                         Date.from(Instant.now().plusSeconds(accessTokenTtl))
-                )
-                .signWith(getKey(), SignatureAlgorithm.HS256)
+                );
+
+        if (grant != null) {
+            builder.claim(SESSION_KID, grant.kid())
+                    .claim(SESSION_EPOCH, grant.epoch())
+                    .claim(SESSION_GENERATION, grant.generation());
+        }
+
+        return builder
+                .signWith(key, SignatureAlgorithm.HS256)
                 .compact();
     }
 
+    // null for tokens carrying no derived session key
+    public static SessionGrant sessionGrant(Claims claims) {
+        String kid = claims.get(SESSION_KID, String.class);
+        Number epoch = claims.get(SESSION_EPOCH, Number.class);
+        Number generation = claims.get(SESSION_GENERATION, Number.class);
+        if (kid == null || epoch == null || generation == null) {
+            return null;
+        }
+        return new SessionGrant(kid, epoch.longValue(), generation.longValue());
+    }
+
     public Claims validate(String token) {
-        return Jwts.parserBuilder()
-                .setSigningKey(getKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+        if (verifiedClaims == null) {
+            return parser.parseClaimsJws(token).getBody();
+        }
+
+        String digest = digest(token);
+
+        Claims cached = verifiedClaims.getIfPresent(digest);
+        if (cached != null) {
+            return cached;
+        }
+
+        Claims claims = parser.parseClaimsJws(token).getBody();
+        verifiedClaims.put(digest, claims);
+        return claims;
     }
 
-    private Key getKey() {
-        return Keys.hmacShaKeyFor(
-                secret.getBytes(StandardCharsets.UTF_8)
-        );
+    private static Duration untilExpiry(Claims claims) {
+        Date expiration = claims.getExpiration();
+        if (expiration == null) {
+            return Duration.ZERO;
+        }
+        long millis = expiration.getTime() - System.currentTimeMillis();
+        return Duration.ofMillis(Math.max(millis, 0));
+    }
+
+    private static String digest(String token) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256")
+                    .digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
     }
-}
\ No newline at end of file
+}
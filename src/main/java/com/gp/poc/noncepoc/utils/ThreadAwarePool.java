@@ -0,0 +1,62 @@
+package com.gp.poc.noncepoc.utils;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+// Reuse of per-call scratch objects (Mac, buffers) on platform AND virtual
+// threads. Platform threads are few and long-lived: each keeps its own
+// instance (ThreadLocal), as before. A virtual thread lives for one request,
+// so a ThreadLocal would build a fresh instance per request; virtual
+// threads borrow from a small lock-free pool instead and hand the instance
+// back after the call (acquire/release, release in a finally).
+public final class ThreadAwarePool<T> {
+
+    private final Supplier<T> factory;
+    private final ThreadLocal<T> perThread;
+    private final AtomicReferenceArray<T> pooled;
+    private final int mask;
+
+    public ThreadAwarePool(Supplier<T> factory) {
+        this.factory = factory;
+        this.perThread = ThreadLocal.withInitial(factory);
+
+        // Only about one virtual thread per carrier runs at a time
+        int size = Integer.highestOneBit(
+                Math.max(4, Runtime.getRuntime().availableProcessors() * 4 - 1)) << 1;
+        this.pooled = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    public T acquire() {
+        Thread thread = Thread.currentThread();
+        if (!thread.isVirtual()) {
+            return perThread.get();
+        }
+
+        int start = (int) thread.threadId();
+        for (int i = 0; i <= mask; i++) {
+            int at = (start + i) & mask;
+            T instance = pooled.get(at);
+            if (instance != null && pooled.compareAndSet(at, instance, null)) {
+                return instance;
+            }
+        }
+        return factory.get();
+    }
+
+    // No-op on platform threads; a full pool drops the instance
+    public void release(T instance) {
+        Thread thread = Thread.currentThread();
+        if (!thread.isVirtual()) {
+            return;
+        }
+
+        int start = (int) thread.threadId();
+        for (int i = 0; i <= mask; i++) {
+            int at = (start + i) & mask;
+            if (pooled.get(at) == null && pooled.compareAndSet(at, null, instance)) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.gp.poc.noncepoc;
+
+import com.github.fppt.jedismock.RedisServer;
+import org.junit.jupiter.api.extension.AfterEachCallback;
+import org.junit.jupiter.api.extension.BeforeEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+// A fresh jedis-mock Redis per test, with a Lettuce connection factory and
+// the byte[] template the services take. Register it on an instance field:
+//
+//     @RegisterExtension
+//     final JedisMockRedis redis = new JedisMockRedis();
+//
+// It is up before the test's @BeforeEach and torn down after its @AfterEach,
+// so services built on it can still be shut down against a live server.
+public class JedisMockRedis implements BeforeEachCallback, AfterEachCallback {
+
+    private RedisServer server;
+    private LettuceConnectionFactory connectionFactory;
+    private RedisTemplate<byte[], byte[]> template;
+
+    @Override
+    public void beforeEach(ExtensionContext context) throws Exception {
+        server = RedisServer.newRedisServer().start();
+
+        connectionFactory = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration(
+                        server.getHost(),
+                        server.getBindPort()
+                )
+        );
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+
+        template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(RedisSerializer.byteArray());
+        template.setValueSerializer(RedisSerializer.byteArray());
+        template.afterPropertiesSet();
+    }
+
+    @Override
+    public void afterEach(ExtensionContext context) throws Exception {
+        connectionFactory.destroy();
+        server.stop();
+    }
+
+    public LettuceConnectionFactory connectionFactory() {
+        return connectionFactory;
+    }
+
+    public RedisTemplate<byte[], byte[]> template() {
+        return template;
+    }
+}
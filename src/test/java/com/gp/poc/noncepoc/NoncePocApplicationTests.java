@@ -1,13 +1,40 @@
 package com.gp.poc.noncepoc;
 
+import com.github.fppt.jedismock.RedisServer;
+import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
 
 @SpringBootTest
 class NoncePocApplicationTests {
 
+    private static final RedisServer REDIS = startRedis();
+
+    @DynamicPropertySource
+    static void redisProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.data.redis.host", REDIS::getHost);
+        registry.add("spring.data.redis.port", REDIS::getBindPort);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        REDIS.stop();
+    }
+
     @Test
     void contextLoads() {
     }
 
+    private static RedisServer startRedis() {
+        try {
+            return RedisServer.newRedisServer().start();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
 }
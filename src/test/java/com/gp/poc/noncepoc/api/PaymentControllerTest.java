@@ -0,0 +1,96 @@
+package com.gp.poc.noncepoc.api;
+
+import com.gp.poc.noncepoc.dto.PaymentBatchRequest;
+import com.gp.poc.noncepoc.dto.PaymentBatchResponse;
+import com.gp.poc.noncepoc.exception.SecurityViolationException;
+import com.gp.poc.noncepoc.service.PaymentBatchService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PaymentControllerTest {
+
+    // Records what reaches the service instead of touching Redis
+    private final List<List<PaymentBatchRequest.Item>> executed = new ArrayList<>();
+
+    private final PaymentController controller = new PaymentController(
+            new PaymentBatchService(null, null) {
+                @Override
+                public PaymentBatchResponse execute(String userId, List<PaymentBatchRequest.Item> items) {
+                    executed.add(items);
+                    return PaymentBatchResponse.builder().items(List.of()).build();
+                }
+            });
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(controller, "maxBatchItems", 3);
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken("user-123", null, List.of()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    // A v1 signature does not cover the body, so not the items either
+    @Test
+    void batchSignedWithoutTheBodyIsRejected() {
+        for (String version : new String[]{null, "1", " 2"}) {
+            assertThatThrownBy(() -> controller.executeBatch(version, batch("k1")))
+                    .isInstanceOfSatisfying(SecurityViolationException.class, e -> {
+                        assertThat(e.getHttpStatus()).isEqualTo(400);
+                        assertThat(e.getCode()).isEqualTo("INVALID_SIGNATURE_VERSION");
+                    });
+        }
+        assertThat(executed).isEmpty();
+    }
+
+    @Test
+    void invalidBatchesAreRejectedBeforeAnyItemRuns() {
+        for (PaymentBatchRequest request : List.of(
+                batch("k1", "k2", "k1"),        // duplicate key
+                batch("k1", " "),               // blank key
+                batch("k1", null),              // missing key
+                batch(),                        // empty
+                batch("k1", "k2", "k3", "k4")   // over max-items
+        )) {
+            assertThatThrownBy(() -> controller.executeBatch("2", request))
+                    .isInstanceOfSatisfying(SecurityViolationException.class, e -> {
+                        assertThat(e.getHttpStatus()).isEqualTo(400);
+                        assertThat(e.getCode()).isEqualTo("INVALID_REQUEST");
+                    });
+        }
+        assertThat(executed).isEmpty();
+    }
+
+    @Test
+    void validBatchReachesTheService() {
+        controller.executeBatch("2", batch("k1", "k2", "k3"));
+
+        assertThat(executed).hasSize(1);
+        assertThat(executed.get(0)).extracting(PaymentBatchRequest.Item::getIdempotencyKey)
+                .containsExactly("k1", "k2", "k3");
+    }
+
+    private static PaymentBatchRequest batch(String... keys) {
+        PaymentBatchRequest request = new PaymentBatchRequest();
+        request.setItems(Arrays.stream(keys).map(key -> {
+            PaymentBatchRequest.Item item = new PaymentBatchRequest.Item();
+            item.setIdempotencyKey(key);
+            return item;
+        }).toList());
+        return request;
+    }
+}
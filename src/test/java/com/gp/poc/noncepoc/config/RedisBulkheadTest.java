@@ -0,0 +1,64 @@
+package com.gp.poc.noncepoc.config;
+
+import com.gp.poc.noncepoc.exception.SecurityViolationException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RedisBulkheadTest {
+
+    private final SimpleMeterRegistry metrics = new SimpleMeterRegistry();
+
+    @Test
+    void callsOverTheCapWaitThenAreRefused() throws Exception {
+        RedisBulkhead bulkhead = new RedisBulkhead(true, 1, 50, metrics);
+
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        CompletableFuture<String> slow = CompletableFuture.supplyAsync(
+                () -> bulkhead.call(() -> {
+                    holding.countDown();
+                    await(done);
+                    return "slow";
+                }),
+                runnable -> Thread.ofVirtual().start(runnable)
+        );
+        holding.await();
+
+        assertThat(metrics.get("redis.bulkhead.active").gauge().value()).isEqualTo(1);
+        assertThatThrownBy(() -> bulkhead.call(() -> "refused"))
+                .isInstanceOfSatisfying(SecurityViolationException.class, e -> {
+                    assertThat(e.getHttpStatus()).isEqualTo(503);
+                    assertThat(e.getCode()).isEqualTo("REDIS_BUSY");
+                });
+        assertThat(metrics.get("redis.bulkhead.rejected").counter().count()).isEqualTo(1);
+        assertThat(metrics.get("redis.bulkhead.queue").timer()
+                .totalTime(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(50);
+
+        done.countDown();
+        assertThat(slow.get(5, TimeUnit.SECONDS)).isEqualTo("slow");
+        assertThat(bulkhead.call(() -> "after")).isEqualTo("after");
+    }
+
+    @Test
+    void disabledBulkheadRunsEverythingDirectly() {
+        RedisBulkhead bulkhead = new RedisBulkhead(false, 1, 0, metrics);
+
+        assertThat(bulkhead.call(() -> bulkhead.call(() -> "nested"))).isEqualTo("nested");
+        assertThat(metrics.get("redis.bulkhead.queue").timer().count()).isZero();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
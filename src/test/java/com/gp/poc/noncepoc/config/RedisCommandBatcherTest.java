@@ -0,0 +1,109 @@
+package com.gp.poc.noncepoc.config;
+
+import com.gp.poc.noncepoc.JedisMockRedis;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RedisCommandBatcherTest {
+
+    private static final int CALLERS = 16;
+
+    private final SimpleMeterRegistry metrics = new SimpleMeterRegistry();
+
+    @RegisterExtension
+    final JedisMockRedis redis = new JedisMockRedis();
+
+    private RedisCommandBatcher batcher;
+    private RedisTemplate<String, String> template;
+
+    @BeforeEach
+    void setUp() {
+        // A wide window, so that the concurrent callers below share flushes
+        batcher = new RedisCommandBatcher(redis.connectionFactory(), true, 1_000, 20_000, metrics);
+        template = new LoadShapingRedisTemplate<>(
+                new RedisBulkhead(false, 1, 0, metrics), batcher);
+        template.setConnectionFactory(redis.connectionFactory());
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setValueSerializer(new StringRedisSerializer());
+        template.afterPropertiesSet();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        batcher.shutdown();
+    }
+
+    @Test
+    void concurrentCommandsAndPipelinesShareFlushes() throws Exception {
+        List<Future<List<Object>>> results = new ArrayList<>();
+        try (ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < CALLERS; i++) {
+                String key = "nonce:" + i;
+                results.add(callers.submit(() -> List.of(
+                        template.opsForValue().setIfAbsent(key, "USED", Duration.ofMinutes(5)),
+                        template.opsForValue().setIfAbsent(key, "USED", Duration.ofMinutes(5)),
+                        template.executePipelined((RedisCallback<Object>) connection -> {
+                            connection.stringCommands().get(key.getBytes());
+                            connection.keyCommands().pTtl(key.getBytes());
+                            connection.keyCommands().exists(key.getBytes());
+                            return null;
+                        }, null)
+                )));
+            }
+        }
+
+        for (Future<List<Object>> result : results) {
+            List<Object> replies = result.get();
+            assertThat(replies.get(0)).isEqualTo(true);
+            assertThat(replies.get(1)).isEqualTo(false);
+
+            List<?> pipeline = (List<?>) replies.get(2);
+            assertThat((byte[]) pipeline.get(0)).asString().isEqualTo("USED");
+            assertThat((Long) pipeline.get(1)).isPositive();
+            assertThat(pipeline.get(2)).isEqualTo(true);
+        }
+
+        DistributionSummary flushed = metrics.get("redis.batch.commands").summary();
+        assertThat(flushed.totalAmount()).isEqualTo(CALLERS * 5);
+        assertThat(flushed.count()).isLessThan(CALLERS * 3);
+        assertThat(flushed.max()).isGreaterThan(3);
+    }
+
+    @Test
+    void scriptsAndCommandsItDoesNotBatchStillWork() {
+        RedisScript<Long> script = RedisScript.of(
+                "return redis.call('INCRBY', KEYS[1], ARGV[1])", Long.class);
+
+        // EVALSHA fails with NOSCRIPT, then EVAL: both through the batcher
+        assertThat(template.execute(script, List.of("counter"), "2")).isEqualTo(2);
+        assertThat(template.execute(script, List.of("counter"), "3")).isEqualTo(5);
+
+        // HSET is not batched: the recorded GET goes to a real pipeline first
+        template.opsForValue().set("plain", "value");
+        List<Object> replies = template.executePipelined((RedisCallback<Object>) connection -> {
+            connection.stringCommands().get("plain".getBytes());
+            connection.hashCommands().hSet("hash".getBytes(), "f".getBytes(), "v".getBytes());
+            connection.keyCommands().exists("hash".getBytes());
+            return null;
+        });
+        assertThat(replies).containsExactly("value", true, true);
+        assertThat(template.opsForValue().increment("counter")).isEqualTo(6);
+    }
+}
@@ -0,0 +1,164 @@
+package com.gp.poc.noncepoc.exception;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gp.poc.noncepoc.security.SecurityMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.annotation.AnnotationAwareOrderComparator;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import org.springframework.web.servlet.HandlerExceptionResolver;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// SecurityErrorWriter is a HandlerExceptionResolver bean, so the
+// DispatcherServlet sees it too: controller exceptions must still reach
+// GlobalExceptionHandler first
+class GlobalExceptionHandlerTest {
+
+    private AnnotationConfigWebApplicationContext context;
+    private MockMvc mockMvc;
+    private CountingErrorWriter errorWriter;
+
+    @BeforeEach
+    void setUp() {
+        context = new AnnotationConfigWebApplicationContext();
+        context.setServletContext(new MockServletContext());
+        context.register(WebConfig.class);
+        context.refresh();
+
+        mockMvc = MockMvcBuilders.webAppContextSetup(context).build();
+        errorWriter = context.getBean(CountingErrorWriter.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        context.close();
+    }
+
+    @Test
+    void errorWriterIsTheLastResolver() {
+        List<HandlerExceptionResolver> resolvers = new ArrayList<>(
+                context.getBeansOfType(HandlerExceptionResolver.class).values());
+        AnnotationAwareOrderComparator.sort(resolvers);
+
+        assertThat(resolvers).hasSizeGreaterThan(1);
+        assertThat(resolvers.get(resolvers.size() - 1)).isSameAs(errorWriter);
+    }
+
+    @Test
+    void controllerViolationIsHandledByGlobalExceptionHandler() throws Exception {
+        mockMvc.perform(get("/violation"))
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.code").value("IDEMPOTENT_REQUEST_IN_PROGRESS"))
+                .andExpect(jsonPath("$.path").value("/violation"));
+
+        mockMvc.perform(get("/new-violation"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.code").value("INVALID_REQUEST"))
+                .andExpect(jsonPath("$.message").value("Duplicate idempotencyKey in batch: k1"));
+
+        // Written through GlobalExceptionHandler, never resolved directly
+        assertThat(errorWriter.written).hasValue(2);
+        assertThat(errorWriter.resolved).hasValue(0);
+    }
+
+    @Test
+    void otherExceptionsStillGetTheGenericError() throws Exception {
+        mockMvc.perform(get("/failure"))
+                .andExpect(status().isInternalServerError())
+                .andExpect(jsonPath("$.code").value("INTERNAL_SERVER_ERROR"));
+
+        assertThat(errorWriter.written).hasValue(0);
+    }
+
+    @Configuration
+    @EnableWebMvc
+    @Import({GlobalExceptionHandler.class, ThrowingController.class})
+    static class WebConfig {
+
+        @Bean
+        ObjectMapper objectMapper() {
+            return Jackson2ObjectMapperBuilder.json().build();
+        }
+
+        @Bean
+        CountingErrorWriter securityErrorWriter(ObjectMapper objectMapper) {
+            return new CountingErrorWriter(
+                    objectMapper, new SecurityMetrics(new SimpleMeterRegistry()));
+        }
+    }
+
+    @RestController
+    static class ThrowingController {
+
+        @GetMapping("/violation")
+        String violation() {
+            throw SecurityViolations.IDEMPOTENT_REQUEST_IN_PROGRESS;
+        }
+
+        @GetMapping("/new-violation")
+        String newViolation() {
+            throw new SecurityViolationException(
+                    400, "INVALID_REQUEST", "Duplicate idempotencyKey in batch: k1");
+        }
+
+        @GetMapping("/failure")
+        String failure() {
+            throw new IllegalStateException("boom");
+        }
+    }
+
+    static class CountingErrorWriter extends SecurityErrorWriter {
+
+        final AtomicInteger written = new AtomicInteger();
+        final AtomicInteger resolved = new AtomicInteger();
+
+        CountingErrorWriter(ObjectMapper objectMapper, SecurityMetrics metrics) {
+            super(objectMapper, metrics);
+        }
+
+        @Override
+        public ModelAndView resolveException(
+                HttpServletRequest request,
+                HttpServletResponse response,
+                Object handler,
+                Exception ex
+        ) {
+            resolved.incrementAndGet();
+            return super.resolveException(request, response, handler, ex);
+        }
+
+        @Override
+        public void write(
+                HttpServletRequest request,
+                HttpServletResponse response,
+                SecurityViolationException violation
+        ) throws IOException {
+            written.incrementAndGet();
+            super.write(request, response, violation);
+        }
+    }
+}
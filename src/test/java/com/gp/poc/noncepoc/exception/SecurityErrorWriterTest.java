@@ -0,0 +1,94 @@
+package com.gp.poc.noncepoc.exception;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gp.poc.noncepoc.dto.ErrorResponse;
+import com.gp.poc.noncepoc.security.SecurityMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SecurityErrorWriterTest {
+
+    // How Spring MVC's Jackson converter serialized the ErrorResponse
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private final SecurityErrorWriter writer =
+            new SecurityErrorWriter(objectMapper, new SecurityMetrics(new SimpleMeterRegistry()));
+
+    @Test
+    void bodyIsByteForByteWhatJacksonWrote() throws Exception {
+        List<SecurityViolationException> violations = new ArrayList<>(SecurityViolations.ALL);
+        violations.add(new SecurityViolationException(
+                400, "INVALID_REQUEST", "Duplicate idempotencyKey in batch: \"x\"\\é\n"));
+
+        List<Instant> instants = List.of(
+                Instant.parse("2026-10-18T08:47:11Z"),
+                Instant.parse("2026-10-18T08:47:11.250Z"),
+                Instant.parse("2026-10-18T08:47:11.000250Z"),
+                Instant.parse("2026-10-18T08:47:11.254328377Z"),
+                Instant.parse("2026-10-18T08:47:11.000000001Z"),
+                Instant.parse("1969-12-31T23:59:59.999Z"),
+                Instant.parse("+10000-01-01T00:00:00.5Z"),
+                Instant.now()
+        );
+
+        List<String> paths = List.of(
+                "/api/payments/execute",
+                "/api/payments/%22x%22",
+                "/api/\"quoted\"\\path",
+                "/api/ünïcode",
+                "/api/tab\tnew\nline\u0001",
+                ""
+        );
+
+        for (SecurityViolationException violation : violations) {
+            for (Instant instant : instants) {
+                for (String path : paths) {
+                    String expected = objectMapper.writeValueAsString(ErrorResponse.builder()
+                            .code(violation.getCode())
+                            .message(violation.getMessage())
+                            .timestamp(instant.toString())
+                            .path(path)
+                            .build());
+
+                    assertThat(new String(writer.body(violation, instant, path),
+                            StandardCharsets.UTF_8)).isEqualTo(expected);
+                }
+            }
+        }
+    }
+
+    @Test
+    void writesStatusJsonAndLength() throws Exception {
+        MockHttpServletRequest request =
+                new MockHttpServletRequest("POST", "/api/payments/execute");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        response.setContentType("application/x-ndjson");
+
+        writer.resolveException(request, response, null, SecurityViolations.REPLAY_ATTACK);
+
+        assertThat(response.getStatus()).isEqualTo(401);
+        assertThat(response.getContentType()).isEqualTo("application/json");
+        assertThat(response.getContentLength())
+                .isEqualTo(response.getContentAsByteArray().length);
+        assertThat(objectMapper.readValue(response.getContentAsByteArray(), ErrorResponse.class)
+                .getCode()).isEqualTo("REPLAY_ATTACK");
+    }
+
+    @Test
+    void preallocatedViolationsAreStackless() {
+        for (SecurityViolationException violation : SecurityViolations.ALL) {
+            assertThat(violation.getStackTrace()).isEmpty();
+            violation.addSuppressed(new IllegalStateException());
+            assertThat(violation.getSuppressed()).isEmpty();
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package com.gp.poc.noncepoc.security;
+
+import com.gp.poc.noncepoc.JedisMockRedis;
+import com.gp.poc.noncepoc.exception.SecurityViolationException;
+import com.gp.poc.noncepoc.exception.SecurityViolations;
+import com.gp.poc.noncepoc.service.IdempotencyService;
+import com.gp.poc.noncepoc.service.IdempotencyWaiters;
+import com.gp.poc.noncepoc.service.RedisKeyCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.HandlerExceptionResolver;
+import org.springframework.web.servlet.ModelAndView;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IdempotencyFilterTest {
+
+    private static final String USER_ID = "user-123";
+    private static final String PATH = "/api/payments/execute";
+
+    private final RedisKeyCodec keyCodec =
+            new RedisKeyCodec(RedisKeyCodec.Mode.COMPACT, "test-hash-secret");
+
+    @RegisterExtension
+    final JedisMockRedis redis = new JedisMockRedis();
+
+    private RedisTemplate<byte[], byte[]> template;
+    private RedisMessageListenerContainer listeners;
+
+    // Two "nodes" sharing one Redis
+    private Node nodeA;
+    private Node nodeB;
+
+    @BeforeEach
+    void setUp() {
+        template = redis.template();
+
+        listeners = new RedisMessageListenerContainer();
+        listeners.setConnectionFactory(redis.connectionFactory());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        nodeA.service.shutdown();
+        if (nodeB != null) {
+            nodeB.service.shutdown();
+        }
+        listeners.destroy();
+    }
+
+    // A retry gets the first response back: status, the replay headers and
+    // the body, byte for byte, without running the handler again
+    @Test
+    void replaysTheCapturedResponse() throws Exception {
+        nodeA = new Node(false);
+        AtomicInteger runs = new AtomicInteger();
+        FilterChain created = (req, res) -> {
+            runs.incrementAndGet();
+            HttpServletResponse response = (HttpServletResponse) res;
+            response.setStatus(201);
+            response.setContentType("application/json");
+            response.setHeader("Location", "/api/payments/p-1");
+            response.setHeader("X-Request-Id", "not-replayed");
+            response.getOutputStream().write(
+                    "{\"status\":\"PAYMENT_SUCCESS\"}".getBytes(StandardCharsets.UTF_8));
+        };
+
+        MockHttpServletResponse first = nodeA.send(request("k1"), created);
+        MockHttpServletResponse retry = nodeA.send(request("k1"), created);
+
+        assertThat(runs).hasValue(1);
+        assertThat(first.getStatus()).isEqualTo(201);
+        assertThat(first.getHeader("X-Request-Id")).isEqualTo("not-replayed");
+        assertThat(retry.getStatus()).isEqualTo(201);
+        assertThat(retry.getContentType()).isEqualTo("application/json");
+        assertThat(retry.getHeader("Location")).isEqualTo("/api/payments/p-1");
+        assertThat(retry.getHeader("X-Request-Id")).isNull();
+        assertThat(retry.getContentAsByteArray()).isEqualTo(first.getContentAsByteArray());
+    }
+
+    // Above compression-threshold-bytes the stored form is deflated
+    @Test
+    void replaysALargeResponseUnchanged() throws Exception {
+        nodeA = new Node(false);
+        byte[] body = ("{\"items\":\"" + "x".repeat(4096) + "\"}")
+                .getBytes(StandardCharsets.UTF_8);
+
+        nodeA.send(request("k1"), (req, res) -> res.getOutputStream().write(body));
+        MockHttpServletResponse retry = nodeA.send(request("k1"), (req, res) -> {
+            throw new AssertionError("Retry must be replayed");
+        });
+
+        assertThat(retry.getStatus()).isEqualTo(200);
+        assertThat(retry.getContentAsByteArray()).isEqualTo(body);
+        assertThat(retry.getContentLength()).isEqualTo(body.length);
+    }
+
+    // A rejection is not the outcome of the key: the corrected retry runs
+    @Test
+    void rejectionsAndFailuresAreNotStored() throws Exception {
+        nodeA = new Node(false);
+
+        for (int status : new int[]{400, 401, 409, 422, 500, 503}) {
+            String key = "k-" + status;
+            MockHttpServletResponse rejected = nodeA.send(request(key), (req, res) ->
+                    ((HttpServletResponse) res).sendError(status, "REJECTED"));
+            assertThat(rejected.getStatus()).isEqualTo(status);
+
+            // Lease released right away: no 409 in progress, the handler runs
+            MockHttpServletResponse retry = nodeA.send(request(key), ok());
+            assertThat(retry.getStatus()).as("retry after %d", status).isEqualTo(200);
+            assertThat(retry.getContentAsString()).contains("PAYMENT_SUCCESS");
+        }
+    }
+
+    // Same for a violation thrown by a later filter or the handler
+    @Test
+    void thrownViolationReleasesTheKey() throws Exception {
+        nodeA = new Node(false);
+
+        MockHttpServletResponse rejected = nodeA.send(request("k1"), (req, res) -> {
+            throw SecurityViolations.INVALID_SIGNATURE;
+        });
+        assertThat(rejected.getStatus()).isEqualTo(401);
+
+        assertThat(nodeA.send(request("k1"), ok()).getStatus()).isEqualTo(200);
+    }
+
+    // A replay runs no handler: a v2 body is verified before the stored
+    // response is handed out
+    @Test
+    void signedBodyIsVerifiedBeforeAReplay() throws Exception {
+        nodeA = new Node(false);
+        nodeA.send(request("k1"), ok());
+
+        AtomicInteger verified = new AtomicInteger();
+        MockHttpServletResponse forged = nodeA.send(
+                new SignedBodyRequestWrapper(request("k1"), bodySha256 -> {
+                    throw SecurityViolations.INVALID_SIGNATURE;
+                }), ok());
+        MockHttpServletResponse genuine = nodeA.send(
+                new SignedBodyRequestWrapper(request("k1"), bodySha256 ->
+                        verified.incrementAndGet()), ok());
+
+        assertThat(forged.getStatus()).isEqualTo(401);
+        assertThat(forged.getContentAsString()).doesNotContain("PAYMENT_SUCCESS");
+        assertThat(genuine.getStatus()).isEqualTo(200);
+        assertThat(genuine.getContentAsString()).contains("PAYMENT_SUCCESS");
+        assertThat(verified).hasValue(1);
+    }
+
+    // security.idempotency.wait-for-result: a duplicate on another node is
+    // parked until the owner is done, then answered with its response,
+    // read from Redis (the broadcast only names the key)
+    @Test
+    void duplicateOnAnotherNodeWaitsForTheOwnersResponse() throws Exception {
+        nodeA = new Node(true);
+        nodeB = new Node(true);
+        listen(nodeB.waiters);
+
+        CountDownLatch ownerRunning = new CountDownLatch(1);
+        CountDownLatch finishOwner = new CountDownLatch(1);
+        CompletableFuture<MockHttpServletResponse> owner = CompletableFuture.supplyAsync(() ->
+                nodeA.send(request("k1"), (req, res) -> {
+                    ownerRunning.countDown();
+                    await(finishOwner);
+                    HttpServletResponse response = (HttpServletResponse) res;
+                    response.setStatus(201);
+                    response.setContentType("application/json");
+                    response.setHeader("Location", "/api/payments/p-1");
+                    response.getOutputStream().write(
+                            "{\"status\":\"PAYMENT_SUCCESS\"}".getBytes(StandardCharsets.UTF_8));
+                }));
+        assertThat(ownerRunning.await(5, TimeUnit.SECONDS)).isTrue();
+
+        MockHttpServletRequest duplicate = request("k1");
+        duplicate.setAsyncSupported(true);
+        MockHttpServletResponse waiting = nodeB.send(duplicate, (req, res) -> {
+            throw new AssertionError("Duplicate must not run");
+        });
+
+        // Parked, not a 409
+        assertThat(duplicate.isAsyncStarted()).isTrue();
+        CountDownLatch answered = completion(duplicate);
+
+        finishOwner.countDown();
+        assertThat(owner.get(5, TimeUnit.SECONDS).getStatus()).isEqualTo(201);
+        assertThat(answered.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(waiting.getStatus()).isEqualTo(201);
+        assertThat(waiting.getHeader("Location")).isEqualTo("/api/payments/p-1");
+        assertThat(waiting.getContentAsString()).isEqualTo("{\"status\":\"PAYMENT_SUCCESS\"}");
+    }
+
+    // Nobody waits: owners do not publish on the completion channel
+    @Test
+    void ownersAnnounceNothingWhenWaitingIsOff() throws Exception {
+        nodeA = new Node(false);
+        nodeB = new Node(false);
+        BlockingQueue<String> announced = new LinkedBlockingQueue<>();
+        listeners.addMessageListener(
+                (message, pattern) -> announced.add(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(IdempotencyWaiters.COMPLETION_CHANNEL));
+        start();
+
+        assertThat(nodeA.send(request("k1"), ok()).getStatus()).isEqualTo(200);
+        assertThat(nodeA.send(request("k2"), (req, res) ->
+                ((HttpServletResponse) res).setStatus(500)).getStatus()).isEqualTo(500);
+
+        // Anything published before this marker would arrive before it
+        template.convertAndSend(IdempotencyWaiters.COMPLETION_CHANNEL,
+                "marker".getBytes(StandardCharsets.UTF_8));
+        assertThat(announced.poll(5, TimeUnit.SECONDS)).isEqualTo("marker");
+        assertThat(announced).isEmpty();
+    }
+
+    private void listen(IdempotencyWaiters waiters) throws Exception {
+        listeners.addMessageListener(waiters,
+                new ChannelTopic(IdempotencyWaiters.COMPLETION_CHANNEL));
+        start();
+    }
+
+    private void start() throws Exception {
+        listeners.afterPropertiesSet();
+        listeners.start();
+    }
+
+    private static MockHttpServletRequest request(String idempotencyKey) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", PATH);
+        request.addHeader("Idempotency-Key", idempotencyKey);
+        return request;
+    }
+
+    private static FilterChain ok() {
+        return (req, res) -> {
+            res.setContentType("application/json");
+            res.getOutputStream().write(
+                    "{\"status\":\"PAYMENT_SUCCESS\"}".getBytes(StandardCharsets.UTF_8));
+        };
+    }
+
+    private static CountDownLatch completion(MockHttpServletRequest request) {
+        CountDownLatch completed = new CountDownLatch(1);
+        request.getAsyncContext().addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+                completed.countDown();
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+        return completed;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // IdempotencyService + IdempotencyFilter of one node
+    private final class Node {
+
+        final IdempotencyWaiters waiters = new IdempotencyWaiters(keyCodec);
+        final IdempotencyService service;
+        final IdempotencyFilter filter;
+
+        Node(boolean waitForResult) {
+            ReflectionTestUtils.setField(waiters, "enabled", waitForResult);
+            ReflectionTestUtils.setField(waiters, "timeoutMs", 5_000L);
+            SimpleMeterRegistry registry = new SimpleMeterRegistry();
+            service = new IdempotencyService(template, waiters, keyCodec, registry, 512, 10_000);
+            filter = new IdempotencyFilter(service, waiters, keyCodec,
+                    new SecurityMetrics(registry), new StatusWritingResolver());
+            ReflectionTestUtils.setField(filter, "replayHeaders",
+                    List.of("Content-Type", "Location"));
+        }
+
+        MockHttpServletResponse send(HttpServletRequest request, FilterChain chain) {
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            SecurityContextHolder.getContext().setAuthentication(
+                    new UsernamePasswordAuthenticationToken(USER_ID, null, List.of()));
+            try {
+                filter.doFilter(request, response, chain);
+                return response;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            } finally {
+                SecurityContextHolder.clearContext();
+            }
+        }
+    }
+
+    // Stands in for SecurityErrorWriter: records status + violation code
+    private static class StatusWritingResolver implements HandlerExceptionResolver {
+
+        @Override
+        public ModelAndView resolveException(
+                HttpServletRequest request,
+                HttpServletResponse response,
+                Object handler,
+                Exception ex
+        ) {
+            SecurityViolationException violation = (SecurityViolationException) ex;
+            try {
+                response.sendError(violation.getHttpStatus(), violation.getCode());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return new ModelAndView();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.gp.poc.noncepoc.security;
+
+import com.gp.poc.noncepoc.utils.JwtUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JwtAuthenticationFilterTest {
+
+    private final JwtUtil jwtUtil = new JwtUtil();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private JwtAuthenticationFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(jwtUtil, "secret", "test-jwt-secret-test-jwt-secret-test-jwt-secret");
+        ReflectionTestUtils.setField(jwtUtil, "issuer", "gp-nonce-poc");
+        ReflectionTestUtils.setField(jwtUtil, "accessTokenTtl", 900L);
+        ReflectionTestUtils.setField(jwtUtil, "claimsCacheMaxSize", 100L);
+        jwtUtil.init();
+
+        filter = new JwtAuthenticationFilter(jwtUtil, new SecurityMetrics(registry));
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void validTokenAuthenticatesTheRestOfTheChain() throws Exception {
+        AtomicReference<Object> principal = new AtomicReference<>();
+        MockHttpServletRequest request = request("Bearer " + jwtUtil.generateToken("user-123", "device-abc"));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filter.doFilter(request, response, (req, res) -> principal.set(
+                SecurityContextHolder.getContext().getAuthentication().getPrincipal()));
+
+        assertThat(principal).hasValue("user-123");
+        assertThat(request.getAttribute(JwtAuthenticationFilter.DEVICE_ID)).isEqualTo("device-abc");
+        assertThat(response.getStatus()).isEqualTo(200);
+    }
+
+    @Test
+    void badTokenIsA401AndStopsTheChain() throws Exception {
+        for (String header : new String[]{"Bearer not-a-jwt", "Bearer ", null}) {
+            MockHttpServletResponse response = new MockHttpServletResponse();
+
+            filter.doFilter(request(header), response, (req, res) -> {
+                throw new AssertionError("Chain must not run");
+            });
+
+            assertThat(response.getStatus()).as(header).isEqualTo(401);
+        }
+        assertThat(rejections("JWT_INVALID")).isEqualTo(2.0);
+        assertThat(rejections("JWT_MISSING")).isEqualTo(1.0);
+    }
+
+    // A failure further down the chain is not an invalid token: it
+    // propagates instead of being rewritten into a 401
+    @Test
+    void failuresAfterAuthenticationAreNotTurnedInto401() {
+        String token = jwtUtil.generateToken("user-123", "device-abc");
+
+        assertThatThrownBy(() -> filter.doFilter(request("Bearer " + token),
+                new MockHttpServletResponse(), (req, res) -> {
+                    throw new IllegalStateException("handler failed");
+                }))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("handler failed");
+
+        assertThatThrownBy(() -> filter.doFilter(request("Bearer " + token),
+                new MockHttpServletResponse(), (req, res) -> {
+                    throw new IOException("client gone");
+                }))
+                .isInstanceOf(IOException.class);
+
+        assertThat(rejections("JWT_INVALID")).isZero();
+    }
+
+    private static MockHttpServletRequest request(String authorization) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/payments/execute");
+        if (authorization != null) {
+            request.addHeader("Authorization", authorization);
+        }
+        return request;
+    }
+
+    private double rejections(String code) {
+        var counter = registry.find("security.rejections").tag("code", code).counter();
+        return counter == null ? 0 : counter.count();
+    }
+}
@@ -0,0 +1,482 @@
+package com.gp.poc.noncepoc.security;
+
+import com.gp.poc.noncepoc.JedisMockRedis;
+import com.gp.poc.noncepoc.exception.SecurityViolationException;
+import com.gp.poc.noncepoc.service.DerivedSessionKeys;
+import com.gp.poc.noncepoc.service.RedisKeyCodec;
+import com.gp.poc.noncepoc.service.RedisNonceService;
+import com.gp.poc.noncepoc.service.SecurityLookupService;
+import com.gp.poc.noncepoc.service.SessionKeyNearCache;
+import com.gp.poc.noncepoc.service.SessionKeyService;
+import com.gp.poc.noncepoc.utils.CanonicalPayload;
+import com.gp.poc.noncepoc.utils.HmacUtil;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.http.HttpServletRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerExceptionResolver;
+import org.springframework.web.servlet.ModelAndView;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NonceSecurityFilterConcurrencyTest {
+
+    private static final int THREADS = 32;
+    private static final String USER_ID = "user-123";
+    private static final String DEVICE_ID = "device-abc";
+
+    private final SimpleMeterRegistry metrics = new SimpleMeterRegistry();
+
+    @RegisterExtension
+    final JedisMockRedis redis = new JedisMockRedis();
+
+    private RedisTemplate<byte[], byte[]> redisTemplate;
+    private NonceSecurityFilter filter;
+    private SessionKeyService sessionKeyService;
+    private String sessionKey;
+
+    @BeforeEach
+    void setUp() {
+        redisTemplate = redis.template();
+    }
+
+    private void createFilter(
+            RedisKeyCodec.Mode keyMode,
+            RedisNonceService.Storage nonceStorage
+    ) {
+        RedisKeyCodec keyCodec = new RedisKeyCodec(keyMode, "test-hash-secret");
+
+        SessionKeyNearCache nearCache = new SessionKeyNearCache(
+                redisTemplate, keyCodec, metrics, 1_000, 1_000, 5_000);
+        sessionKeyService = new SessionKeyService(redisTemplate, nearCache, keyCodec);
+        sessionKey = sessionKeyService.issueSessionKey(USER_ID, DEVICE_ID);
+
+        RedisNonceService nonceService =
+                new RedisNonceService(redisTemplate, keyCodec, nonceStorage, 300, 300, 1024);
+
+        filter = new NonceSecurityFilter(
+                nonceService,
+                new SecurityLookupService(redisTemplate, nearCache, nonceService),
+                keyCodec,
+                new DerivedSessionKeys(redisTemplate, keyCodec,
+                        DerivedSessionKeys.Mode.STORED, "", List.of(), 5_000),
+                new SecurityMetrics(metrics),
+                new StatusWritingResolver()
+        );
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "LEGACY, KEYS", "MIGRATE, KEYS", "COMPACT, KEYS",
+            "MIGRATE, BUCKETS", "COMPACT, BUCKETS",
+            "MIGRATE, COUNTER_WINDOW", "COMPACT, COUNTER_WINDOW"
+    })
+    void sameSignedRequestIsAcceptedExactlyOnceUnderConcurrency(
+            RedisKeyCodec.Mode keyMode,
+            RedisNonceService.Storage nonceStorage
+    ) throws Exception {
+        createFilter(keyMode, nonceStorage);
+
+        String nonce = nonceStorage == RedisNonceService.Storage.COUNTER_WINDOW
+                ? "42"
+                : UUID.randomUUID().toString();
+        long timestamp = Instant.now().getEpochSecond();
+        String signature = HmacUtil.generateHmacSha256(
+                sessionKey,
+                "POST\n/api/payments/execute\n" + timestamp + "\n" + nonce
+        );
+
+        AtomicInteger passedThrough = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+
+        List<Future<MockHttpServletResponse>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(pool.submit(() -> {
+                SecurityContextHolder.getContext().setAuthentication(
+                        new UsernamePasswordAuthenticationToken(USER_ID, null, List.of())
+                );
+
+                MockHttpServletRequest request = signedRequest(nonce, timestamp, signature);
+                MockHttpServletResponse response = new MockHttpServletResponse();
+
+                start.await();
+                try {
+                    filter.doFilter(request, response,
+                            (req, res) -> passedThrough.incrementAndGet());
+                } finally {
+                    SecurityContextHolder.clearContext();
+                }
+                return response;
+            }));
+        }
+
+        start.countDown();
+
+        int replays = 0;
+        for (Future<MockHttpServletResponse> result : results) {
+            MockHttpServletResponse response = result.get();
+            if (response.getStatus() == 401
+                    && "REPLAY_ATTACK".equals(response.getErrorMessage())) {
+                replays++;
+            }
+        }
+        pool.shutdown();
+
+        assertThat(passedThrough.get()).isEqualTo(1);
+        assertThat(replays).isEqualTo(THREADS - 1);
+        assertThat(metrics.get("redis.operation")
+                .tag("operation", "security-lookup").timer().count())
+                .isEqualTo(THREADS);
+    }
+
+    // security.redis.async: every copy is parked while Redis answers, then
+    // resumed on an ASYNC dispatch, where exactly one passes
+    @ParameterizedTest
+    @CsvSource({
+            "MIGRATE, KEYS", "COMPACT, KEYS",
+            "MIGRATE, BUCKETS", "COMPACT, BUCKETS",
+            "MIGRATE, COUNTER_WINDOW", "COMPACT, COUNTER_WINDOW"
+    })
+    void parkedCopiesOfOneSignedRequestAreAcceptedExactlyOnce(
+            RedisKeyCodec.Mode keyMode,
+            RedisNonceService.Storage nonceStorage
+    ) throws Exception {
+        createFilter(keyMode, nonceStorage);
+        ReflectionTestUtils.setField(filter, "asyncRedis", true);
+        ReflectionTestUtils.setField(filter, "asyncTimeoutMs", 5_000L);
+
+        String nonce = nonceStorage == RedisNonceService.Storage.COUNTER_WINDOW
+                ? "42"
+                : UUID.randomUUID().toString();
+        long timestamp = Instant.now().getEpochSecond();
+        String signature = HmacUtil.generateHmacSha256(
+                sessionKey,
+                "POST\n/api/payments/execute\n" + timestamp + "\n" + nonce
+        );
+
+        AtomicInteger passedThrough = new AtomicInteger();
+        List<MockHttpServletRequest> requests = new ArrayList<>();
+        List<MockHttpServletResponse> responses = new ArrayList<>();
+        List<CompletableFuture<Void>> dispatched = new ArrayList<>();
+
+        for (int i = 0; i < THREADS; i++) {
+            MockHttpServletRequest request = signedRequest(nonce, timestamp, signature);
+            request.setAsyncSupported(true);
+            MockHttpServletResponse response = new MockHttpServletResponse();
+
+            filterAs(USER_ID, request, response, passedThrough);
+
+            // Parked: nothing has passed or been answered yet
+            assertThat(request.isAsyncStarted()).isTrue();
+            CompletableFuture<Void> resumed = new CompletableFuture<>();
+            ((MockAsyncContext) request.getAsyncContext())
+                    .addDispatchHandler(() -> resumed.complete(null));
+
+            requests.add(request);
+            responses.add(response);
+            dispatched.add(resumed);
+        }
+        assertThat(passedThrough.get()).isZero();
+
+        int replays = 0;
+        for (int i = 0; i < THREADS; i++) {
+            dispatched.get(i).get(5, TimeUnit.SECONDS);
+            requests.get(i).setDispatcherType(DispatcherType.ASYNC);
+            filterAs(USER_ID, requests.get(i), responses.get(i), passedThrough);
+
+            if (responses.get(i).getStatus() == 401
+                    && "REPLAY_ATTACK".equals(responses.get(i).getErrorMessage())) {
+                replays++;
+            }
+        }
+
+        assertThat(passedThrough.get()).isEqualTo(1);
+        assertThat(replays).isEqualTo(THREADS - 1);
+    }
+
+    // A device without a session costs one Redis lookup, not one per
+    // request, and malformed headers none; a login lifts it at once
+    @Test
+    void floodOfHopelessRequestsDoesNotReachRedis() throws Exception {
+        createFilter(RedisKeyCodec.Mode.COMPACT, RedisNonceService.Storage.KEYS);
+        String unknownDevice = "device-unknown";
+        long timestamp = Instant.now().getEpochSecond();
+
+        for (int i = 0; i < THREADS; i++) {
+            String nonce = UUID.randomUUID().toString();
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            filterAs(USER_ID, signedRequest(unknownDevice, nonce, timestamp,
+                    HmacUtil.generateHmacSha256("no-session", nonce)), response, null);
+            assertThat(response.getErrorMessage()).isEqualTo("SESSION_EXPIRED");
+        }
+
+        MockHttpServletResponse longNonce = new MockHttpServletResponse();
+        filterAs(USER_ID, signedRequest(DEVICE_ID, "n".repeat(200), timestamp,
+                HmacUtil.generateHmacSha256(sessionKey, "x")), longNonce, null);
+        assertThat(longNonce.getErrorMessage()).isEqualTo("INVALID_NONCE");
+
+        MockHttpServletResponse notBase64 = new MockHttpServletResponse();
+        filterAs(USER_ID, signedRequest(DEVICE_ID, UUID.randomUUID().toString(),
+                timestamp, "not-a-signature!"), notBase64, null);
+        assertThat(notBase64.getErrorMessage()).isEqualTo("INVALID_SIGNATURE");
+
+        assertThat(securityLookups()).isEqualTo(1);
+
+        String issued = sessionKeyService.issueSessionKey(USER_ID, unknownDevice);
+        String nonce = UUID.randomUUID().toString();
+        AtomicInteger passedThrough = new AtomicInteger();
+        filterAs(USER_ID, signedRequest(unknownDevice, nonce, timestamp,
+                HmacUtil.generateHmacSha256(issued,
+                        "POST\n/api/payments/execute\n" + timestamp + "\n" + nonce)),
+                new MockHttpServletResponse(), passedThrough);
+
+        assertThat(passedThrough.get()).isEqualTo(1);
+        assertThat(securityLookups()).isEqualTo(2);
+    }
+
+    // v2 is hashed as the body is read and verified once it is consumed,
+    // before the handler runs and before the nonce is claimed, whether or
+    // not the handler reads the body
+    @Test
+    void signedBodyIsVerifiedBeforeTheNonceIsClaimed() throws Exception {
+        createFilter(RedisKeyCodec.Mode.COMPACT, RedisNonceService.Storage.KEYS);
+        long timestamp = Instant.now().getEpochSecond();
+        String nonce = UUID.randomUUID().toString();
+        byte[] body = "{\"amount\":100}".getBytes(StandardCharsets.UTF_8);
+        byte[] tamperedBody = "{\"amount\":999}".getBytes(StandardCharsets.UTF_8);
+        String signature = HmacUtil.generateHmacSha256(sessionKey, CanonicalPayload.build(
+                "POST", "/api/payments/execute", timestamp, nonce, sha256(body)));
+        AtomicInteger passedThrough = new AtomicInteger();
+
+        // Tampered body, handler that never reads it (like /execute)
+        MockHttpServletResponse tampered = new MockHttpServletResponse();
+        filterThrough(USER_ID, signedRequestV2(nonce, timestamp, signature, tamperedBody),
+                tampered, ignoresBody(passedThrough));
+        assertThat(tampered.getErrorMessage()).isEqualTo("INVALID_SIGNATURE");
+
+        // Same signature over no body at all
+        MockHttpServletResponse bodyless = new MockHttpServletResponse();
+        filterThrough(USER_ID, signedRequestV2(nonce, timestamp, signature, new byte[0]),
+                bodyless, ignoresBody(passedThrough));
+        assertThat(bodyless.getErrorMessage()).isEqualTo("INVALID_SIGNATURE");
+
+        // Tampered body, handler that reads it: fails at EOF
+        MockHttpServletResponse tamperedRead = new MockHttpServletResponse();
+        filterThrough(USER_ID, signedRequestV2(nonce, timestamp, signature, tamperedBody),
+                tamperedRead, (req, res) -> {
+                    req.getInputStream().readAllBytes();
+                    passedThrough.incrementAndGet();
+                });
+        assertThat(tamperedRead.getErrorMessage()).isEqualTo("INVALID_SIGNATURE");
+        assertThat(passedThrough.get()).isZero();
+
+        // None claimed the nonce: the genuine request still passes, once
+        MockHttpServletResponse valid = new MockHttpServletResponse();
+        byte[][] read = new byte[1][];
+        filterThrough(USER_ID, signedRequestV2(nonce, timestamp, signature, body), valid,
+                (req, res) -> read[0] = req.getInputStream().readAllBytes());
+        assertThat(valid.getStatus()).isEqualTo(200);
+        assertThat(read[0]).isEqualTo(body);
+
+        MockHttpServletResponse replayed = new MockHttpServletResponse();
+        filterThrough(USER_ID, signedRequestV2(nonce, timestamp, signature, body),
+                replayed, ignoresBody(passedThrough));
+        assertThat(replayed.getErrorMessage()).isEqualTo("REPLAY_ATTACK");
+
+        // A valid v2 request on a handler that ignores its body passes too,
+        // and its nonce is claimed all the same
+        String bodylessNonce = UUID.randomUUID().toString();
+        String bodylessSignature = HmacUtil.generateHmacSha256(sessionKey, CanonicalPayload.build(
+                "POST", "/api/payments/execute", timestamp, bodylessNonce, sha256(new byte[0])));
+        for (int i = 0; i < 2; i++) {
+            filterThrough(USER_ID, signedRequestV2(bodylessNonce, timestamp, bodylessSignature,
+                    new byte[0]), new MockHttpServletResponse(), ignoresBody(passedThrough));
+        }
+        assertThat(passedThrough.get()).isEqualTo(1);
+    }
+
+    // No size limit and no copy: a body far larger than any buffer is
+    // hashed as it goes, the unread rest drained like SignedBodyAdvice does
+    @Test
+    void largeSignedBodyIsStreamed() throws Exception {
+        createFilter(RedisKeyCodec.Mode.COMPACT, RedisNonceService.Storage.KEYS);
+        long timestamp = Instant.now().getEpochSecond();
+        String nonce = UUID.randomUUID().toString();
+        byte[] body = new byte[4 * 1024 * 1024];
+        new Random(42).nextBytes(body);
+
+        // Chunked: no Content-Length
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/payments/execute") {
+            @Override
+            public long getContentLengthLong() {
+                return -1;
+            }
+        };
+        request.addHeader("X-Device-Id", DEVICE_ID);
+        request.addHeader("X-Nonce", nonce);
+        request.addHeader("X-Timestamp", String.valueOf(timestamp));
+        request.addHeader("X-Signature", HmacUtil.generateHmacSha256(sessionKey,
+                CanonicalPayload.build("POST", "/api/payments/execute", timestamp, nonce,
+                        sha256(body))));
+        request.addHeader("X-Signature-Version", "2");
+        request.setContent(body);
+
+        AtomicInteger passedThrough = new AtomicInteger();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filterThrough(USER_ID, request, response, (req, res) -> {
+            assertThat(req.getInputStream().readNBytes(64)).hasSize(64);
+            SignedBodyRequestWrapper.finish((HttpServletRequest) req);
+            passedThrough.incrementAndGet();
+        });
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(passedThrough.get()).isEqualTo(1);
+    }
+
+    private long securityLookups() {
+        return metrics.get("redis.operation")
+                .tag("operation", "security-lookup").timer().count();
+    }
+
+    private void filterAs(
+            String userId,
+            MockHttpServletRequest request,
+            MockHttpServletResponse response,
+            AtomicInteger passedThrough
+    ) throws Exception {
+        filterThrough(userId, request, response, (req, res) -> {
+            if (passedThrough != null) {
+                passedThrough.incrementAndGet();
+            }
+        });
+    }
+
+    private void filterThrough(
+            String userId,
+            MockHttpServletRequest request,
+            MockHttpServletResponse response,
+            FilterChain chain
+    ) throws Exception {
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(userId, null, List.of())
+        );
+        try {
+            filter.doFilter(request, response, chain);
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+    }
+
+    // DispatcherServlet -> SignedBodyInterceptor -> a handler without a body
+    private static FilterChain ignoresBody(AtomicInteger passedThrough) {
+        return (req, res) -> {
+            try {
+                new SignedBodyInterceptor().preHandle((HttpServletRequest) req,
+                        (HttpServletResponse) res, new HandlerMethod(new Handlers(),
+                                Handlers.class.getDeclaredMethod("execute")));
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            passedThrough.incrementAndGet();
+        };
+    }
+
+    private static MockHttpServletRequest signedRequest(
+            String nonce,
+            long timestamp,
+            String signature
+    ) {
+        return signedRequest(DEVICE_ID, nonce, timestamp, signature);
+    }
+
+    private static MockHttpServletRequest signedRequest(
+            String deviceId,
+            String nonce,
+            long timestamp,
+            String signature
+    ) {
+        MockHttpServletRequest request =
+                new MockHttpServletRequest("POST", "/api/payments/execute");
+        request.addHeader("X-Device-Id", deviceId);
+        request.addHeader("X-Nonce", nonce);
+        request.addHeader("X-Timestamp", String.valueOf(timestamp));
+        request.addHeader("X-Signature", signature);
+        return request;
+    }
+
+    private static MockHttpServletRequest signedRequestV2(
+            String nonce,
+            long timestamp,
+            String signature,
+            byte[] body
+    ) {
+        MockHttpServletRequest request = signedRequest(nonce, timestamp, signature);
+        request.addHeader("X-Signature-Version", "2");
+        request.setContent(body);
+        return request;
+    }
+
+    private static byte[] sha256(byte[] body) throws Exception {
+        return MessageDigest.getInstance("SHA-256").digest(body);
+    }
+
+    static class Handlers {
+
+        void execute() {
+        }
+    }
+
+    // Stands in for the MVC resolver: records status + violation code
+    private static class StatusWritingResolver implements HandlerExceptionResolver {
+
+        @Override
+        public ModelAndView resolveException(
+                HttpServletRequest request,
+                HttpServletResponse response,
+                Object handler,
+                Exception ex
+        ) {
+            SecurityViolationException violation = (SecurityViolationException) ex;
+            try {
+                response.sendError(violation.getHttpStatus(), violation.getCode());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return new ModelAndView();
+        }
+    }
+}
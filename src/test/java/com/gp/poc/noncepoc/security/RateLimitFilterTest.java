@@ -0,0 +1,90 @@
+package com.gp.poc.noncepoc.security;
+
+import com.gp.poc.noncepoc.exception.SecurityErrorWriter;
+import com.gp.poc.noncepoc.service.RateLimiter;
+import com.gp.poc.noncepoc.service.RedisKeyCodec;
+import com.gp.poc.noncepoc.utils.JwtUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RateLimitFilterTest {
+
+    private static final int BURST = 3;
+
+    private final JwtUtil jwtUtil = new JwtUtil();
+    private final SecurityMetrics metrics = new SecurityMetrics(new SimpleMeterRegistry());
+
+    // Local tier only, nothing refills during a test
+    private final RateLimiter rateLimiter = new RateLimiter(
+            null,
+            new RedisKeyCodec(RedisKeyCodec.Mode.COMPACT, "test-hash-secret"),
+            0.01, BURST, 0.01, BURST, false, 3_600_000);
+
+    private JwtAuthenticationFilter jwtFilter;
+    private RateLimitFilter rateLimitFilter;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(jwtUtil, "secret", "test-jwt-secret-test-jwt-secret-test-jwt-secret");
+        ReflectionTestUtils.setField(jwtUtil, "issuer", "gp-nonce-poc");
+        ReflectionTestUtils.setField(jwtUtil, "accessTokenTtl", 900L);
+        ReflectionTestUtils.setField(jwtUtil, "claimsCacheMaxSize", 100L);
+        jwtUtil.init();
+
+        jwtFilter = new JwtAuthenticationFilter(jwtUtil, metrics);
+        rateLimitFilter = new RateLimitFilter(rateLimiter,
+                new SecurityErrorWriter(Jackson2ObjectMapperBuilder.json().build(), metrics));
+        ReflectionTestUtils.setField(rateLimitFilter, "enabled", true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        rateLimiter.shutdown();
+        SecurityContextHolder.clearContext();
+    }
+
+    // The bucket is the token's device: a new X-Device-Id per request does
+    // not get around the limit
+    @Test
+    void deviceHeaderDoesNotPickTheBucket() throws Exception {
+        String token = jwtUtil.generateToken("user-123", "device-abc");
+        AtomicInteger admitted = new AtomicInteger();
+
+        int[] statuses = new int[BURST + 2];
+        for (int i = 0; i < statuses.length; i++) {
+            statuses[i] = send(token, "spoofed-" + i, admitted);
+        }
+
+        assertThat(admitted).hasValue(BURST);
+        assertThat(statuses[BURST]).isEqualTo(429);
+        assertThat(statuses[BURST + 1]).isEqualTo(429);
+
+        // Another device of the same user has its own bucket
+        String otherDevice = jwtUtil.generateToken("user-123", "device-xyz");
+        assertThat(send(otherDevice, "device-abc", admitted)).isEqualTo(200);
+    }
+
+    // JwtAuthenticationFilter -> RateLimitFilter -> handler
+    private int send(String token, String deviceHeader, AtomicInteger admitted) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/payments/execute");
+        request.addHeader("Authorization", "Bearer " + token);
+        request.addHeader("X-Device-Id", deviceHeader);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        jwtFilter.doFilter(request, response, (req, res) ->
+                rateLimitFilter.doFilter(req, res, (r, s) -> admitted.incrementAndGet()));
+        SecurityContextHolder.clearContext();
+        return response.getStatus();
+    }
+}
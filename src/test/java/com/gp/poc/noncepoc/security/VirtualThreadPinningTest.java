@@ -0,0 +1,219 @@
+package com.gp.poc.noncepoc.security;
+
+import com.gp.poc.noncepoc.JedisMockRedis;
+import com.gp.poc.noncepoc.config.LoadShapingRedisTemplate;
+import com.gp.poc.noncepoc.config.RedisBulkhead;
+import com.gp.poc.noncepoc.config.RedisCommandBatcher;
+import com.gp.poc.noncepoc.exception.SecurityViolationException;
+import com.gp.poc.noncepoc.service.DerivedSessionKeys;
+import com.gp.poc.noncepoc.service.IdempotencyService;
+import com.gp.poc.noncepoc.service.IdempotencyWaiters;
+import com.gp.poc.noncepoc.service.RedisKeyCodec;
+import com.gp.poc.noncepoc.service.RedisNonceService;
+import com.gp.poc.noncepoc.service.SecurityLookupService;
+import com.gp.poc.noncepoc.service.SessionGrant;
+import com.gp.poc.noncepoc.service.SessionKeyNearCache;
+import com.gp.poc.noncepoc.service.SessionKeyService;
+import com.gp.poc.noncepoc.utils.CanonicalPayload;
+import com.gp.poc.noncepoc.utils.HmacUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.HandlerExceptionResolver;
+import org.springframework.web.servlet.ModelAndView;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Runs signed, idempotent requests through NonceSecurityFilter and
+// IdempotencyFilter on virtual threads and fails on any
+// jdk.VirtualThreadPinned event: a virtual thread that blocks (on Redis,
+// a lock) while pinned holds its carrier, and a few of those stall all
+// requests. Covers stored and derived session keys.
+class VirtualThreadPinningTest {
+
+    private static final int REQUESTS = 200;
+    private static final String USER_ID = "user-123";
+    private static final String DEVICE_ID = "device-abc";
+    private static final String PATH = "/api/payments/execute";
+
+    @RegisterExtension
+    final JedisMockRedis redis = new JedisMockRedis();
+
+    private IdempotencyService idempotencyService;
+    private DerivedSessionKeys derivedSessionKeys;
+    private FilterChain filters;
+    private String storedSessionKey;
+
+    @BeforeEach
+    void setUp() {
+        SimpleMeterRegistry metrics = new SimpleMeterRegistry();
+        RedisTemplate<byte[], byte[]> template = new LoadShapingRedisTemplate<>(
+                new RedisBulkhead(true, 8, 5_000, metrics),
+                new RedisCommandBatcher(redis.connectionFactory(), false, 64, 200, metrics));
+        template.setConnectionFactory(redis.connectionFactory());
+        template.setKeySerializer(RedisSerializer.byteArray());
+        template.setValueSerializer(RedisSerializer.byteArray());
+        template.afterPropertiesSet();
+
+        RedisKeyCodec keyCodec = new RedisKeyCodec(RedisKeyCodec.Mode.COMPACT, "test-hash-secret");
+        SessionKeyNearCache nearCache =
+                new SessionKeyNearCache(template, keyCodec, metrics, 1_000, 1_000, 5_000);
+        storedSessionKey = new SessionKeyService(template, nearCache, keyCodec)
+                .issueSessionKey(USER_ID, DEVICE_ID);
+
+        // Generation cache off: every derived-key request reads Redis
+        derivedSessionKeys = new DerivedSessionKeys(template, keyCodec,
+                DerivedSessionKeys.Mode.DERIVED, "k1", List.of("k1:secret-1"), 0);
+
+        SecurityMetrics securityMetrics = new SecurityMetrics(metrics);
+        RedisNonceService nonceService = new RedisNonceService(
+                template, keyCodec, RedisNonceService.Storage.KEYS, 300, 300, 1024);
+        NonceSecurityFilter nonceFilter = new NonceSecurityFilter(
+                nonceService,
+                new SecurityLookupService(template, nearCache, nonceService),
+                keyCodec,
+                derivedSessionKeys,
+                securityMetrics,
+                new StatusWritingResolver()
+        );
+
+        IdempotencyWaiters waiters = new IdempotencyWaiters(keyCodec);
+        idempotencyService = new IdempotencyService(
+                template, waiters, keyCodec, metrics, 512, 10_000);
+        IdempotencyFilter idempotencyFilter = new IdempotencyFilter(
+                idempotencyService, waiters, keyCodec, securityMetrics,
+                new StatusWritingResolver());
+        ReflectionTestUtils.setField(idempotencyFilter, "replayHeaders", List.of("Content-Type"));
+
+        filters = (request, response) -> nonceFilter.doFilter(request, response,
+                (req, res) -> idempotencyFilter.doFilter(req, res, (r, payment) -> {
+                    payment.setContentType("application/json");
+                    payment.getWriter().write("{\"status\":\"PAYMENT_SUCCESS\"}");
+                }));
+    }
+
+    @AfterEach
+    void tearDown() {
+        idempotencyService.shutdown();
+    }
+
+    @Test
+    void hotPathDoesNotPinCarrierThreads() throws Exception {
+        SessionGrant grant = derivedSessionKeys.newGrant(USER_ID);
+        String derivedSessionKey = derivedSessionKeys.sessionKey(USER_ID, DEVICE_ID, grant);
+
+        List<RecordedEvent> pinned;
+        List<Future<Integer>> statuses = new ArrayList<>();
+
+        try (Recording recording = new Recording()) {
+            recording.enable("jdk.VirtualThreadPinned")
+                    .withThreshold(Duration.ZERO)
+                    .withStackTrace();
+            recording.start();
+
+            try (ExecutorService virtualThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int i = 0; i < REQUESTS; i++) {
+                    boolean derived = i % 2 == 0;
+                    statuses.add(virtualThreads.submit(() -> derived
+                            ? pay(derivedSessionKey, grant)
+                            : pay(storedSessionKey, null)));
+                }
+            }
+
+            recording.stop();
+            Path dump = Files.createTempFile("pinning", ".jfr");
+            try {
+                recording.dump(dump);
+                pinned = RecordingFile.readAllEvents(dump).stream()
+                        .filter(e -> e.getEventType().getName().equals("jdk.VirtualThreadPinned"))
+                        .toList();
+            } finally {
+                Files.deleteIfExists(dump);
+            }
+        }
+
+        for (Future<Integer> status : statuses) {
+            assertThat(status.get()).isEqualTo(200);
+        }
+        assertThat(pinned)
+                .as("pinned at:%n%s", pinned.stream()
+                        .map(e -> String.valueOf(e.getStackTrace()))
+                        .collect(Collectors.joining("\n")))
+                .isEmpty();
+    }
+
+    private int pay(String sessionKey, SessionGrant grant) throws Exception {
+        UsernamePasswordAuthenticationToken authentication =
+                new UsernamePasswordAuthenticationToken(USER_ID, null, List.of());
+        authentication.setDetails(grant);
+        SecurityContextHolder.getContext().setAuthentication(authentication);
+
+        String nonce = UUID.randomUUID().toString();
+        long timestamp = Instant.now().getEpochSecond();
+
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", PATH);
+        request.addHeader("X-Device-Id", DEVICE_ID);
+        request.addHeader("X-Nonce", nonce);
+        request.addHeader("X-Timestamp", String.valueOf(timestamp));
+        request.addHeader("X-Signature", HmacUtil.generateHmacSha256(
+                sessionKey, CanonicalPayload.build("POST", PATH, timestamp, nonce)));
+        request.addHeader("Idempotency-Key", nonce);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        try {
+            filters.doFilter(request, response);
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+        return response.getStatus();
+    }
+
+    // Stands in for the MVC resolver: records status + violation code
+    private static class StatusWritingResolver implements HandlerExceptionResolver {
+
+        @Override
+        public ModelAndView resolveException(
+                HttpServletRequest request,
+                HttpServletResponse response,
+                Object handler,
+                Exception ex
+        ) {
+            SecurityViolationException violation = (SecurityViolationException) ex;
+            try {
+                response.sendError(violation.getHttpStatus(), violation.getCode());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return new ModelAndView();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.gp.poc.noncepoc.service;
+
+import com.gp.poc.noncepoc.JedisMockRedis;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CounterWindowTest {
+
+    private static final int WINDOW_BITS = 64;
+    private static final long TTL_SECONDS = 300;
+    private static final long DRIFT_SECONDS = 300;
+
+    @RegisterExtension
+    final JedisMockRedis redis = new JedisMockRedis();
+
+    private RedisTemplate<byte[], byte[]> template;
+    private RedisNonceService nonces;
+
+    @BeforeEach
+    void setUp() {
+        template = redis.template();
+
+        nonces = new RedisNonceService(
+                template,
+                new RedisKeyCodec(RedisKeyCodec.Mode.COMPACT, "test-hash-secret"),
+                RedisNonceService.Storage.COUNTER_WINDOW,
+                TTL_SECONDS,
+                DRIFT_SECONDS,
+                WINDOW_BITS
+        );
+    }
+
+    @Test
+    void outOfOrderCountersInsideTheWindowAreAcceptedExactlyOnce() {
+        assertThat(claim(10)).isTrue();
+        assertThat(claim(12)).isTrue();
+        assertThat(claim(11)).isTrue(); // late, but inside the window
+        assertThat(claim(11)).isFalse();
+        assertThat(claim(12)).isFalse();
+        assertThat(claim(10)).isFalse();
+    }
+
+    @Test
+    void slidingPastTheWindowForgetsOldBitsButRejectsOldCounters() {
+        assertThat(claim(5)).isTrue();
+        assertThat(claim(5 + WINDOW_BITS)).isTrue(); // same bit, new counter
+
+        assertThat(claim(5)).isFalse(); // fell out of the window
+        assertThat(claim(6)).isTrue();  // still inside, never seen
+        assertThat(claim(7 + WINDOW_BITS / 2)).isTrue();
+        assertThat(claim(1_000_000)).isTrue(); // jump resets the bitmap
+        assertThat(claim(1_000_000 - 1)).isTrue();
+        assertThat(claim(5 + WINDOW_BITS)).isFalse();
+    }
+
+    // X-Timestamp may be up to the drift ahead, so a request claimed now
+    // is accepted for another 2 x drift. Were the idle window to expire
+    // before that, it would come back empty and take the captured request
+    // again: the window must outlive it.
+    @Test
+    void idleWindowOutlivesAFutureDatedCounter() {
+        assertThat(claim(10)).isTrue(); // X-Timestamp = now + drift
+
+        Long expiresIn = template.getExpire(slot(10).key().raw());
+        assertThat(expiresIn)
+                .isGreaterThanOrEqualTo(2 * DRIFT_SECONDS - 1)
+                .isGreaterThanOrEqualTo(TTL_SECONDS + DRIFT_SECONDS - 1);
+
+        // What the expiry guards against: an expired window forgets it
+        template.delete(slot(10).key().raw());
+        assertThat(claim(10)).isTrue();
+    }
+
+    @Test
+    void pipelinedEarlyRejectMatchesTheScript() {
+        assertThat(claim(100)).isTrue();
+        assertThat(claim(98)).isTrue();
+
+        for (long counter : new long[] {1, 98, 99, 100, 101}) {
+            NonceSlot slot = slot(counter);
+            List<Object> results = template.executePipelined(
+                    (RedisCallback<Object>) connection -> {
+                        nonces.queueSeenCheck(connection, slot);
+                        return null;
+                    },
+                    null
+            );
+            boolean seen = nonces.seen(results, 0, slot);
+            assertThat(seen).as("counter %d", counter)
+                    .isEqualTo(counter == 1 || counter == 98 || counter == 100);
+        }
+    }
+
+    @Test
+    void onlyPlainPositiveDecimalsAreCounters() {
+        assertThat(NonceStore.isCounter("1")).isTrue();
+        assertThat(NonceStore.isCounter("9007199254740991")).isTrue();
+        assertThat(NonceStore.isCounter("9007199254740992")).isFalse();
+        assertThat(NonceStore.isCounter("0")).isFalse();
+        assertThat(NonceStore.isCounter("007")).isFalse();
+        assertThat(NonceStore.isCounter("-3")).isFalse();
+        assertThat(NonceStore.isCounter("550e8400")).isFalse();
+    }
+
+    private boolean claim(long counter) {
+        return nonces.claimNonce(slot(counter));
+    }
+
+    private NonceSlot slot(long counter) {
+        return nonces.slot("user-123", "device-abc", "POST", "/api/payments/execute",
+                Long.toString(counter));
+    }
+}
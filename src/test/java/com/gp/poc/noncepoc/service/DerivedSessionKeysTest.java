@@ -0,0 +1,100 @@
+package com.gp.poc.noncepoc.service;
+
+import com.gp.poc.noncepoc.JedisMockRedis;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DerivedSessionKeysTest {
+
+    private static final String USER_ID = "user-123";
+    private static final String DEVICE_ID = "device-abc";
+
+    private final RedisKeyCodec keyCodec =
+            new RedisKeyCodec(RedisKeyCodec.Mode.COMPACT, "test-hash-secret");
+
+    @RegisterExtension
+    final JedisMockRedis redis = new JedisMockRedis();
+
+    private RedisTemplate<byte[], byte[]> template;
+
+    @BeforeEach
+    void setUp() {
+        template = redis.template();
+    }
+
+    @Test
+    void everyNodeDerivesTheSameKeyForTheSameGrantAndDevice() {
+        DerivedSessionKeys nodeA = node("k1", List.of("k1:secret-1"), 5_000);
+        DerivedSessionKeys nodeB = node("k1", List.of("k1:secret-1"), 5_000);
+
+        SessionGrant grant = nodeA.newGrant(USER_ID);
+        String key = nodeA.sessionKey(USER_ID, DEVICE_ID, grant);
+
+        assertThat(key).hasSize(64);
+        assertThat(nodeB.sessionKey(USER_ID, DEVICE_ID, grant)).isEqualTo(key);
+        assertThat(nodeB.sessionKey(USER_ID, "other-device", grant)).isNotEqualTo(key);
+        assertThat(nodeB.sessionKey("user-456", DEVICE_ID, grant)).isNotEqualTo(key);
+    }
+
+    @Test
+    void revocationRejectsOlderGrantsButNotTheNextLogin() {
+        DerivedSessionKeys nodeA = node("k1", List.of("k1:secret-1"), 5_000);
+        DerivedSessionKeys nodeB = node("k1", List.of("k1:secret-1"), 0);
+
+        SessionGrant before = nodeA.newGrant(USER_ID);
+        assertThat(nodeB.sessionKey(USER_ID, DEVICE_ID, before)).isNotNull();
+
+        assertThat(nodeA.revoke(USER_ID)).isEqualTo(1);
+        assertThat(nodeA.sessionKey(USER_ID, DEVICE_ID, before)).isNull();
+        assertThat(nodeB.sessionKey(USER_ID, DEVICE_ID, before)).isNull();
+
+        SessionGrant after = nodeB.newGrant(USER_ID);
+        assertThat(after.generation()).isEqualTo(1);
+        assertThat(nodeA.sessionKey(USER_ID, DEVICE_ID, after)).isNotNull();
+    }
+
+    @Test
+    void rotationKeepsSessionsOfThePreviousKidUntilItIsRetired() {
+        DerivedSessionKeys oldNode = node("k1", List.of("k1:secret-1", "k2:secret-2"), 5_000);
+        DerivedSessionKeys newNode = node("k2", List.of("k1:secret-1", "k2:secret-2"), 5_000);
+        DerivedSessionKeys retired = node("k2", List.of("k2:secret-2"), 5_000);
+
+        SessionGrant inFlight = oldNode.newGrant(USER_ID);
+        SessionGrant fresh = newNode.newGrant(USER_ID);
+
+        assertThat(fresh.kid()).isEqualTo("k2");
+        assertThat(newNode.sessionKey(USER_ID, DEVICE_ID, inFlight))
+                .isEqualTo(oldNode.sessionKey(USER_ID, DEVICE_ID, inFlight));
+        assertThat(oldNode.sessionKey(USER_ID, DEVICE_ID, fresh))
+                .isEqualTo(newNode.sessionKey(USER_ID, DEVICE_ID, fresh));
+
+        assertThat(retired.sessionKey(USER_ID, DEVICE_ID, inFlight)).isNull();
+        assertThat(retired.sessionKey(USER_ID, DEVICE_ID, fresh)).isNotNull();
+    }
+
+    @Test
+    void grantExpiresWithTheSessionTtl() {
+        DerivedSessionKeys node = node("k1", List.of("k1:secret-1"), 5_000);
+        long now = Instant.now().getEpochSecond();
+
+        SessionGrant live = new SessionGrant("k1", now - 60, 0);
+        SessionGrant expired =
+                new SessionGrant("k1", now - DerivedSessionKeys.SESSION_TTL_SECONDS, 0);
+
+        assertThat(node.sessionKey(USER_ID, DEVICE_ID, live)).isNotNull();
+        assertThat(node.sessionKey(USER_ID, DEVICE_ID, expired)).isNull();
+    }
+
+    private DerivedSessionKeys node(String currentKid, List<String> masterKeys, long cacheMs) {
+        return new DerivedSessionKeys(
+                template, keyCodec, DerivedSessionKeys.Mode.DERIVED,
+                currentKid, masterKeys, cacheMs);
+    }
+}
@@ -0,0 +1,119 @@
+package com.gp.poc.noncepoc.service;
+
+import com.gp.poc.noncepoc.JedisMockRedis;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IdempotencyLeaseTest {
+
+    private static final long LEASE_TTL_MS = 10_000;
+
+    @RegisterExtension
+    final JedisMockRedis redis = new JedisMockRedis();
+
+    private RedisTemplate<byte[], byte[]> template;
+
+    // Two "nodes" sharing one Redis
+    private SimpleMeterRegistry metricsA;
+    private SimpleMeterRegistry metricsB;
+    private IdempotencyService nodeA;
+    private IdempotencyService nodeB;
+    private RedisKey key;
+
+    @BeforeEach
+    void setUp() {
+        template = redis.template();
+
+        RedisKeyCodec keyCodec =
+                new RedisKeyCodec(RedisKeyCodec.Mode.COMPACT, "test-hash-secret");
+        key = keyCodec.idempotency("user-123", "/api/payments/execute", "k1");
+
+        metricsA = new SimpleMeterRegistry();
+        metricsB = new SimpleMeterRegistry();
+        nodeA = new IdempotencyService(template, new IdempotencyWaiters(keyCodec),
+                keyCodec, metricsA, 512, LEASE_TTL_MS);
+        nodeB = new IdempotencyService(template, new IdempotencyWaiters(keyCodec),
+                keyCodec, metricsB, 512, LEASE_TTL_MS);
+        // No start(): the tests run the heartbeat themselves
+    }
+
+    @AfterEach
+    void tearDown() {
+        nodeA.shutdown();
+        nodeB.shutdown();
+    }
+
+    @Test
+    void heartbeatKeepsLeaseAliveWhileOwnerRuns() {
+        assertThat(nodeA.tryAcquire(key)).isNotNull();
+
+        // Almost run out, then one heartbeat
+        template.expire(key.raw(), Duration.ofMillis(LEASE_TTL_MS / 10));
+        nodeA.renewActiveLeases();
+
+        assertThat(template.getExpire(key.raw(), TimeUnit.MILLISECONDS))
+                .isGreaterThan(LEASE_TTL_MS / 2);
+        assertThat(nodeB.tryAcquire(key)).isNull();
+    }
+
+    @Test
+    void crashedOwnerLeaseIsTakenOverAndFencedOut() {
+        IdempotencyLease crashed = nodeA.tryAcquire(key);
+        assertThat(crashed).isNotNull();
+
+        // Owner "dies": no more heartbeats, lease runs out
+        template.delete(key.raw());
+
+        IdempotencyLease takeover = nodeB.tryAcquire(key);
+        assertThat(takeover).isNotNull();
+        assertThat(takeover.fencingToken()).isGreaterThan(crashed.fencingToken());
+        assertThat(metricsB.counter("idempotency.lease.takeovers").count())
+                .isEqualTo(1.0);
+
+        // A late heartbeat of the old owner does not touch the new lease
+        template.expire(key.raw(), Duration.ofMillis(LEASE_TTL_MS / 4));
+        nodeA.renewActiveLeases();
+        assertThat(template.getExpire(key.raw(), TimeUnit.MILLISECONDS))
+                .isLessThanOrEqualTo(LEASE_TTL_MS / 4);
+
+        assertThat(nodeB.storeResult(takeover, response("new-owner"))).isTrue();
+
+        // The old owner wakes up late: its write must not win
+        assertThat(nodeA.storeResult(crashed, response("stale-owner"))).isFalse();
+        assertThat(metricsA.counter("idempotency.lease.fenced").count())
+                .isEqualTo(1.0);
+
+        assertThat(nodeB.getResult(key))
+                .map(stored -> new String(stored.body(), StandardCharsets.UTF_8))
+                .contains("new-owner");
+    }
+
+    @Test
+    void releasedLeaseIsFreeImmediatelyWithoutCountingAsTakeover() {
+        IdempotencyLease failed = nodeA.tryAcquire(key);
+        nodeA.release(failed);
+
+        assertThat(nodeB.tryAcquire(key)).isNotNull();
+        assertThat(metricsB.counter("idempotency.lease.takeovers").count())
+                .isZero();
+    }
+
+    private static StoredResponse response(String body) {
+        return new StoredResponse(
+                200,
+                Map.of("Content-Type", "application/json"),
+                body.getBytes(StandardCharsets.UTF_8)
+        );
+    }
+}
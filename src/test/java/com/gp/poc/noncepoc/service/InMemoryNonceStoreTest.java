@@ -0,0 +1,133 @@
+package com.gp.poc.noncepoc.service;
+
+import com.gp.poc.noncepoc.exception.SecurityViolations;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class InMemoryNonceStoreTest {
+
+    private static final long TTL = 300;
+    private static final long DRIFT = 300;
+
+    // How long a nonce is remembered: a request dated DRIFT ahead is
+    // accepted for TTL + DRIFT after its claim
+    private static final long RETENTION = TTL + DRIFT;
+
+    private final AtomicLong clock = new AtomicLong(1_000);
+
+    @Test
+    void nonceIsClaimedOnceAndRememberedForTtlPlusDrift() {
+        InMemoryNonceStore store = store(1_000, 4);
+
+        assertThat(store.seen(slot(store, "n1"))).isFalse();
+        assertThat(store.claimNonce(slot(store, "n1"))).isTrue();
+        assertThat(store.seen(slot(store, "n1"))).isTrue();
+        assertThat(store.claimNonce(slot(store, "n1"))).isFalse();
+
+        clock.addAndGet(RETENTION);
+        assertThat(store.claimNonce(slot(store, "n1"))).isFalse();
+
+        clock.addAndGet(1);
+        assertThat(store.seen(slot(store, "n1"))).isFalse();
+        assertThat(store.claimNonce(slot(store, "n1"))).isTrue();
+    }
+
+    @Test
+    void expiringOneSecondKeepsEveryOtherEntryFindable() {
+        InMemoryNonceStore store = store(20_000, 4);
+
+        for (int i = 0; i < 5_000; i++) {
+            assertThat(store.claimNonce(slot(store, "old-" + i))).isTrue();
+        }
+        clock.addAndGet(1);
+        for (int i = 0; i < 5_000; i++) {
+            assertThat(store.claimNonce(slot(store, "new-" + i))).isTrue();
+        }
+
+        clock.addAndGet(RETENTION);
+        assertThat(store.size()).isEqualTo(5_000);
+        for (int i = 0; i < 5_000; i++) {
+            assertThat(store.seen(slot(store, "new-" + i))).isTrue();
+            assertThat(store.seen(slot(store, "old-" + i))).isFalse();
+        }
+
+        // Idle for longer than the whole wheel
+        clock.addAndGet(100 * RETENTION);
+        assertThat(store.seen(slot(store, "new-0"))).isFalse();
+        assertThat(store.size()).isZero();
+    }
+
+    @Test
+    void fullStoreRefusesClaimsUntilEntriesExpire() {
+        InMemoryNonceStore store = store(8, 1);
+
+        // 8 entries plus the per-shard slack (8 / 8 + 16)
+        for (int i = 0; i < 25; i++) {
+            assertThat(store.claimNonce(slot(store, "n" + i))).isTrue();
+        }
+        assertThat(store.claimNonce(slot(store, "n0"))).isFalse();
+        assertThatThrownBy(() -> store.claimNonce(slot(store, "one-too-many")))
+                .isSameAs(SecurityViolations.NONCE_STORE_FULL);
+        assertThat(SecurityViolations.NONCE_STORE_FULL.getHttpStatus()).isEqualTo(503);
+
+        // Refused, not half-claimed: nothing else changed
+        assertThat(store.size()).isEqualTo(25);
+        assertThat(store.seen(slot(store, "one-too-many"))).isFalse();
+
+        clock.addAndGet(RETENTION + 1);
+        assertThat(store.claimNonce(slot(store, "one-too-many"))).isTrue();
+    }
+
+    @Test
+    void concurrentCopiesOfOneNonceHaveOneWinner() throws Exception {
+        InMemoryNonceStore store = store(1_000, 4);
+        int threads = 16;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        List<Future<Boolean>> claims = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            claims.add(pool.submit(() -> {
+                start.await();
+                return store.claimNonce(slot(store, "same"));
+            }));
+        }
+        start.countDown();
+
+        int won = 0;
+        for (Future<Boolean> claim : claims) {
+            won += claim.get() ? 1 : 0;
+        }
+        pool.shutdown();
+
+        assertThat(won).isEqualTo(1);
+    }
+
+    @Test
+    void counterWindowStorageIsRejected() {
+        assertThatThrownBy(() -> new InMemoryNonceStore(
+                "test-hash-secret", RedisNonceService.Storage.COUNTER_WINDOW,
+                TTL, DRIFT, 1_000, 4, clock::get))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private InMemoryNonceStore store(int maxEntries, int shards) {
+        return new InMemoryNonceStore(
+                "test-hash-secret", RedisNonceService.Storage.KEYS,
+                TTL, DRIFT, maxEntries, shards, clock::get);
+    }
+
+    private static NonceSlot slot(InMemoryNonceStore store, String nonce) {
+        return store.slot("user-123", "device-abc", "POST", "/api/payments/execute", nonce);
+    }
+}
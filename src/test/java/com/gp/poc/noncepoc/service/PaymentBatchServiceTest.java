@@ -0,0 +1,157 @@
+package com.gp.poc.noncepoc.service;
+
+import com.gp.poc.noncepoc.JedisMockRedis;
+import com.gp.poc.noncepoc.dto.PaymentBatchRequest;
+import com.gp.poc.noncepoc.dto.PaymentBatchResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PaymentBatchServiceTest {
+
+    private static final String USER_ID = "user-123";
+
+    private final RedisKeyCodec keyCodec =
+            new RedisKeyCodec(RedisKeyCodec.Mode.COMPACT, "test-hash-secret");
+
+    @RegisterExtension
+    final JedisMockRedis redis = new JedisMockRedis();
+
+    private RedisTemplate<byte[], byte[]> template;
+
+    // This node runs the batches, the other holds or takes over keys
+    private IdempotencyService idempotencyService;
+    private IdempotencyService otherNode;
+
+    @BeforeEach
+    void setUp() {
+        template = redis.template();
+
+        idempotencyService = service();
+        otherNode = service();
+    }
+
+    @AfterEach
+    void tearDown() {
+        idempotencyService.shutdown();
+        otherNode.shutdown();
+    }
+
+    @Test
+    void newItemsRunOnceAndAreReplayedAfterwards() {
+        PaymentBatchService batches = new PaymentBatchService(idempotencyService, keyCodec);
+
+        PaymentBatchResponse first = batches.execute(USER_ID, items("k1", "k2"));
+        assertThat(first.getExecuted()).isEqualTo(2);
+        assertThat(first.getReplayed()).isZero();
+        assertThat(first.getItems()).allSatisfy(item -> {
+            assertThat(item.getStatus()).isEqualTo(200);
+            assertThat(item.isReplayed()).isFalse();
+            assertThat(item.getBody()).contains("PAYMENT_SUCCESS");
+        });
+
+        PaymentBatchResponse second = batches.execute(USER_ID, items("k2", "k3"));
+        assertThat(second.getExecuted()).isEqualTo(1);
+        assertThat(second.getReplayed()).isEqualTo(1);
+        assertThat(second.getItems()).extracting(PaymentBatchResponse.Item::getIdempotencyKey)
+                .containsExactly("k2", "k3");
+        assertThat(second.getItems().get(0).isReplayed()).isTrue();
+        assertThat(second.getItems().get(0).getBody()).isEqualTo(first.getItems().get(1).getBody());
+        assertThat(second.getItems().get(1).isReplayed()).isFalse();
+    }
+
+    // An item and a single /execute with the same Idempotency-Key are the
+    // same payment
+    @Test
+    void itemsShareKeysWithTheSinglePaymentEndpoint() {
+        RedisKey key = keyCodec.idempotency(USER_ID, PaymentBatchService.ITEM_PATH, "k1");
+        IdempotencyLease lease = idempotencyService.tryAcquire(key);
+        idempotencyService.storeResult(lease, new StoredResponse(
+                201,
+                Map.of("Content-Type", "application/json"),
+                "{\"status\":\"FROM_EXECUTE\"}".getBytes(StandardCharsets.UTF_8)));
+
+        PaymentBatchResponse response = new PaymentBatchService(idempotencyService, keyCodec)
+                .execute(USER_ID, items("k1"));
+
+        assertThat(response.getReplayed()).isEqualTo(1);
+        assertThat(response.getItems().get(0).getStatus()).isEqualTo(201);
+        assertThat(response.getItems().get(0).getBody()).isEqualTo("{\"status\":\"FROM_EXECUTE\"}");
+    }
+
+    @Test
+    void itemLeasedElsewhereIsInProgress() {
+        otherNode.tryAcquire(keyCodec.idempotency(USER_ID, PaymentBatchService.ITEM_PATH, "k2"));
+
+        PaymentBatchResponse response = new PaymentBatchService(idempotencyService, keyCodec)
+                .execute(USER_ID, items("k1", "k2"));
+
+        assertThat(response.getExecuted()).isEqualTo(1);
+        assertThat(response.getInProgress()).isEqualTo(1);
+        assertThat(response.getItems().get(0).getStatus()).isEqualTo(200);
+        assertThat(response.getItems().get(1).getStatus()).isEqualTo(409);
+        assertThat(response.getItems().get(1).getBody()).contains("IDEMPOTENT_REQUEST_IN_PROGRESS");
+    }
+
+    // storeResults reports false for an item whose lease was taken over
+    // while the batch ran: that item is not the key's outcome
+    @Test
+    void itemWhoseLeaseWasTakenOverIsReportedLost() {
+        RedisKey k2 = keyCodec.idempotency(USER_ID, PaymentBatchService.ITEM_PATH, "k2");
+        IdempotencyService takenOver = new IdempotencyService(template,
+                new IdempotencyWaiters(keyCodec), keyCodec, new SimpleMeterRegistry(), 512, 10_000) {
+            @Override
+            public boolean[] storeResults(
+                    List<IdempotencyLease> leases,
+                    List<StoredResponse> responses
+            ) {
+                // k2's lease expires and the other node takes it over
+                template.delete(k2.raw());
+                assertThat(otherNode.tryAcquire(k2)).isNotNull();
+                return super.storeResults(leases, responses);
+            }
+        };
+
+        try {
+            PaymentBatchResponse response = new PaymentBatchService(takenOver, keyCodec)
+                    .execute(USER_ID, items("k1", "k2", "k3"));
+
+            assertThat(response.getExecuted()).isEqualTo(2);
+            assertThat(response.getLeaseLost()).isEqualTo(1);
+            assertThat(response.getItems()).extracting(PaymentBatchResponse.Item::getStatus)
+                    .containsExactly(200, 409, 200);
+            assertThat(response.getItems().get(1).getBody()).contains("IDEMPOTENCY_LEASE_LOST");
+
+            // Nothing of ours was stored under k2
+            assertThat(idempotencyService.getResult(k2)).isEmpty();
+        } finally {
+            takenOver.shutdown();
+        }
+    }
+
+    private IdempotencyService service() {
+        return new IdempotencyService(template, new IdempotencyWaiters(keyCodec),
+                keyCodec, new SimpleMeterRegistry(), 512, 10_000);
+    }
+
+    private static List<PaymentBatchRequest.Item> items(String... keys) {
+        return Arrays.stream(keys).map(key -> {
+            PaymentBatchRequest.Item item = new PaymentBatchRequest.Item();
+            item.setIdempotencyKey(key);
+            item.setAmount(new BigDecimal("10.00"));
+            item.setCurrency("EUR");
+            return item;
+        }).toList();
+    }
+}
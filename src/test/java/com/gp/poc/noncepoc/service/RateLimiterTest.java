@@ -0,0 +1,71 @@
+package com.gp.poc.noncepoc.service;
+
+import com.gp.poc.noncepoc.JedisMockRedis;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RateLimiterTest {
+
+    private static final int BURST = 5;
+
+    @RegisterExtension
+    final JedisMockRedis redis = new JedisMockRedis();
+
+    // Two "nodes" sharing one Redis; synced by hand
+    private RateLimiter nodeA;
+    private RateLimiter nodeB;
+
+    @BeforeEach
+    void setUp() {
+        RedisTemplate<byte[], byte[]> template = redis.template();
+
+        RedisKeyCodec keyCodec =
+                new RedisKeyCodec(RedisKeyCodec.Mode.COMPACT, "test-hash-secret");
+
+        // 1 token per 100 s: nothing refills during a test
+        nodeA = new RateLimiter(template, keyCodec, 0.01, BURST, 0.01, BURST, true, 3_600_000);
+        nodeB = new RateLimiter(template, keyCodec, 0.01, BURST, 0.01, BURST, true, 3_600_000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        nodeA.shutdown();
+        nodeB.shutdown();
+    }
+
+    @Test
+    void localTierRejectsBeyondBurstPerDevice() {
+        for (int i = 0; i < BURST; i++) {
+            assertThat(nodeA.tryAcquireDevice("user-123", "d1")).isZero();
+        }
+
+        assertThat(nodeA.tryAcquireDevice("user-123", "d1")).isPositive();
+        assertThat(nodeA.tryAcquireDevice("user-123", "d2")).isZero();
+        assertThat(nodeA.tryAcquireLogin("10.0.0.1")).isZero();
+    }
+
+    @Test
+    void clusterTierBlocksDeviceOverdrawnAcrossNodes() {
+        // Each node stays within its local burst, together they do not
+        for (int i = 0; i < BURST - 1; i++) {
+            assertThat(nodeA.tryAcquireDevice("user-123", "d1")).isZero();
+            assertThat(nodeB.tryAcquireDevice("user-123", "d1")).isZero();
+        }
+
+        nodeA.sync(); // 4 of 5 tokens
+        nodeB.sync(); // 3 short
+
+        assertThat(nodeA.tryAcquireDevice("user-123", "d1")).isZero();
+        assertThat(nodeB.tryAcquireDevice("user-123", "d1")).isPositive();
+        assertThat(nodeB.tryAcquireDevice("user-123", "d2")).isZero();
+
+        nodeA.sync();
+
+        assertThat(nodeA.tryAcquireDevice("user-123", "d1")).isPositive();
+    }
+}
@@ -0,0 +1,144 @@
+package com.gp.poc.noncepoc.service;
+
+import com.gp.poc.noncepoc.JedisMockRedis;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.gp.poc.noncepoc.service.RedisKeyCodec.Mode.COMPACT;
+import static com.gp.poc.noncepoc.service.RedisKeyCodec.Mode.LEGACY;
+import static com.gp.poc.noncepoc.service.RedisKeyCodec.Mode.MIGRATE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Nodes in adjacent key modes share one Redis during a rolling deploy
+class RedisKeyMigrationTest {
+
+    private static final String SECRET = "test-hash-secret";
+    private static final String URI = "/api/payments/execute";
+
+    private final RedisKeyCodec legacy = new RedisKeyCodec(LEGACY, SECRET);
+    private final RedisKeyCodec migrate = new RedisKeyCodec(MIGRATE, SECRET);
+    private final RedisKeyCodec compact = new RedisKeyCodec(COMPACT, SECRET);
+
+    @RegisterExtension
+    final JedisMockRedis redis = new JedisMockRedis();
+
+    private RedisTemplate<byte[], byte[]> template;
+    private final List<IdempotencyService> services = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        template = redis.template();
+    }
+
+    @AfterEach
+    void tearDown() {
+        services.forEach(IdempotencyService::shutdown);
+    }
+
+    @Test
+    void compactKeysAreFixedWidthAndMatchPeerBroadcasts() {
+        RedisKey shortKey = compact.nonce("u", "GET", "/", "n");
+        RedisKey longKey = compact.nonce(
+                "user-" + "x".repeat(200), "POST", URI, "n".repeat(64));
+
+        assertThat(shortKey.raw()).hasSize(1 + RedisKeyCodec.HASH_BYTES);
+        assertThat(longKey.raw()).hasSize(1 + RedisKeyCodec.HASH_BYTES);
+
+        // A LEGACY/MIGRATE peer names keys in the legacy layout
+        RedisKey session = compact.session("user-123", "device-abc");
+        byte[] broadcast = migrate.session("user-123", "device-abc").broadcastForm();
+        assertThat(compact.fromPeer(broadcast)).isEqualTo(session);
+        assertThat(compact.fromPeer(session.raw())).isEqualTo(session);
+    }
+
+    @Test
+    void nonceClaimedInOneModeIsSeenByAdjacentModes() {
+        for (RedisNonceService.Storage storage : List.of(
+                RedisNonceService.Storage.KEYS, RedisNonceService.Storage.BUCKETS)) {
+            RedisNonceService legacyNode = nonces(legacy, storage);
+            RedisNonceService migrateNode = nonces(migrate, storage);
+            RedisNonceService compactNode = nonces(compact, storage);
+            String n1 = "n1-" + storage;
+            String n2 = "n2-" + storage;
+
+            assertThat(legacyNode.claimNonce(legacyNode.slot("u", "d", "POST", URI, n1))).isTrue();
+            assertThat(migrateNode.claimNonce(migrateNode.slot("u", "d", "POST", URI, n1))).isFalse();
+
+            assertThat(migrateNode.claimNonce(migrateNode.slot("u", "d", "POST", URI, n2))).isTrue();
+            assertThat(legacyNode.claimNonce(legacyNode.slot("u", "d", "POST", URI, n2))).isFalse();
+            assertThat(compactNode.claimNonce(compactNode.slot("u", "d", "POST", URI, n2))).isFalse();
+        }
+    }
+
+    // Buckets are ttl + drift (600s) wide: a nonce claimed in the last
+    // second of one is still seen ttl + drift later, while a request dated
+    // drift ahead is still accepted
+    @Test
+    void bucketedNonceIsStillSeenFromTheNextBucket() {
+        RedisNonceService nonces = nonces(compact, RedisNonceService.Storage.BUCKETS);
+        long bucketEnd = (Instant.now().getEpochSecond() / 600 + 1) * 600;
+
+        NonceSlot claimed = nonces.slot("u", "d", "POST", URI, "n", bucketEnd - 1);
+        NonceSlot replay = nonces.slot("u", "d", "POST", URI, "n", bucketEnd - 1 + 600);
+
+        assertThat(claimed.expireAt()).isGreaterThanOrEqualTo(bucketEnd - 1 + 600);
+
+        assertThat(claimed.bucket()).isNotEqualTo(replay.bucket());
+        assertThat(claimed.bucket()).isEqualTo(replay.previousBucket());
+        assertThat(nonces.claimNonce(claimed)).isTrue();
+        assertThat(nonces.claimNonce(replay)).isFalse();
+    }
+
+    @Test
+    void idempotencyLeaseAndResultAreSharedAcrossAdjacentModes() {
+        IdempotencyService legacyNode = service(legacy);
+        IdempotencyService migrateNode = service(migrate);
+        IdempotencyService compactNode = service(compact);
+
+        IdempotencyLease lease =
+                legacyNode.tryAcquire(legacy.idempotency("u", URI, "k1"));
+        assertThat(lease).isNotNull();
+        assertThat(migrateNode.tryAcquire(migrate.idempotency("u", URI, "k1"))).isNull();
+
+        IdempotencyLease migrated =
+                migrateNode.tryAcquire(migrate.idempotency("u", URI, "k2"));
+        assertThat(compactNode.tryAcquire(compact.idempotency("u", URI, "k2"))).isNull();
+        assertThat(migrateNode.storeResult(migrated, response("done"))).isTrue();
+
+        assertThat(legacyNode.getResult(legacy.idempotency("u", URI, "k2"))).isPresent();
+        assertThat(compactNode.getResult(compact.idempotency("u", URI, "k2"))).isPresent();
+    }
+
+    private RedisNonceService nonces(
+            RedisKeyCodec keyCodec,
+            RedisNonceService.Storage storage
+    ) {
+        return new RedisNonceService(template, keyCodec, storage, 300, 300, 1024);
+    }
+
+    private IdempotencyService service(RedisKeyCodec keyCodec) {
+        IdempotencyService service = new IdempotencyService(
+                template, new IdempotencyWaiters(keyCodec), keyCodec,
+                new SimpleMeterRegistry(), 512, 10_000);
+        services.add(service);
+        return service;
+    }
+
+    private static StoredResponse response(String body) {
+        return new StoredResponse(
+                200,
+                Map.of("Content-Type", "application/json"),
+                body.getBytes(StandardCharsets.UTF_8)
+        );
+    }
+}
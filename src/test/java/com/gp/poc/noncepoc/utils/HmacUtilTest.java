@@ -0,0 +1,90 @@
+package com.gp.poc.noncepoc.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HmacUtilTest {
+
+    private static final String KEY = "3f2b9c0d4e5a46b7a8c9d0e1f2a3b4c5";
+    private static final String PATH = "/api/payments/execute";
+    private static final long TIMESTAMP = 1_703_801_200L;
+    private static final String NONCE = "550e8400-e29b-41d4-a716-446655440000";
+
+    @Test
+    void verifiesWhatGenerateSigns() throws Exception {
+        String v1 = sign(PATH, null);
+        assertThat(HmacUtil.verifyHmacSha256(KEY, v1, "POST", PATH, TIMESTAMP, NONCE)).isTrue();
+
+        byte[] bodySha256 = MessageDigest.getInstance("SHA-256")
+                .digest("{\"amount\":100}".getBytes(StandardCharsets.UTF_8));
+        String v2 = sign(PATH, bodySha256);
+        assertThat(HmacUtil.verifyHmacSha256(
+                KEY, v2, "POST", PATH, TIMESTAMP, NONCE, bodySha256)).isTrue();
+        assertThat(HmacUtil.verifyHmacSha256(
+                KEY, v1, "POST", PATH, TIMESTAMP, NONCE, bodySha256)).isFalse();
+
+        // Non-ASCII takes the allocating fallback, same result
+        String nonAscii = "/api/payments/é";
+        assertThat(HmacUtil.verifyHmacSha256(
+                KEY, sign(nonAscii, null), "POST", nonAscii, TIMESTAMP, NONCE)).isTrue();
+    }
+
+    @Test
+    void rejectsAnyOtherInput() {
+        String signature = sign(PATH, null);
+
+        assertThat(HmacUtil.verifyHmacSha256(
+                "another-key", signature, "POST", PATH, TIMESTAMP, NONCE)).isFalse();
+        assertThat(HmacUtil.verifyHmacSha256(
+                KEY, signature, "GET", PATH, TIMESTAMP, NONCE)).isFalse();
+        assertThat(HmacUtil.verifyHmacSha256(
+                KEY, signature, "POST", PATH, TIMESTAMP + 1, NONCE)).isFalse();
+        assertThat(HmacUtil.verifyHmacSha256(
+                KEY, signature, "POST", PATH, TIMESTAMP, NONCE + "x")).isFalse();
+    }
+
+    @Test
+    void acceptsOnlyTheCanonicalEncodingOfTheMac() {
+        String signature = sign(PATH, null);
+        assertThat(signature).hasSize(44).endsWith("=");
+
+        // 43 chars carry 258 bits: the last char's 2 low bits are not part
+        // of the MAC, setting them decodes to the same bytes
+        char last = signature.charAt(42);
+        String strayBits = signature.substring(0, 42)
+                + alphabet().charAt(alphabet().indexOf(last) | 1) + "=";
+
+        for (String variant : new String[]{
+                signature.substring(0, 43),   // unpadded
+                signature + "=",              // extra padding
+                " " + signature,              // whitespace
+                signature + " ",
+                strayBits,
+                signature.replace('+', '-').replace('/', '_'), // URL-safe
+                ""
+        }) {
+            if (variant.equals(signature)) {
+                continue; // no + or / to swap
+            }
+            assertThat(HmacUtil.isWellFormedSignature(variant)).as(variant).isFalse();
+            assertThat(HmacUtil.verifyHmacSha256(
+                    KEY, variant, "POST", PATH, TIMESTAMP, NONCE)).as(variant).isFalse();
+        }
+
+        assertThat(HmacUtil.isWellFormedSignature(signature)).isTrue();
+    }
+
+    private static String sign(String path, byte[] bodySha256) {
+        return HmacUtil.generateHmacSha256(KEY, bodySha256 == null
+                ? CanonicalPayload.build("POST", path, TIMESTAMP, NONCE)
+                : CanonicalPayload.build("POST", path, TIMESTAMP, NONCE, bodySha256));
+    }
+
+    private static String alphabet() {
+        return "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+    }
+}
@@ -0,0 +1,66 @@
+package com.gp.poc.noncepoc.utils;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.security.SignatureException;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JwtUtilTest {
+
+    private static final String SECRET = "test-jwt-secret-test-jwt-secret-test-jwt-secret";
+
+    @Test
+    void cachesVerifiedClaimsPerToken() {
+        JwtUtil jwtUtil = jwtUtil(900, 100);
+        String token = jwtUtil.generateToken("user-123", "device-abc");
+
+        Claims claims = jwtUtil.validate(token);
+        assertThat(claims.getSubject()).isEqualTo("user-123");
+        assertThat(claims.get("deviceId", String.class)).isEqualTo("device-abc");
+
+        // Second time from the cache, not parsed again
+        assertThat(jwtUtil.validate(token)).isSameAs(claims);
+    }
+
+    @Test
+    void cachedTokenDoesNotVouchForATamperedOne() {
+        JwtUtil jwtUtil = jwtUtil(900, 100);
+        String token = jwtUtil.generateToken("user-123", "device-abc");
+        jwtUtil.validate(token);
+
+        int dot = token.lastIndexOf('.');
+        String tampered = token.substring(0, dot + 1)
+                + (token.charAt(dot + 1) == 'A' ? 'B' : 'A')
+                + token.substring(dot + 2);
+
+        assertThatThrownBy(() -> jwtUtil.validate(tampered))
+                .isInstanceOf(SignatureException.class);
+    }
+
+    @Test
+    void expiredTokensAreRejectedWithOrWithoutCache() {
+        for (long cacheSize : new long[]{0, 100}) {
+            JwtUtil jwtUtil = jwtUtil(-60, cacheSize);
+            String token = jwtUtil.generateToken("user-123", "device-abc");
+
+            assertThatThrownBy(() -> jwtUtil.validate(token))
+                    .isInstanceOf(ExpiredJwtException.class);
+            assertThatThrownBy(() -> jwtUtil.validate(token))
+                    .isInstanceOf(ExpiredJwtException.class);
+        }
+    }
+
+    private static JwtUtil jwtUtil(long ttlSeconds, long claimsCacheMaxSize) {
+        JwtUtil jwtUtil = new JwtUtil();
+        ReflectionTestUtils.setField(jwtUtil, "secret", SECRET);
+        ReflectionTestUtils.setField(jwtUtil, "issuer", "gp-nonce-poc");
+        ReflectionTestUtils.setField(jwtUtil, "accessTokenTtl", ttlSeconds);
+        ReflectionTestUtils.setField(jwtUtil, "claimsCacheMaxSize", claimsCacheMaxSize);
+        jwtUtil.init();
+        return jwtUtil;
+    }
+}